@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipselabs.collage.colourpicker.model;
 
+import java.io.IOException;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
@@ -22,6 +24,8 @@ import org.eclipse.ui.views.properties.IPropertyDescriptor;
 import org.eclipse.ui.views.properties.PropertyDescriptor;
 import org.eclipselabs.collage.colourpicker.xml.adapters.RGBAdapter;
 import org.eclipselabs.collage.model.Shape;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 import org.eclipselabs.collage.util.CollageUtilities;
 
 /**
@@ -85,6 +89,22 @@ public abstract class ColouredShape extends Shape {
 		updateLastModified();
 	}
 		
+	@Override
+	public void writeBinary (CollageDataOutput out) throws IOException {
+		super.writeBinary(out);
+		out.writeByte(colour.red);
+		out.writeByte(colour.green);
+		out.writeByte(colour.blue);
+	}
+
+	@Override
+	public void readBinary (CollageDataInput in) throws IOException {
+		super.readBinary(in);
+		int red = in.readByte();
+		int green = in.readByte();
+		colour = new RGB(red, green, in.readByte());
+	}
+
 	protected static IPropertyDescriptor makeColourPropertyDescriptor(String id, String displayName, 
 			String description, String category) {
 		PropertyDescriptor descriptor = new ColorPropertyDescriptor(id, displayName); 
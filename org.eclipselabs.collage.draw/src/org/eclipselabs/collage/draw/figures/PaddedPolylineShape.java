@@ -17,6 +17,7 @@ import org.eclipse.draw2d.PolylineShape;
 import org.eclipse.draw2d.geometry.Dimension;
 import org.eclipse.draw2d.geometry.PointList;
 import org.eclipse.draw2d.geometry.Rectangle;
+import org.eclipselabs.collage.draw.util.PointListSimplifier;
 
 /**
  * <p>A {@link PolylineShape} with the following extensions:</p>
@@ -24,10 +25,21 @@ import org.eclipse.draw2d.geometry.Rectangle;
  * <li>bounds padded to accommodate the width of the line drawn</li> 
  * <li>support for scaling on resize</li>
  * <li>support for lines with only one point</li>
+ * <li>levels of detail: long polylines are drawn simplified to within half a pixel on screen, or more
+ * coarsely if they still have very many points</li>
  * </ul>
  * @author Alex Bradley
  */
 public class PaddedPolylineShape extends PolylineShape {
+	/** Tolerances (in pixels) of the levels of detail, finest first. */
+	private static final double[] LOD_TOLERANCES = {0.5, 1.0, 2.0, 4.0};
+	/** Polylines with fewer points than this are always drawn in full. */
+	private static final int LOD_MIN_POINTS = 64;
+	/** Greatest distance, in screen pixels, that simplification may move a polyline. */
+	private static final double LOD_SCREEN_TOLERANCE = 0.5;
+	/** Greatest number of points to draw if a coarser level of detail has fewer. */
+	private static final int LOD_MAX_POINTS = 4096;
+
 	/** True iff the polyline should scale on resize. */
 	private final boolean scalingOn;
 	
@@ -39,6 +51,11 @@ public class PaddedPolylineShape extends PolylineShape {
 	private Rectangle cachedBounds;
 	/** Cached copy of padded bounds. */
 	private Rectangle cachedExpandedBounds;
+	/** Points from which {@link #lodLevels} were computed. */
+	private PointList lodSource;
+	private int lodSourceSize;
+	/** Levels of detail of {@link #lodSource}, finest first. */
+	private PointList[] lodLevels;
 	
 	/**
 	 * Create a padded polyline shape.
@@ -58,11 +75,38 @@ public class PaddedPolylineShape extends PolylineShape {
 			graphics.setBackgroundColor(graphics.getForegroundColor());
 			graphics.fillOval(bounds.getTranslated(bounds.getTopLeft().negate()));
 		} else {
-			graphics.drawPolyline(scalingOn ? getScaledPoints() : getPoints());
+			graphics.drawPolyline(getLevelOfDetail(scalingOn ? getScaledPoints() : getPoints(), graphics.getAbsoluteScale()));
 		}
 		graphics.popState();
 	}
 
+	/**
+	 * Choose the points to draw: the coarsest level of detail within {@link #LOD_SCREEN_TOLERANCE} on screen,
+	 * or a coarser one if that still has more than {@link #LOD_MAX_POINTS} points. The choice depends only on
+	 * the points and the scale, so every pass of a paint draws the same level.
+	 * @param points Full list of points to draw
+	 * @param scale Scale from figure coordinates to screen pixels
+	 */
+	private PointList getLevelOfDetail (PointList points, double scale) {
+		if (points.size() < LOD_MIN_POINTS) {
+			return points;
+		}
+		if (points != lodSource || points.size() != lodSourceSize) {
+			lodSource = points;
+			lodSourceSize = points.size();
+			lodLevels = PointListSimplifier.getLevelsOfDetail(points, LOD_TOLERANCES);
+		}
+		PointList chosen = points;
+		for (int i = 0; i < lodLevels.length; i++) {
+			if (LOD_TOLERANCES[i] * scale <= LOD_SCREEN_TOLERANCE || chosen.size() > LOD_MAX_POINTS) {
+				chosen = lodLevels[i];
+			} else {
+				break;
+			}
+		}
+		return chosen;
+	}
+
 	/**
 	 * @return Amount by which to pad bounds.
 	 */
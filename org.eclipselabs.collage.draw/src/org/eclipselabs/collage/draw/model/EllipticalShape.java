@@ -16,6 +16,7 @@ import javax.xml.bind.annotation.XmlType;
 
 import org.eclipse.swt.graphics.Image;
 import org.eclipselabs.collage.draw.DrawActivator;
+import org.eclipselabs.collage.model.Shape;
 
 /**
  * An elliptical shape.
@@ -34,4 +35,9 @@ public class EllipticalShape extends VariableLineWidthShape {
 	public String toString() {
 		return "Ellipse (" + getShapeBoundariesDescription() + ")";
 	}
+
+	@Override
+	protected Class<? extends Shape> getBinaryFormClass () {
+		return EllipticalShape.class;
+	}
 }
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipselabs.collage.draw.model;
 
+import java.io.IOException;
+
 import javax.xml.bind.annotation.XmlType;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
@@ -17,6 +19,10 @@ import org.eclipse.draw2d.geometry.PointList;
 import org.eclipse.swt.graphics.Image;
 import org.eclipselabs.collage.draw.DrawActivator;
 import org.eclipselabs.collage.draw.xml.adapters.PointListAdapter;
+import org.eclipselabs.collage.model.Shape;
+import org.eclipselabs.collage.util.CollageContentPool;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 
 /**
  * Model for a freehand sketch (list of points).
@@ -59,4 +65,28 @@ public class FreehandSketchShape extends VariableLineWidthShape {
 	public synchronized int getNumPoints () {
 		return points.size();
 	}
+
+	@Override
+	protected Class<? extends Shape> getBinaryFormClass () {
+		return FreehandSketchShape.class;
+	}
+
+	@Override
+	public void writeBinary (CollageDataOutput out) throws IOException {
+		super.writeBinary(out);
+		synchronized (this) {
+			out.writePointList(points);
+		}
+	}
+
+	@Override
+	public void readBinary (CollageDataInput in) throws IOException {
+		super.readBinary(in);
+		// Sketches with the same points (e.g., copies of a stamp) share a single point list. It is never
+		// modified in place: getPoints() and setPoints() copy.
+		PointList newPoints = CollageContentPool.internPoints(in.readPointList());
+		synchronized (this) {
+			points = newPoints;
+		}
+	}
 }
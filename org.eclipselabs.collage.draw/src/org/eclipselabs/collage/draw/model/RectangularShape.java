@@ -16,6 +16,7 @@ import javax.xml.bind.annotation.XmlType;
 
 import org.eclipse.swt.graphics.Image;
 import org.eclipselabs.collage.draw.DrawActivator;
+import org.eclipselabs.collage.model.Shape;
 
 /**
  * A rectangular shape.
@@ -34,4 +35,9 @@ public class RectangularShape extends VariableLineWidthShape {
 	public String toString() {
 		return "Rectangle (" + getShapeBoundariesDescription() + ")";
 	}
+
+	@Override
+	protected Class<? extends Shape> getBinaryFormClass () {
+		return RectangularShape.class;
+	}
 }
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipselabs.collage.draw.model;
 
+import java.io.IOException;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
@@ -17,6 +19,8 @@ import javax.xml.bind.annotation.XmlTransient;
 
 import org.eclipse.ui.views.properties.IPropertyDescriptor;
 import org.eclipselabs.collage.colourpicker.model.ColouredShape;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 import org.eclipselabs.collage.util.CollageUtilities;
 
 /**
@@ -74,4 +78,16 @@ public abstract class VariableLineWidthShape extends ColouredShape {
 		firePropertyChange(LINE_WIDTH_PROP, oldLineWidth, lineWidth);
 		updateLastModified();
 	}
+
+	@Override
+	public void writeBinary (CollageDataOutput out) throws IOException {
+		super.writeBinary(out);
+		out.writeVarInt(lineWidth);
+	}
+
+	@Override
+	public void readBinary (CollageDataInput in) throws IOException {
+		super.readBinary(in);
+		lineWidth = in.readVarInt();
+	}
 }
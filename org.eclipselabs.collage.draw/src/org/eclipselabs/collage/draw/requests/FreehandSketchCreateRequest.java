@@ -24,6 +24,7 @@ import org.eclipselabs.collage.colourpicker.model.ColouredShape;
 import org.eclipselabs.collage.draw.figures.PaddedPolylineShape;
 import org.eclipselabs.collage.draw.model.FreehandSketchShape;
 import org.eclipselabs.collage.draw.model.VariableLineWidthShape;
+import org.eclipselabs.collage.draw.util.PointListSimplifier;
 import org.eclipselabs.collage.requests.ICreateRequestCustomFeedback;
 import org.eclipselabs.collage.util.CollageUtilities;
 
@@ -40,6 +41,9 @@ public class FreehandSketchCreateRequest extends CreateRequest implements ICreat
 	 * Indicate the location of this request if no points have been entered.
 	 */
 	private Point fallbackLocation = new Point(0, 0);
+
+	/** Tolerance (in pixels) with which the finished sketch is simplified. */
+	private double simplificationTolerance = 0;
 	
 	protected RGB getColour() {
 		return ((ColouredShape)getNewObject()).getColour();
@@ -60,6 +64,16 @@ public class FreehandSketchCreateRequest extends CreateRequest implements ICreat
 		return copy;
 	}
 	
+	/**
+	 * Set the tolerance with which the finished sketch is simplified (see
+	 * {@link PointListSimplifier#simplify(PointList, double)}.) The feedback shown while sketching is not
+	 * simplified.
+	 * @param tolerance Tolerance in pixels, or 0 to keep every point
+	 */
+	public void setSimplificationTolerance (double tolerance) {
+		simplificationTolerance = tolerance;
+	}
+
 	/**
 	 * Add a single point to this sketch.
 	 * @param point
@@ -104,7 +118,8 @@ public class FreehandSketchCreateRequest extends CreateRequest implements ICreat
 	public Object getNewObject() {
 		Object newObject = super.getNewObject();
 		if (newObject instanceof FreehandSketchShape) {
-			((FreehandSketchShape)newObject).setPoints(getPoints());
+			// Simplification keeps the bounds of the points, so the sketch still fits the size of this request.
+			((FreehandSketchShape)newObject).setPoints(PointListSimplifier.simplify(getPoints(), simplificationTolerance));
 		}
 		return newObject;
 	}
@@ -21,6 +21,17 @@ import org.eclipselabs.collage.draw.requests.FreehandSketchCreateRequest;
  * @author Alex Bradley
  */
 public class FreehandSketchTool extends VariableLineWidthShapeCreationTool {
+	/**
+	 * Property to be used in {@link #setProperties(java.util.Map)} for the tolerance, in pixels, with which
+	 * finished sketches are simplified (a {@link Number}; 0 keeps every point.)
+	 */
+	public static final Object PROPERTY_SIMPLIFICATION_TOLERANCE = "simplificationTolerance";
+
+	/** Default simplification tolerance. Points within a pixel of the simplified sketch are dropped. */
+	public static final double DEFAULT_SIMPLIFICATION_TOLERANCE = 1.0;
+
+	private double simplificationTolerance = DEFAULT_SIMPLIFICATION_TOLERANCE;
+
 	public FreehandSketchTool () {
 		super(new SimpleFactory(FreehandSketchShape.class));
 		
@@ -31,9 +42,21 @@ public class FreehandSketchTool extends VariableLineWidthShapeCreationTool {
 	protected Request createTargetRequest() {
 		FreehandSketchCreateRequest request = new FreehandSketchCreateRequest();
 		request.setFactory(getFactory());
+		request.setSimplificationTolerance(simplificationTolerance);
 		return request;
 	}
 
+	@Override
+	protected void applyProperty(Object key, Object value) {
+		if (PROPERTY_SIMPLIFICATION_TOLERANCE.equals(key)) {
+			if (value instanceof Number) {
+				simplificationTolerance = Math.max(0, ((Number)value).doubleValue());
+			}
+			return;
+		}
+		super.applyProperty(key, value);
+	}
+
 	@Override
 	protected String getDebugName() {
 		return "Freehand Sketching Tool";
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.draw.util;
+
+import org.eclipse.draw2d.geometry.PointList;
+
+/**
+ * <p>Simplifies polylines (e.g., freehand sketches) with the Ramer-Douglas-Peucker algorithm: points are
+ * dropped as long as the simplified polyline stays within a tolerance of every original point.</p>
+ *
+ * <p>The first and last points are always kept, and so are the leftmost, rightmost, topmost and
+ * bottommost points, so a simplified polyline has the same bounds as the original. (Sketches are
+ * scaled to the bounds of their points, so this keeps them from being stretched.)</p>
+ * @author Alex Bradley
+ */
+public final class PointListSimplifier {
+	private PointListSimplifier () { }
+
+	/**
+	 * Simplify a polyline.
+	 * @param points Points of the polyline (not modified)
+	 * @param tolerance Greatest distance, in pixels, between an original point and the simplified polyline.
+	 * If &le; 0, the points are copied unchanged.
+	 * @return New list of the points kept, in their original order
+	 */
+	public static PointList simplify (PointList points, double tolerance) {
+		int[] coords = points.toIntArray();
+		int size = points.size();
+		if (size <= 2 || tolerance <= 0) {
+			return copy(coords, size);
+		}
+
+		boolean[] keep = new boolean[size];
+		keep[0] = true;
+		keep[size - 1] = true;
+		keepExtremes(coords, size, keep);
+
+		// Iterative rather than recursive, since sketches can have thousands of points. Each entry on the
+		// stack is a (first, last) range still to be simplified; to start with, the ranges between the points
+		// that are always kept.
+		double toleranceSquared = tolerance * tolerance;
+		int[] stack = new int[2 * size];
+		int top = 0;
+		int previous = 0;
+		for (int i = 1; i < size; i++) {
+			if (keep[i]) {
+				stack[top++] = previous;
+				stack[top++] = i;
+				previous = i;
+			}
+		}
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			int farthest = -1;
+			double farthestDistance = toleranceSquared;
+			for (int i = first + 1; i < last; i++) {
+				double distance = segmentDistanceSquared(coords, i, first, last);
+				if (distance > farthestDistance) {
+					farthest = i;
+					farthestDistance = distance;
+				}
+			}
+			if (farthest != -1) {
+				keep[farthest] = true;
+				stack[top++] = first;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = last;
+			}
+		}
+
+		int kept = 0;
+		for (boolean k : keep) {
+			if (k) {
+				kept++;
+			}
+		}
+		int[] result = new int[2 * kept];
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			if (keep[i]) {
+				result[j++] = coords[2 * i];
+				result[j++] = coords[2 * i + 1];
+			}
+		}
+		return new PointList(result);
+	}
+
+	/**
+	 * Compute levels of detail for a polyline. Each level is simplified from the original points, so it is
+	 * within its own tolerance of them; with increasing tolerances, each level keeps a subset of the points
+	 * of the one before it.
+	 * @param points Points of the polyline (not modified)
+	 * @param tolerances Tolerances of the levels, in pixels
+	 * @return Simplified point lists, one per tolerance
+	 */
+	public static PointList[] getLevelsOfDetail (PointList points, double[] tolerances) {
+		PointList[] levels = new PointList[tolerances.length];
+		for (int i = 0; i < tolerances.length; i++) {
+			levels[i] = simplify(points, tolerances[i]);
+		}
+		return levels;
+	}
+
+	private static PointList copy (int[] coords, int size) {
+		int[] result = new int[2 * size];
+		System.arraycopy(coords, 0, result, 0, result.length);
+		return new PointList(result);
+	}
+
+	private static void keepExtremes (int[] coords, int size, boolean[] keep) {
+		int left = 0, right = 0, top = 0, bottom = 0;
+		for (int i = 1; i < size; i++) {
+			int x = coords[2 * i];
+			int y = coords[2 * i + 1];
+			if (x < coords[2 * left]) {
+				left = i;
+			}
+			if (x > coords[2 * right]) {
+				right = i;
+			}
+			if (y < coords[2 * top + 1]) {
+				top = i;
+			}
+			if (y > coords[2 * bottom + 1]) {
+				bottom = i;
+			}
+		}
+		keep[left] = true;
+		keep[right] = true;
+		keep[top] = true;
+		keep[bottom] = true;
+	}
+
+	/**
+	 * Get the squared distance from point {@code i} to the segment between points {@code first} and
+	 * {@code last}.
+	 */
+	private static double segmentDistanceSquared (int[] coords, int i, int first, int last) {
+		double px = coords[2 * i], py = coords[2 * i + 1];
+		double ax = coords[2 * first], ay = coords[2 * first + 1];
+		double dx = coords[2 * last] - ax, dy = coords[2 * last + 1] - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = (lengthSquared == 0) ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		double ex = ax + t * dx - px;
+		double ey = ay + t * dy - py;
+		return ex * ex + ey * ey;
+	}
+}
@@ -15,9 +15,11 @@ import java.util.StringTokenizer;
 import javax.xml.bind.annotation.adapters.XmlAdapter;
 
 import org.eclipse.draw2d.geometry.PointList;
+import org.eclipselabs.collage.util.CollageContentPool;
 
 /**
- * Serialize and deserialize a {@link PointList} to and from a string format.
+ * Serialize and deserialize a {@link PointList} to and from a string format. Deserialized lists are
+ * shared through the {@link CollageContentPool}.
  * @author Alex Bradley
  */
 public class PointListAdapter extends XmlAdapter<String, PointList> {
@@ -30,7 +32,7 @@ public class PointListAdapter extends XmlAdapter<String, PointList> {
 			points[i] = Integer.parseInt(tok.nextToken());
 			i++;
 		}
-		return new PointList(points);
+		return CollageContentPool.internPoints(new PointList(points));
 	}
 
 	@Override
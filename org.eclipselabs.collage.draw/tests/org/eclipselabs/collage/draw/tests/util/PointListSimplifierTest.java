@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.draw.tests.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.eclipse.draw2d.geometry.PointList;
+import org.eclipselabs.collage.draw.util.PointListSimplifier;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Test {@link PointListSimplifier}.
+ * @author Alex Bradley
+ */
+public class PointListSimplifierTest {
+	@Test
+	public void testStraightLine () {
+		PointList line = new PointList(new int[] {0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5});
+		int[] simplified = PointListSimplifier.simplify(line, 0.5).toIntArray();
+		assertTrue(Arrays.equals(new int[] {0, 0, 5, 5}, simplified));
+	}
+
+	@Test
+	public void testCorner () {
+		PointList corner = new PointList(new int[] {0, 0, 5, 1, 10, 0, 10, 5, 10, 10});
+		int[] simplified = PointListSimplifier.simplify(corner, 2).toIntArray();
+		assertTrue(Arrays.equals(new int[] {0, 0, 10, 0, 10, 10}, simplified));
+		// Nothing is dropped with zero tolerance.
+		assertTrue(Arrays.equals(corner.toIntArray(), PointListSimplifier.simplify(corner, 0).toIntArray()));
+	}
+
+	@Test
+	public void testRandomWalk () {
+		Random random = new Random(42);
+		int[] coords = new int[2000];
+		for (int i = 2; i < coords.length; i++) {
+			coords[i] = coords[i - 2] + random.nextInt(5) - 2;
+		}
+		PointList points = new PointList(coords);
+		double tolerance = 3;
+		PointList simplified = PointListSimplifier.simplify(points, tolerance);
+		assertTrue(simplified.size() < points.size());
+		assertTrue(Arrays.equals(getBounds(coords), getBounds(simplified.toIntArray())));
+
+		// Every original point lies within the tolerance of the simplified polyline.
+		int[] kept = simplified.toIntArray();
+		for (int i = 0; i < coords.length; i += 2) {
+			double best = Double.MAX_VALUE;
+			for (int j = 0; j + 2 < kept.length; j += 2) {
+				best = Math.min(best, distance(coords[i], coords[i + 1], kept[j], kept[j + 1], kept[j + 2], kept[j + 3]));
+			}
+			assertTrue(best <= tolerance + 1e-9);
+		}
+
+		// Each level is simplified from the original points, not from the level before it.
+		double[] tolerances = {1, 2, 4};
+		PointList[] levels = PointListSimplifier.getLevelsOfDetail(points, tolerances);
+		for (int i = 0; i < levels.length; i++) {
+			assertTrue(Arrays.equals(PointListSimplifier.simplify(points, tolerances[i]).toIntArray(), levels[i].toIntArray()));
+			if (i > 0) {
+				assertTrue(levels[i].size() <= levels[i - 1].size());
+			}
+		}
+	}
+
+	private static int[] getBounds (int[] coords) {
+		int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+		for (int i = 0; i < coords.length; i += 2) {
+			bounds[0] = Math.min(bounds[0], coords[i]);
+			bounds[1] = Math.min(bounds[1], coords[i + 1]);
+			bounds[2] = Math.max(bounds[2], coords[i]);
+			bounds[3] = Math.max(bounds[3], coords[i + 1]);
+		}
+		return bounds;
+	}
+
+	private static double distance (double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax, dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = (lengthSquared == 0) ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+		return Math.hypot(ax + t * dx - px, ay + t * dy - py);
+	}
+}
@@ -10,14 +10,20 @@
  *******************************************************************************/
 package org.eclipselabs.collage.text.model;
 
+import java.io.IOException;
 import java.util.regex.Pattern;
 
+import javax.xml.bind.Unmarshaller;
 import javax.xml.bind.annotation.XmlType;
 
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.ui.views.properties.IPropertyDescriptor;
 import org.eclipselabs.collage.colourpicker.model.ColouredShape;
+import org.eclipselabs.collage.model.Shape;
 import org.eclipselabs.collage.text.TextExtension;
+import org.eclipselabs.collage.util.CollageContentPool;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 import org.eclipselabs.collage.util.CollageUtilities;
 
 /**
@@ -81,6 +87,32 @@ public class TextNoteShape extends ColouredShape {
 		}
 	}
 	
+	@Override
+	protected Class<? extends Shape> getBinaryFormClass () {
+		return TextNoteShape.class;
+	}
+
+	@Override
+	public void writeBinary (CollageDataOutput out) throws IOException {
+		super.writeBinary(out);
+		out.writeString(text);
+	}
+
+	@Override
+	public void readBinary (CollageDataInput in) throws IOException {
+		super.readBinary(in);
+		String newText = in.readString();
+		text = (newText != null) ? CollageContentPool.internText(newText) : "";
+	}
+
+	/**
+	 * JAXB callback: share the text with identical notes that have already been read.
+	 */
+	@SuppressWarnings("unused")
+	private void afterUnmarshal (Unmarshaller unmarshaller, Object parent) {
+		text = CollageContentPool.internText(text);
+	}
+
 	private static String condense (String text) {
 		String singleLine = NEWLINE_PATTERN.matcher(text).replaceAll(" ");
 		if (singleLine.length() > CONDENSED_LINE_LENGTH) {
@@ -12,15 +12,17 @@ package org.eclipselabs.collage;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.IJobManager;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
@@ -30,12 +32,17 @@ import org.eclipse.jface.resource.ColorRegistry;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.resource.ImageRegistry;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchListener;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.eclipselabs.collage.actions.FilesystemSchedulingRule;
 import org.eclipselabs.collage.model.CollageRoot;
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
+import org.eclipselabs.collage.storage.CollageAutosaveJob;
+import org.eclipselabs.collage.storage.CollageStore;
+import org.eclipselabs.collage.util.CollageExtensions;
 import org.eclipselabs.collage.util.CollageFontRegistry;
 import org.eclipselabs.collage.util.CollageUtilities;
 import org.osgi.framework.BundleContext;
@@ -43,7 +50,9 @@ import org.osgi.framework.BundleContext;
 /**
  * Singleton activator for Collage plugin. Provides SWT image, colour and font registries
  * that are used throughout the Collage plugin and are also available for use in extensions.
- * Handles deserialization and serialization of Collage data on plugin load and unload.  
+ * Handles deserialization and serialization of Collage data (through a {@link CollageStore}) on plugin
+ * load and unload, and autosaves changes in between. Stored data is loaded by a background job, so
+ * that plugin start does not wait for it; see {@link #whenDefaultCollageRootLoaded(Runnable)}.
  * @author Alex Bradley
  */
 public final class CollageActivator extends AbstractUIPlugin implements IWorkbenchListener {
@@ -53,7 +62,7 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 	public static final String PLUGIN_ID = "org.eclipselabs.collage"; //$NON-NLS-1$
 	public static final String PLUGIN_NAME = "Collage";
 
-	// Persistent storage file
+	// Single-file persistent storage used by earlier versions; migrated to the Collage store on first save
 	public static final String COLLAGE_STORAGE_FILE = "collage-storage.xml.gz";
 
 	// Save error messages
@@ -73,7 +82,13 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 	// The shared instance
 	private static CollageActivator plugin;
 	
-	private CollageRoot defaultCollageRoot = new CollageRoot();
+	private volatile CollageRoot defaultCollageRoot = null;
+	private final CountDownLatch defaultCollageRootLoaded = new CountDownLatch(1);
+	private final List<Runnable> loadListeners = new ArrayList<Runnable>();
+	private Job loadJob;
+	
+	private CollageStore store;
+	private CollageAutosaveJob autosaveJob;
 	
 	private ColorRegistry colorRegistry;
 	private CollageFontRegistry fontRegistry;
@@ -84,15 +99,19 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 		plugin = this;
 		
 		PlatformUI.getWorkbench().addWorkbenchListener(this);
+		CollageExtensions.addRegistryListener();
 		
 		colorRegistry = new ColorRegistry();
 		fontRegistry = new CollageFontRegistry();
 		
-		loadDefaultCollageRoot();
+		store = new CollageStore(getStateLocation().append(CollageStore.STORE_DIRECTORY).toFile());
+		autosaveJob = new CollageAutosaveJob(store);
+		scheduleDefaultCollageRootLoad();
 	}
 
 	@Override
 	public void stop(BundleContext context) throws Exception {
+		CollageExtensions.removeRegistryListener();
 		plugin = null;
 		super.stop(context);
 	}
@@ -107,13 +126,80 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 
 	/**
 	 * Get the Collage root model element (which is loaded from storage when the plugin starts and
-	 * saved when the plugin stops.)
+	 * saved when the plugin stops.) If the root is still being loaded, this waits for the load to finish;
+	 * UI code that can show a placeholder instead should use {@link #whenDefaultCollageRootLoaded(Runnable)}.
 	 * @return Collage model root
 	 */
 	public CollageRoot getDefaultCollageRoot() {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				defaultCollageRootLoaded.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
 		return defaultCollageRoot;
 	}
 
+	/**
+	 * Check if the default Collage root has finished loading, i.e., if {@link #getDefaultCollageRoot()} will
+	 * return without waiting.
+	 */
+	public boolean isDefaultCollageRootLoaded () {
+		return defaultCollageRootLoaded.getCount() == 0;
+	}
+
+	/**
+	 * Run a task on the UI thread once the default Collage root has been loaded. If it has already been
+	 * loaded, the task runs immediately. Must be called from the UI thread.
+	 * @param task Task to run
+	 */
+	public void whenDefaultCollageRootLoaded (Runnable task) {
+		synchronized (loadListeners) {
+			if (!isDefaultCollageRootLoaded()) {
+				loadListeners.add(task);
+				return;
+			}
+		}
+		task.run();
+	}
+
+	/**
+	 * Check whether there are any shapes for a resource, without reading them. Until the default Collage
+	 * root has been loaded, the answer comes from the store's shape index.
+	 * @param resource Resource identifier
+	 * @return false if there are definitely no shapes for {@code resource}
+	 */
+	public boolean hasShapesFor (ResourceIdentifier resource) {
+		if (isDefaultCollageRootLoaded()) {
+			return defaultCollageRoot.hasShapesFor(resource);
+		}
+		return store.hasStoredShapes(resource) || getLegacyStorageFile().exists();
+	}
+
+	/**
+	 * Get the store that holds the persisted form of the default Collage root. Shapes for a resource
+	 * are only read from the store when they are first used.
+	 * @return Collage store
+	 */
+	public CollageStore getCollageStore () {
+		return store;
+	}
+
+	/**
+	 * Get the job that autosaves the default Collage root. Command stacks that modify the Collage model
+	 * should add it as a listener.
+	 * @return Autosave job
+	 */
+	public CollageAutosaveJob getAutosaveJob () {
+		return autosaveJob;
+	}
+
 	/**
 	 * Get font registry.
 	 * @return Common font registry for this plugin.
@@ -185,26 +271,45 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 	
 	@Override
 	public boolean preShutdown(IWorkbench workbench, boolean forced) {
-		final File saveFile = getStateLocation().append(COLLAGE_STORAGE_FILE).toFile();
-		String path = saveFile.getAbsolutePath();
-		if (collageStorageAvailable() == CollageStorageState.UNAVAILABLE) {
-			return shouldShutdownProceed(path, "the file was not accessible", forced);
+		final File storeDirectory = store.getDirectory();
+		String path = storeDirectory.getAbsolutePath();
+		if (!isDefaultCollageRootLoaded()) {
+			// Nothing can have been changed before the stored data was loaded, so there is nothing to save.
+			loadJob.cancel();
+			return true;
+		} else if (collageStorageAvailable() == CollageStorageState.UNAVAILABLE) {
+			return shouldShutdownProceed(path, "the directory was not accessible", forced);
 		} else {
+			autosaveJob.cancel();
+			// Cancelling doesn't stop an autosave that is already running, and the busy cursor keeps the event
+			// loop going, so such an autosave could still prepare its snapshot. To keep snapshots written in the
+			// order they were prepared, the final snapshot is prepared only once the store's rule is held.
+			final Display display = workbench.getDisplay();
+			final CoreException[] prepareFailure = new CoreException[1];
 			try {
 				PlatformUI.getWorkbench().getProgressService().busyCursorWhile(new IRunnableWithProgress() {
 					@Override
 					public void run(IProgressMonitor monitor) throws InvocationTargetException,
 							InterruptedException {
 						IJobManager manager = Job.getJobManager();
-						ISchedulingRule rule = new FilesystemSchedulingRule(saveFile);
+						ISchedulingRule rule = new FilesystemSchedulingRule(storeDirectory);
 						try {
 							manager.beginRule(rule, monitor);
-							GZIPOutputStream gzOutputStream = new GZIPOutputStream(new FileOutputStream(saveFile));
-							try {
-								defaultCollageRoot.saveTo(gzOutputStream);
-							} finally {
-								gzOutputStream.close();
+							final CollageStore.Snapshot[] snapshot = new CollageStore.Snapshot[1];
+							display.syncExec(new Runnable() {
+								@Override
+								public void run() {
+									try {
+										snapshot[0] = store.prepareSave(defaultCollageRoot);
+									} catch (CoreException e) {
+										prepareFailure[0] = e;
+									}
+								}
+							});
+							if (prepareFailure[0] != null) {
+								throw prepareFailure[0];
 							}
+							store.write(snapshot[0]);
 						} catch (Exception e) {
 							throw new InvocationTargetException(e);
 						} finally {
@@ -214,7 +319,7 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 				});
 			} catch (InvocationTargetException e) {
 				e.printStackTrace();
-				return shouldShutdownProceed(path, "XML serialization failed", forced);				
+				return shouldShutdownProceed(path, (prepareFailure[0] != null) ? "serialization failed" : "writing to the store failed", forced);				
 			} catch (InterruptedException e) {
 				return shouldShutdownProceed(path, "the save operation was interrupted", forced);				
 			}
@@ -226,7 +331,48 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 	public void postShutdown(IWorkbench workbench) {
 	}
 
-	private void loadDefaultCollageRoot() {
+	private void scheduleDefaultCollageRootLoad () {
+		loadJob = new Job("Loading Collage data") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				CollageRoot root = null;
+				try {
+					root = loadDefaultCollageRoot();
+				} finally {
+					publishDefaultCollageRoot((root != null) ? root : new CollageRoot());
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		loadJob.setPriority(Job.SHORT);
+		loadJob.setRule(new FilesystemSchedulingRule(store.getDirectory()));
+		loadJob.schedule();
+	}
+
+	private void publishDefaultCollageRoot (CollageRoot root) {
+		List<Runnable> tasks;
+		synchronized (loadListeners) {
+			defaultCollageRoot = root;
+			autosaveJob.setRoot(root);
+			defaultCollageRootLoaded.countDown();
+			tasks = new ArrayList<Runnable>(loadListeners);
+			loadListeners.clear();
+		}
+		if (!tasks.isEmpty() && PlatformUI.isWorkbenchRunning()) {
+			Display display = PlatformUI.getWorkbench().getDisplay();
+			for (Runnable task : tasks) {
+				display.asyncExec(task);
+			}
+		}
+	}
+
+	/**
+	 * Load the default Collage root from storage. Runs in {@link #loadJob}, which holds the scheduling
+	 * rule for the store directory.
+	 * @return Loaded root (an empty root if there is no stored data or it could not be read)
+	 */
+	private CollageRoot loadDefaultCollageRoot() {
+		CollageRoot root = new CollageRoot();
 		switch (collageStorageAvailable()) {
 		case UNAVAILABLE:
 			showStorageUnavailableError();
@@ -235,22 +381,24 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 			// No action needed
 			break;
 		case HAS_DATA:
-			File loadFile = getStateLocation().append(COLLAGE_STORAGE_FILE).toFile();
+			boolean legacyStorage = !store.hasData();
+			File loadFile = legacyStorage ? getLegacyStorageFile() : store.getDirectory();
+			if (legacyStorage) {
+				// Once its contents (or a backup of it) are safe, the old storage file should not be read again.
+				store.retireOnSave(loadFile);
+			}
 			try {
-				IJobManager manager = Job.getJobManager();
-				ISchedulingRule rule = new FilesystemSchedulingRule(loadFile);
-				try {
-					manager.beginRule(rule, new NullProgressMonitor());
+				if (legacyStorage) {
 					GZIPInputStream inputStream = new GZIPInputStream(new FileInputStream(loadFile));
 					try {
-						defaultCollageRoot = CollageRoot.loadFrom(inputStream);
+						root = CollageRoot.loadFrom(inputStream);
 					} finally {
 						inputStream.close();
 					}
-				} finally {
-					manager.endRule(rule);
+				} else {
+					root = store.load();
 				}
-				List<String> warnings = defaultCollageRoot.getDependencyWarnings();
+				List<String> warnings = root.getDependencyWarnings();
 				if (!warnings.isEmpty()) {
 					CollageUtilities.showWarning(PLUGIN_NAME, 
 							String.format("Collage stored data loaded with the following warning%s:%n%s",
@@ -258,9 +406,13 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 									CollageUtilities.join(warnings, "\n")));
 				}
 			} catch (Exception e) {
-				File backupTarget = getStateLocation().append(getBackupFileName()).toFile();
+				File backupTarget = getStateLocation().append(getBackupFileName(legacyStorage)).toFile();
 				try {
-					CollageUtilities.fileCopy(loadFile, backupTarget);
+					if (legacyStorage) {
+						CollageUtilities.fileCopy(loadFile, backupTarget);
+					} else if (!loadFile.renameTo(backupTarget)) {
+						throw new IOException("Rename failed");
+					}
 					CollageUtilities.showError(PLUGIN_NAME, 
 							String.format("Unable to load Collage stored data:%n%s%nCollage storage has been backed up to \"%s\".", 
 									e.getMessage(), backupTarget.getAbsolutePath()));
@@ -272,6 +424,7 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 			}
 			break;
 		}
+		return root;
 	}
 
 	/**
@@ -293,30 +446,30 @@ public final class CollageActivator extends AbstractUIPlugin implements IWorkben
 	}
 
 	private CollageStorageState collageStorageAvailable () {
-		try {
-			File collageFile = getStateLocation().append(COLLAGE_STORAGE_FILE).toFile();
-			CollageStorageState existsValue = CollageStorageState.HAS_DATA;
-			if (!collageFile.exists()) {
-				collageFile.createNewFile();
-				existsValue = CollageStorageState.BLANK;
-			}
-			
-			if (collageFile.canRead() && collageFile.canWrite()) {
-				return existsValue;
+		File storeDirectory = store.getDirectory();
+		if (!storeDirectory.isDirectory()) {
+			storeDirectory.mkdirs();
+		}
+		if (storeDirectory.isDirectory() && storeDirectory.canRead() && storeDirectory.canWrite()) {
+			if (store.hasData() || getLegacyStorageFile().exists()) {
+				return CollageStorageState.HAS_DATA;
 			}
-		} catch (IOException e) {
-			// fall through and return unavailable
+			return CollageStorageState.BLANK;
 		}
 		return CollageStorageState.UNAVAILABLE;
 	}
 	
+	private File getLegacyStorageFile () {
+		return getStateLocation().append(COLLAGE_STORAGE_FILE).toFile();
+	}
+
 	private static void showStorageUnavailableError () {
 		CollageUtilities.showError(PLUGIN_NAME, 
 				String.format("Unable to access Collage storage in workspace path %s. Collage data will not be stored.", 
-						COLLAGE_STORAGE_FILE));
+						CollageStore.STORE_DIRECTORY));
 	}
 
-	private static String getBackupFileName () {
-		return "collage-backup-" + System.currentTimeMillis() + ".xml.gz";
+	private static String getBackupFileName (boolean legacyStorage) {
+		return "collage-backup-" + System.currentTimeMillis() + (legacyStorage ? ".xml.gz" : "");
 	}
 }
@@ -11,15 +11,9 @@
 package org.eclipselabs.collage.actions;
 
 import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.bind.JAXBException;
-
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.ResourcesPlugin;
@@ -29,7 +23,9 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.SubProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.MultiRule;
 import org.eclipse.gef.EditPart;
 import org.eclipse.gef.ui.actions.SelectionAction;
 import org.eclipse.jface.dialogs.MessageDialog;
@@ -45,27 +41,6 @@ import org.eclipselabs.collage.util.CollageUtilities;
  * @author Alex Bradley
  */
 public class ExportLayersAction extends SelectionAction {
-	private static class SaveRunnable implements Runnable {
-		private List<CollageLayer> layers;
-		private OutputStream out;
-		private IStatus status = Status.OK_STATUS;
-		
-		public SaveRunnable(List<CollageLayer> layers, OutputStream out) {
-			this.layers = layers;
-			this.out = out;
-		}
-		
-		@Override
-		public void run() {
-			try {
-				(new CollageRoot(layers)).saveTo(out);
-				out.close();
-			} catch (Exception e) {
-				status = new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Export failed", e); 
-			}
-		}
-	}
-	
 	private File saveFile = null;
 	
 	public ExportLayersAction(IWorkbenchPart part) {
@@ -105,72 +80,45 @@ public class ExportLayersAction extends SelectionAction {
 			}
 			final IFile workspaceFile = ResourcesPlugin.getWorkspace().getRoot().getFileForLocation(new Path(saveFile.getAbsolutePath()));
 			final String jobName = "Exporting Collage layers to " + saveFile.getName();
-			if (workspaceFile != null) {
-				IResource schedRule = workspaceFile;
-				while (schedRule != null /* should never happen */ && !schedRule.exists()) {
-					schedRule = schedRule.getParent();
-				}
-				
-				final IResource existingParent = schedRule;
-				Job job = new Job(jobName) {
-					@Override
-					protected IStatus run(IProgressMonitor monitor) {
-						PipedInputStream inputStream = new PipedInputStream();
-						PipedOutputStream outputStream;
-						try {
-							outputStream = new PipedOutputStream(inputStream);
-						} catch (IOException e) {
-							return new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Failed to initialize piped output stream", e);
-						}
-
-						SaveRunnable saveRunnable = new SaveRunnable(layers, outputStream);
-						Thread saveThread = new Thread(saveRunnable);
-						saveThread.start();
-						try {
-							if (workspaceFile.exists()) {
-								workspaceFile.setContents(inputStream, true, false, monitor);
-							} else {
-								if (!workspaceFile.getParent().exists()) {
-									// User might have created new directory through file dialog, so try refreshing.
-									monitor.beginTask("Setting file contents", 10);
-									existingParent.refreshLocal(IResource.DEPTH_INFINITE, new SubProgressMonitor(monitor, 2));
-									workspaceFile.create(inputStream, true, new SubProgressMonitor(monitor, 8));
-									monitor.done();
-								} else {
-									workspaceFile.create(inputStream, true, monitor);
-								}
-							}
-						} catch (CoreException e) {
-							return e.getStatus();
-						}
-						try {
-							saveThread.join();
-							return saveRunnable.status;
-						} catch (InterruptedException e) {
-							return new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Operation interruped", e);
+			final File file = saveFile;
+			// The file is written directly (streaming the XML) and then, if it is in the workspace, refreshed.
+			IResource existingParent = workspaceFile;
+			while (existingParent != null && !existingParent.exists()) {
+				existingParent = existingParent.getParent();
+			}
+			final IResource refreshTarget = existingParent;
+			
+			Job job = new Job(jobName) {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					monitor.beginTask(jobName, 10);
+					try {
+						int skipped = (new CollageRoot(layers)).saveTo(file);
+						monitor.worked(8);
+						if (skipped > 0) {
+							CollageUtilities.showWarning(CollageActivator.PLUGIN_NAME,
+									String.format("%d shape%s could not be exported because the plugins that created them are not installed.",
+											skipped, (skipped == 1) ? "" : "s"));
 						}
-					}
-				};
-				job.setRule(schedRule);
-				job.schedule();
-			} else {
-				Job job = new Job(jobName) {
-					@Override
-					protected IStatus run(IProgressMonitor monitor) {
-						monitor.beginTask(jobName, 10);
-						try {
-							(new CollageRoot(layers)).saveTo(saveFile);
-							return Status.OK_STATUS;
-						} catch (JAXBException e) {
-							return new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Export failed", e); 
-						} finally {
-							monitor.done();
+						if (refreshTarget != null) {
+							// User might have created new directory through file dialog, so refresh from the
+							// nearest existing ancestor.
+							refreshTarget.refreshLocal(IResource.DEPTH_INFINITE, new SubProgressMonitor(monitor, 2));
 						}
+						return Status.OK_STATUS;
+					} catch (CoreException e) {
+						return new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Export failed", e); 
+					} finally {
+						monitor.done();
 					}
-				};
-				job.setRule(new FilesystemSchedulingRule(saveFile));
-				job.schedule();
+				}
+			};
+			ISchedulingRule rule = new FilesystemSchedulingRule(saveFile);
+			if (refreshTarget != null) {
+				rule = MultiRule.combine(rule, ResourcesPlugin.getWorkspace().getRuleFactory().refreshRule(refreshTarget));
 			}
+			job.setRule(rule);
+			job.schedule();
 		}
 	}
 		
@@ -23,6 +23,7 @@ import org.eclipse.ui.actions.ActionFactory;
 import org.eclipse.gef.EditPart;
 import org.eclipse.gef.GraphicalViewer;
 import org.eclipse.gef.internal.GEFMessages;
+import org.eclipselabs.collage.parts.CollageContentEditPart;
 
 /**
  * An action which selects all edit parts in the supplied {@link GraphicalViewer}.
@@ -61,7 +62,8 @@ public class SelectAllViewerAction extends Action {
 	}
 
 	/**
-	 * Retrieves edit parts which can be selected
+	 * Retrieves edit parts which can be selected. For Collage contents, these are taken from the model,
+	 * since shapes far from the visible lines don't have edit parts until they are needed.
 	 * 
 	 * @param viewer
 	 *            from which the edit parts are to be retrieved
@@ -69,6 +71,9 @@ public class SelectAllViewerAction extends Action {
 	 * @since 3.5
 	 */
 	private static List<EditPart> getSelectableEditParts(GraphicalViewer viewer) {
+		if (viewer.getContents() instanceof CollageContentEditPart) {
+			return ((CollageContentEditPart)viewer.getContents()).getAllShapeEditParts();
+		}
 		List<EditPart> selectableChildren = new ArrayList<EditPart>();
 		findSelectableChildren(viewer.getContents(), selectableChildren);
 		return selectableChildren;
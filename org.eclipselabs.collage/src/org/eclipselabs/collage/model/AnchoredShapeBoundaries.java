@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.model;
+
+import org.eclipse.jface.text.Position;
+
+/**
+ * Shape boundaries anchored to a {@link Position} in an open document. The document moves the position
+ * as the text is edited, and a {@link ShapePositionTracker} copies the resulting lines back into these
+ * boundaries, so no per-shape commands are needed to keep the shape in place. Copies (see
+ * {@link #getCopy()}) are plain {@link FileLinePointShapeBoundaries}, and the stored form is the same as
+ * for plain boundaries.
+ * @author Alex Bradley
+ */
+final class AnchoredShapeBoundaries extends FileLinePointShapeBoundaries {
+	private final transient Position position;
+
+	/**
+	 * Create anchored boundaries with the same lines and offsets as some plain boundaries.
+	 * @param bounds Plain boundaries
+	 * @param position Position of the lines of {@code bounds} in the document
+	 */
+	AnchoredShapeBoundaries (FileLinePointShapeBoundaries bounds, Position position) {
+		FileLinePointShapeBoundaries copy = (FileLinePointShapeBoundaries)bounds.getCopy();
+		setFrom(copy);
+		this.position = position;
+	}
+
+	Position getPosition () {
+		return position;
+	}
+
+	@Override
+	public ShapeBoundaries handleDocumentChange(DocumentChange change) {
+		// The document has already moved the position. The only change left to make is to delete the shape
+		// if all of its lines have been deleted.
+		return position.isDeleted() ? null : this;
+	}
+
+	@Override
+	public boolean hasBinaryForm() {
+		// The lines are kept up to date, so these boundaries are stored just like plain ones.
+		return true;
+	}
+}
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.List;
+
+/**
+ * A property change listener that handles the changes made to a model element during a batch (see
+ * {@link ModelElement#beginBatch()}) in one pass. Changes made outside of a batch are still reported
+ * one at a time through {@link #propertyChange(PropertyChangeEvent)}.
+ * @author Alex Bradley
+ */
+public interface BatchPropertyChangeListener extends PropertyChangeListener {
+	/**
+	 * Handle the changes made to a model element during a batch.
+	 * @param events Property change events, in the order in which the changes were made (at least one)
+	 */
+	void propertyChanges (List<PropertyChangeEvent> events);
+}
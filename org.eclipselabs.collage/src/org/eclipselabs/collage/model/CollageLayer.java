@@ -11,10 +11,12 @@
 package org.eclipselabs.collage.model;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Map.Entry;
 
 import javax.xml.bind.annotation.XmlAccessType;
@@ -27,18 +29,21 @@ import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
 import org.eclipselabs.collage.xml.adapters.ResourceShapeListMapAdapter;
 
 /**
- * Model element representing a Collage layer. A layer has a name, can be either visible or hidden,
- * and keeps a mapping from resources to lists of shapes for resources.
+ * <p>Model element representing a Collage layer. A layer has a name, can be either visible or hidden,
+ * and keeps a mapping from resources to lists of shapes for resources.</p>
+ * 
+ * <p>As with {@link CollageRoot}, changes to the mapping are made under the layer's lock. An immutable
+ * snapshot of the mapping is made when it is next read as a whole, and readers use it without locking.</p>
  * @author Alex Bradley
  */
 @XmlType(name="layer")
 @XmlAccessorType(XmlAccessType.FIELD)
 public class CollageLayer extends UserCreatableModelElement {
 	@XmlAttribute
-	private String name;
+	private volatile String name;
 	
 	@XmlAttribute
-	private boolean visible = true;
+	private volatile boolean visible = true;
 	
 	/** Property ID to use when a child is added to this group. */
 	public static final String CHILD_ADDED_PROP = "CollageLayer.ChildAdded";
@@ -54,6 +59,12 @@ public class CollageLayer extends UserCreatableModelElement {
 	@XmlJavaTypeAdapter(ResourceShapeListMapAdapter.class)
 	private HashMap<ResourceIdentifier, ResourceShapeList> resourceShapesMap = new HashMap<ResourceIdentifier, ResourceShapeList>();
 	
+	/**
+	 * Published contents of {@link #resourceShapesMap}, or {@code null} if it has changed since the last copy;
+	 * see {@link #publishShapeLists()}.
+	 */
+	private transient volatile ShapeListSnapshot shapeListSnapshot;
+	
 	public CollageLayer () {
 		this("Default");
 	}
@@ -66,9 +77,16 @@ public class CollageLayer extends UserCreatableModelElement {
 	 * Removes a resource identifier and associated shape list from our map.
 	 * @param key Resource identifier to remove.
 	 */
-	public synchronized void removeResource (ResourceIdentifier key) {
-		ResourceShapeList oldShapeList = resourceShapesMap.remove(key);
+	public void removeResource (ResourceIdentifier key) {
+		ResourceShapeList oldShapeList;
+		synchronized (this) {
+			oldShapeList = resourceShapesMap.remove(key);
+			if (oldShapeList != null) {
+				shapeListSnapshot = null;
+			}
+		}
 		if (oldShapeList != null) {
+			resourcesChanged(key);
 			firePropertyChange(CHILD_REMOVED_PROP, null, oldShapeList);
 		}
 	}
@@ -78,8 +96,19 @@ public class CollageLayer extends UserCreatableModelElement {
 	 * @param key A resource identifier.
 	 * @return True if this layer has shapes for the given resource, false otherwise.
 	 */
-	public synchronized boolean hasShapesFor (ResourceIdentifier key) {
-		return resourceShapesMap.containsKey(key);
+	public boolean hasShapesFor (ResourceIdentifier key) {
+		return findShapes(key) != null;
+	}
+
+	/**
+	 * Check if this layer has a non-empty shape list for a given resource. Unlike {@link #hasShapesFor(ResourceIdentifier)},
+	 * this ignores empty lists; placeholder lists are not hydrated.
+	 * @param key A resource identifier.
+	 * @return True if this layer has at least one shape (or unknown element) for the given resource.
+	 */
+	public boolean hasPopulatedShapesFor (ResourceIdentifier key) {
+		ResourceShapeList shapeList = findShapes(key);
+		return shapeList != null && shapeList.hasChildren();
 	}
 
 	/**
@@ -87,39 +116,150 @@ public class CollageLayer extends UserCreatableModelElement {
 	 * @param key A resource identifier.
 	 * @return {@link ResourceShapeList} for the given resource.
 	 */
-	public synchronized ResourceShapeList getShapes (ResourceIdentifier key) {
+	public ResourceShapeList getShapes (ResourceIdentifier key) {
+		ResourceShapeList existing = findShapes(key);
+		if (existing != null) {
+			// Parent and resource were set when the list was added (or by refreshTransientFields.)
+			existing.hydrate();
+			return existing;
+		}
+		return getOrAddShapes(key);
+	}
+	
+	private ResourceShapeList getOrAddShapes (ResourceIdentifier key) {
 		boolean added = false;
-		if (!resourceShapesMap.containsKey(key)) {
-			resourceShapesMap.put(key, new ResourceShapeList());
-			added = true;
+		ResourceShapeList shapeList;
+		synchronized (this) {
+			if (!resourceShapesMap.containsKey(key)) {
+				resourceShapesMap.put(key, new ResourceShapeList());
+				shapeListSnapshot = null;
+				added = true;
+			}
+			shapeList = resourceShapesMap.get(key);
+			shapeList.setParent(this);
+			shapeList.setResource(key);
 		}
-		ResourceShapeList shapeList = resourceShapesMap.get(key);
-		shapeList.setParent(this);
-		shapeList.setResource(key);
+		shapeList.hydrate();
 		if (added) {
+			resourcesChanged(key);
 			firePropertyChange(CHILD_ADDED_PROP, null, shapeList);
 		}
 		return shapeList;
 	}
 	
 	/**
-	 * Get all non-empty resource shape lists in this layer's map.
+	 * Add shapes that were restored from storage for a given resource (typically a placeholder list that
+	 * has not been hydrated yet.) If this layer has no shapes for the resource yet, {@code loaded} becomes
+	 * its shape list; otherwise the loaded shapes are appended to the existing list (which is then
+	 * considered dirty.)
+	 * @param key A resource identifier.
+	 * @param loaded Shapes restored for the resource.
+	 */
+	public void addStoredShapes (ResourceIdentifier key, ResourceShapeList loaded) {
+		ResourceShapeList existing;
+		synchronized (this) {
+			existing = resourceShapesMap.get(key);
+			if (existing == null) {
+				resourceShapesMap.put(key, loaded);
+				shapeListSnapshot = null;
+				loaded.setParent(this);
+				loaded.setResource(key);
+				loaded.refreshTransientFields();
+			}
+		}
+		if (existing == null) {
+			resourcesChanged(key);
+			firePropertyChange(CHILD_ADDED_PROP, null, loaded);
+		} else {
+			existing.addAllChildren(loaded.getAllChildren());
+		}
+	}
+	
+	/**
+	 * Get all non-empty resource shape lists in this layer's map. Placeholder lists are hydrated.
 	 */
-	public synchronized List<ResourceShapeList> getPopulatedShapeLists () {
-		Collection<ResourceShapeList> coll = resourceShapesMap.values();
+	public List<ResourceShapeList> getPopulatedShapeLists () {
 		ArrayList<ResourceShapeList> result = new ArrayList<ResourceShapeList>();
-		for (ResourceShapeList list : coll) {
+		for (ResourceShapeList list : getShapeLists()) {
 			if (list.hasChildren()) {
 				result.add(list);
 			}
 		}
+		ResourceShapeList.hydrateAll(result);
+		for (Iterator<ResourceShapeList> iter = result.iterator(); iter.hasNext(); ) {
+			if (!iter.next().hasChildren()) {
+				iter.remove();
+			}
+		}
 		return Collections.unmodifiableList(result);
 	}
 
+	/**
+	 * Get all resource shape lists in this layer's map, including empty lists and placeholders. Placeholders
+	 * are not hydrated. The returned list is an unmodifiable snapshot.
+	 */
+	public List<ResourceShapeList> getShapeLists () {
+		return getShapeListSnapshot().lists;
+	}
+
+	/**
+	 * Get the resources for which this layer has shape lists (including empty lists and placeholders.)
+	 * @return Unmodifiable snapshot of the resources
+	 */
+	Set<ResourceIdentifier> getResources () {
+		return getShapeListSnapshot().map.keySet();
+	}
+
+	/**
+	 * Let the parent root update its index of the layers of each resource. Called without holding this
+	 * layer's lock, since the root may lock layers while holding its own lock.
+	 */
+	private void resourcesChanged (ResourceIdentifier key) {
+		ModelElement parent = getParent();
+		if (parent instanceof CollageRoot) {
+			((CollageRoot)parent).reindexResources(Collections.singleton(key));
+		}
+	}
+
+	/**
+	 * Look up the shape list of a resource, without copying the mapping if it has changed since the last
+	 * snapshot.
+	 */
+	private ResourceShapeList findShapes (ResourceIdentifier key) {
+		ShapeListSnapshot snapshot = shapeListSnapshot;
+		if (snapshot != null) {
+			return snapshot.map.get(key);
+		}
+		synchronized (this) {
+			return resourceShapesMap.get(key);
+		}
+	}
+
+	/**
+	 * Get the latest published snapshot of the shape list mapping, publishing one if the mapping has changed
+	 * since the last (or after deserialization.)
+	 */
+	private ShapeListSnapshot getShapeListSnapshot () {
+		ShapeListSnapshot snapshot = shapeListSnapshot;
+		return (snapshot != null) ? snapshot : publishShapeLists();
+	}
+
+	/**
+	 * Publish a snapshot of the shape list mapping, if it has changed since the last. Changes to
+	 * {@link #resourceShapesMap} must clear {@link #shapeListSnapshot} under the layer's lock.
+	 * @return The latest snapshot
+	 */
+	private synchronized ShapeListSnapshot publishShapeLists () {
+		if (shapeListSnapshot == null) {
+			shapeListSnapshot = new ShapeListSnapshot(resourceShapesMap);
+		}
+		return shapeListSnapshot;
+	}
+
 	/**
 	 * Get the name of this layer.
 	 */
-	public synchronized String getName() {
+	public String getName() {
 		return name;
 	}
 
@@ -135,6 +275,8 @@ public class CollageLayer extends UserCreatableModelElement {
 
 	@Override
 	public synchronized void refreshTransientFields() {
+		// The mapping may have been replaced by deserialization.
+		shapeListSnapshot = null;
 		for (Entry<ResourceIdentifier, ResourceShapeList> entry : resourceShapesMap.entrySet()) {
 			ResourceShapeList shapeList = entry.getValue();
 			shapeList.setParent(this);
@@ -146,7 +288,7 @@ public class CollageLayer extends UserCreatableModelElement {
 	/**
 	 * @return True if this layer is visible, false otherwise
 	 */
-	public synchronized boolean isVisible() {
+	public boolean isVisible() {
 		return visible;
 	}
 
@@ -161,7 +303,7 @@ public class CollageLayer extends UserCreatableModelElement {
 			
 			ModelElement parent = getParent();
 			if (parent instanceof CollageRoot) {
-				((CollageRoot)parent).childVisibilityChanged();
+				((CollageRoot)parent).childVisibilityChanged(this);
 			}
 		}
 	}
@@ -187,4 +329,17 @@ public class CollageLayer extends UserCreatableModelElement {
 	void childPopulationStateChanged (ResourceShapeList child) {
 		firePropertyChange(CHILD_POPULATED_STATE_CHANGED_PROP, null, child);
 	}
+	
+	/**
+	 * Immutable copy of the shape list mapping of a layer.
+	 */
+	private static class ShapeListSnapshot {
+		final Map<ResourceIdentifier, ResourceShapeList> map;
+		final List<ResourceShapeList> lists;
+		
+		ShapeListSnapshot (Map<ResourceIdentifier, ResourceShapeList> source) {
+			map = Collections.unmodifiableMap(new HashMap<ResourceIdentifier, ResourceShapeList>(source));
+			lists = Collections.unmodifiableList(new ArrayList<ResourceShapeList>(map.values()));
+		}
+	}
 }
@@ -10,8 +10,11 @@
  *******************************************************************************/
 package org.eclipselabs.collage.model;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -21,8 +24,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlAttribute;
@@ -35,10 +37,18 @@ import org.eclipse.core.runtime.Status;
 import org.eclipselabs.collage.CollageActivator;
 import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
 import org.eclipselabs.collage.util.CollageExtensions;
-import org.eclipselabs.collage.xml.CollageSerialization;
+import org.eclipselabs.collage.xml.CollageStreamingSerializer;
 
 /**
- * Root model element for a collage composed of layers of shapes.
+ * <p>Root model element for a collage composed of layers of shapes.</p>
+ * 
+ * <p>Changes to the layers are made under the root's lock, and each change publishes a new immutable 
+ * snapshot of the layer list. Readers (including background jobs that save or export the collage) use 
+ * the latest snapshot without locking, so they never block on, or see a half-made change by, the UI 
+ * thread.</p>
+ * 
+ * <p>The root also keeps an index of the layers that have shapes for each resource, so the shapes shown
+ * in an editor can be found without looking at every layer.</p>
  * @author Alex Bradley
  */
 @XmlRootElement(name="collageRoot")
@@ -58,11 +68,23 @@ public class CollageRoot extends ModelElement {
 	public static final String CHILD_VISIBILITY_CHANGED_PROP = "Collage.ChildVisibilityChanged";
 
 	@XmlAttribute
-	private int currentLayerIndex = 0;
+	private volatile int currentLayerIndex = 0;
 	
+	/** Layers of this root. Only modified under the root's lock; see {@link #publishLayers()}. */
 	private List<CollageLayer> layers = new ArrayList<CollageLayer>();
+	
+	/** Unmodifiable copy of {@link #layers}, replaced after each change. */
+	private transient volatile List<CollageLayer> layerSnapshot;
+	
+	/** Index of the layers that have shape lists for each resource, in layer order (each list unmodifiable.) Built
+	 * when first needed, then updated in place under the root's lock as layers and resources are added and removed;
+	 * see {@link #reindexResources(Collection)}. */
+	private transient Map<ResourceIdentifier, List<CollageLayer>> resourceIndex;
 
-	private transient Collection<PluginDependency> dependencies;
+	/** Unmodifiable copy of {@link #resourceIndex}, or {@code null} if the index has changed since the last copy. */
+	private transient volatile Map<ResourceIdentifier, List<CollageLayer>> resourceLayers;
+
+	private transient volatile Collection<PluginDependency> dependencies;
 	
 	private transient List<String> dependencyWarnings = new ArrayList<String>();
 	
@@ -71,11 +93,13 @@ public class CollageRoot extends ModelElement {
 		CollageLayer layer = new CollageLayer(makeNewLayerName());
 		layer.setParent(this);
 		layers.add(layer);
+		publishLayers();
 	}
 	
 	public CollageRoot (List<CollageLayer> layers) {
 		// Note that this form of addition does not set the parent of the added layers - appropriate for export.
 		this.layers.addAll(layers);
+		publishLayers();
 	}
 
 	/**
@@ -103,49 +127,83 @@ public class CollageRoot extends ModelElement {
 		return Collections.unmodifiableList(dependencyWarnings);
 	}
 	
-	public synchronized void saveTo (File file) throws JAXBException {
-		pruneDependencies();
-		CollageSerialization.getJAXBContext().createMarshaller().marshal(this, file);
+	/**
+	 * Write this root to a file as Collage XML.
+	 * @param file File to write
+	 * @return Number of shapes left out because they have no XML form (see {@link #saveTo(OutputStream)})
+	 * @throws CoreException if the file cannot be written
+	 */
+	public int saveTo (File file) throws CoreException {
+		try {
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				return saveTo(os);
+			} finally {
+				os.close();
+			}
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, String.format("Collage data could not be written to %s.", file.getName()), e));
+		}
 	}
 
-	public synchronized void saveTo (OutputStream os) throws JAXBException {
+	/**
+	 * Write this root to a stream as Collage XML. The document is written incrementally, so large roots
+	 * are not held in memory a second time. The root is not locked while the document is written. Stored
+	 * shapes of plugins that are not installed can't be converted to XML, and are left out.
+	 * @param os Output stream; not closed
+	 * @return Number of shapes left out
+	 * @throws CoreException if serialization fails
+	 */
+	public int saveTo (OutputStream os) throws CoreException {
+		// Load any stored shapes first (without holding the lock), so that unused dependencies can be pruned.
+		for (CollageLayer layer : getLayers()) {
+			layer.getPopulatedShapeLists();
+		}
 		pruneDependencies();
-		CollageSerialization.getJAXBContext().createMarshaller().marshal(this, os);
+		return CollageStreamingSerializer.write(this, os);
 	}
 	
 	/**
-	 * Remove unused dependencies before saving.
+	 * Remove unused dependencies before saving. Only shapes that are currently loaded are examined; if any
+	 * shape lists are still placeholders, their shapes might need any of the dependencies, so none are removed.
 	 */
-	private void pruneDependencies () {
+	public synchronized void pruneDependencies () {
 		Map<String, PluginDependency> pluginDepMap = new HashMap<String, PluginDependency>();
 		// Call getPluginDependencies to make sure dependencies are actually initialized
 		getPluginDependencies();
 
 		Map<Class<?>, String> modelExtensionMap = CollageExtensions.getModelExtensionMap();
 
+		List<ResourceShapeList> loadedShapeLists = new ArrayList<ResourceShapeList>();
+		for (CollageLayer layer : getLayers()) {
+			for (ResourceShapeList resourceShapes : layer.getShapeLists()) {
+				if (!resourceShapes.isHydrated()) {
+					return;
+				}
+				loadedShapeLists.add(resourceShapes);
+			}
+		}
+
 		boolean missingDependenciesExist = false;
 		search: // We want to be able to break out of the outermost for loop if all dependencies are accounted for.
-			for (CollageLayer layer : layers) {
-				for (ResourceShapeList resourceShapes : layer.getPopulatedShapeLists()) {
-					for (Object obj : resourceShapes.getAllChildren()) {
-						if (obj instanceof Shape) {
-							String pluginID = modelExtensionMap.get(((Shape)obj).getClass());
-							if (pluginID != null && !pluginDepMap.containsKey(pluginID)) {
-								for (PluginDependency dep : dependencies) {
-									if (pluginID.equals(dep.getPluginID())) {
-										pluginDepMap.put(dep.getPluginID(), dep);
-										break;
-									}
+			for (ResourceShapeList resourceShapes : loadedShapeLists) {
+				for (Object obj : resourceShapes.getAllChildren()) {
+					if (obj instanceof Shape) {
+						String pluginID = modelExtensionMap.get(((Shape)obj).getClass());
+						if (pluginID != null && !pluginDepMap.containsKey(pluginID)) {
+							for (PluginDependency dep : dependencies) {
+								if (pluginID.equals(dep.getPluginID())) {
+									pluginDepMap.put(dep.getPluginID(), dep);
+									break;
 								}
 							}
-						} else {
-							missingDependenciesExist = true;
-						}
-						if (pluginDepMap.size() == dependencies.size() && missingDependenciesExist) {
-							// Nothing more to do.
-							break search;
 						}
-
+					} else {
+						missingDependenciesExist = true;
+					}
+					if (pluginDepMap.size() == dependencies.size() && missingDependenciesExist) {
+						// Nothing more to do.
+						break search;
 					}
 				}
 			}
@@ -166,7 +224,7 @@ public class CollageRoot extends ModelElement {
 	public static CollageRoot loadFrom (File file) throws CoreException {
 		if (file.canRead()) {
 			try {
-				FileInputStream inputStream = new FileInputStream(file);
+				InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
 				try {
 					return loadFrom(inputStream);
 				} finally {
@@ -182,35 +240,58 @@ public class CollageRoot extends ModelElement {
 		return new CollageRoot();
 	}
 	
+	/**
+	 * Read a root from a stream of Collage XML. The document is read incrementally.
+	 * @param inputStream Input stream; not closed
+	 * @return Collage root
+	 * @throws CoreException if parsing fails
+	 */
 	public static CollageRoot loadFrom (InputStream inputStream) throws CoreException {
-		try {
-			Unmarshaller um = CollageSerialization.getJAXBContext().createUnmarshaller();
-			Object obj = um.unmarshal(inputStream);
-			if (obj instanceof CollageRoot) {
-				CollageRoot defaultPackage = (CollageRoot)obj;
-				defaultPackage.dependencies = CollageExtensions.mergeDependencies(CollageExtensions.getModelPluginDependencies(), defaultPackage.dependencies, defaultPackage.dependencyWarnings);
-				// Fix up currentLayer in case it was somehow saved with an out-of-range value
-				defaultPackage.currentLayerIndex = Math.min(Math.max(0, defaultPackage.currentLayerIndex), defaultPackage.getNumLayers() - 1);
-				defaultPackage.refreshTransientFields();
-				return defaultPackage;
-			}
-			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "JAXB parsing of Collage storage file did not return a Collage root element."));
-		} catch (JAXBException e) {
-			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "JAXB parsing of Collage storage file failed.", e));
-		}
+		return CollageStreamingSerializer.read(inputStream);
+	}
+	
+	/**
+	 * Create a root from layers restored by the Collage store. The layers' parents are set, and the
+	 * dependencies are merged with those of the currently installed plugins as in {@link #loadFrom(InputStream)}.
+	 * @param layers Restored layers
+	 * @param currentLayerIndex Index of the active layer
+	 * @param dependencies Stored plugin dependencies
+	 * @return New root
+	 * @throws CoreException if the stored dependencies cannot be merged
+	 */
+	public static CollageRoot restore (List<CollageLayer> layers, int currentLayerIndex, Collection<PluginDependency> dependencies) throws CoreException {
+		CollageRoot root = new CollageRoot(layers);
+		root.currentLayerIndex = currentLayerIndex;
+		root.dependencies = dependencies;
+		root.initializeLoaded();
+		return root;
+	}
+	
+	private void initializeLoaded () throws CoreException {
+		dependencies = CollageExtensions.mergeDependencies(CollageExtensions.getModelPluginDependencies(), dependencies, dependencyWarnings);
+		// Fix up currentLayer in case it was somehow saved with an out-of-range value
+		currentLayerIndex = Math.min(Math.max(0, currentLayerIndex), getNumLayers() - 1);
+		refreshTransientFields();
 	}
 	
-	public synchronized List<CollageLayer> getLayers () {
-		return Collections.unmodifiableList(layers);
+	/**
+	 * Get the layers of this root. Does not lock the root.
+	 * @return Unmodifiable snapshot of the layers, which does not change when layers are added or removed later
+	 */
+	public List<CollageLayer> getLayers () {
+		List<CollageLayer> snapshot = layerSnapshot;
+		return (snapshot != null) ? snapshot : publishLayers();
 	}
 	
-	public synchronized int getNumLayers () {
-		return layers.size();
+	public int getNumLayers () {
+		return getLayers().size();
 	}
 	
-	public synchronized CollageLayer getCurrentLayer () {
-		if (currentLayerIndex >= 0 && currentLayerIndex < layers.size()) {
-			return layers.get(currentLayerIndex);
+	public CollageLayer getCurrentLayer () {
+		List<CollageLayer> snapshot = getLayers();
+		int index = currentLayerIndex;
+		if (index >= 0 && index < snapshot.size()) {
+			return snapshot.get(index);
 		}
 		// currentLayer could become temporarily out of bounds during deletion of last element
 		return null;
@@ -245,6 +326,8 @@ public class CollageRoot extends ModelElement {
 	public synchronized void addLayer (int index, CollageLayer layer) {
 		layer.setParent(this);
 		layers.add(Math.min(layers.size(), Math.max(0, index)), layer);
+		publishLayers();
+		reindexResources(layer.getResources());
 		firePropertyChange(CHILD_ADDED_PROP, null, layer);
 		if (currentLayerIndex >= index) {
 			setCurrentLayer(currentLayerIndex + 1);
@@ -263,6 +346,8 @@ public class CollageRoot extends ModelElement {
 			groupIndex = layers.indexOf(layer);
 			if (groupIndex != -1) {
 				layers.remove(groupIndex);
+				publishLayers();
+				reindexResources(layer.getResources());
 				layer.setParent(null);
 				if (currentLayerIndex == layers.size()) {
 					setCurrentLayer(currentLayerIndex - 1);
@@ -273,27 +358,143 @@ public class CollageRoot extends ModelElement {
 		return groupIndex;
 	}
 	
+	/**
+	 * Publish a new snapshot of the layers. Must be called after every change to {@link #layers}.
+	 * @return The new snapshot
+	 */
+	private synchronized List<CollageLayer> publishLayers () {
+		List<CollageLayer> snapshot = Collections.unmodifiableList(new ArrayList<CollageLayer>(layers));
+		layerSnapshot = snapshot;
+		return snapshot;
+	}
+	
 	@Override
 	public synchronized void refreshTransientFields () {
+		// The layers may have been replaced by deserialization.
+		publishLayers();
+		resourceIndex = null;
+		resourceLayers = null;
 		for (CollageLayer layer : layers) {
 			layer.setParent(this);
 			layer.refreshTransientFields();
 		}
 	}
 	
-	void childVisibilityChanged () {
-		firePropertyChange(CHILD_VISIBILITY_CHANGED_PROP, null, null);		
+	/**
+	 * Notify listeners that the visibility of a layer has changed.
+	 * @param layer The layer (the new value of the event)
+	 */
+	void childVisibilityChanged (CollageLayer layer) {
+		firePropertyChange(CHILD_VISIBILITY_CHANGED_PROP, null, layer);		
 	}
 	
-	public synchronized List<ResourceShapeList> getResourceShapeLists (ResourceIdentifier resource) {
-		List<ResourceShapeList> result = new ArrayList<ResourceShapeList>();
-		for (CollageLayer layer : layers) {
-			if ((layer.isVisible() && layer.hasShapesFor(resource)) || layer == getCurrentLayer()) {
+	/**
+	 * Check if any layer (visible or not) has shapes for a resource. Placeholder lists are not hydrated.
+	 * @param resource A resource identifier.
+	 * @return True if some layer has a non-empty shape list for {@code resource}.
+	 */
+	public boolean hasShapesFor (ResourceIdentifier resource) {
+		for (CollageLayer layer : getLayersWithShapesFor(resource)) {
+			if (layer.hasPopulatedShapesFor(resource)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Get the shape lists to show for a resource: those of the visible layers, and that of the active layer
+	 * (which is created if necessary.)
+	 * @param resource A resource identifier.
+	 * @return Shape lists, in layer order
+	 */
+	public List<ResourceShapeList> getResourceShapeLists (ResourceIdentifier resource) {
+		CollageLayer currentLayer = getCurrentLayer();
+		if (currentLayer != null) {
+			// Make sure the active layer has a list (and so is in the index.)
+			currentLayer.getShapes(resource);
+		}
+		List<CollageLayer> resourceLayers = getLayersWithShapesFor(resource);
+		List<ResourceShapeList> result = new ArrayList<ResourceShapeList>(resourceLayers.size());
+		for (CollageLayer layer : resourceLayers) {
+			if (layer.isVisible() || layer == currentLayer) {
 				result.add(layer.getShapes(resource));
 			}
 		}
 		return result;
 	}
+
+	/**
+	 * Get the layers (visible or not) that have shape lists for a resource, including empty lists and 
+	 * placeholders. Does not lock the root, unless the index has changed since it was last read.
+	 * @param resource A resource identifier.
+	 * @return Unmodifiable list of layers, in layer order
+	 */
+	public List<CollageLayer> getLayersWithShapesFor (ResourceIdentifier resource) {
+		Map<ResourceIdentifier, List<CollageLayer>> index = resourceLayers;
+		if (index == null) {
+			index = publishResourceLayers();
+		}
+		List<CollageLayer> result = index.get(resource);
+		return (result != null) ? result : Collections.<CollageLayer>emptyList();
+	}
+
+	/**
+	 * Publish a copy of the index of the layers of each resource, building the index if necessary.
+	 * @return The published copy
+	 */
+	private synchronized Map<ResourceIdentifier, List<CollageLayer>> publishResourceLayers () {
+		if (resourceLayers != null) {
+			return resourceLayers;
+		}
+		if (resourceIndex == null) {
+			Map<ResourceIdentifier, List<CollageLayer>> index = new HashMap<ResourceIdentifier, List<CollageLayer>>();
+			for (CollageLayer layer : layers) {
+				for (ResourceIdentifier resource : layer.getResources()) {
+					List<CollageLayer> resourceLayerList = index.get(resource);
+					if (resourceLayerList == null) {
+						resourceLayerList = new ArrayList<CollageLayer>();
+						index.put(resource, resourceLayerList);
+					}
+					resourceLayerList.add(layer);
+				}
+			}
+			for (Map.Entry<ResourceIdentifier, List<CollageLayer>> entry : index.entrySet()) {
+				entry.setValue(Collections.unmodifiableList(entry.getValue()));
+			}
+			resourceIndex = index;
+		}
+		// The lists are unmodifiable and replaced on change, so only the map needs to be copied.
+		resourceLayers = Collections.unmodifiableMap(new HashMap<ResourceIdentifier, List<CollageLayer>>(resourceIndex));
+		return resourceLayers;
+	}
+
+	/**
+	 * Update the index of the layers of some resources, after layers have been added or removed or have
+	 * gained or lost shape lists for them. The index is updated in place; a new copy is published when it
+	 * is next read.
+	 * @param resources Resources whose layers may have changed
+	 */
+	synchronized void reindexResources (Collection<ResourceIdentifier> resources) {
+		if (resourceIndex == null || resources.isEmpty()) {
+			// The index will be built in full when it is needed.
+			return;
+		}
+		for (ResourceIdentifier resource : resources) {
+			List<CollageLayer> resourceLayerList = new ArrayList<CollageLayer>();
+			for (CollageLayer layer : layers) {
+				if (layer.hasShapesFor(resource)) {
+					resourceLayerList.add(layer);
+				}
+			}
+			if (resourceLayerList.isEmpty()) {
+				resourceIndex.remove(resource);
+			} else {
+				resourceIndex.put(resource, Collections.unmodifiableList(resourceLayerList));
+			}
+		}
+		resourceLayers = null;
+	}
 	
 	private boolean nameAlreadyUsed (String name) {
 		for (CollageLayer group : layers) {
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.core.commands.operations.IUndoContext;
+import org.eclipse.gef.RequestConstants;
+import org.eclipse.gef.commands.Command;
+import org.eclipse.gef.commands.CompoundCommand;
+import org.eclipse.gef.requests.ChangeBoundsRequest;
+import org.eclipselabs.collage.model.commands.HandleDocumentChangeCommand;
+import org.eclipselabs.collage.model.commands.RestoreShapeLinesCommand;
+import org.eclipselabs.collage.model.commands.ShapeDeleteCommand;
+import org.eclipselabs.collage.model.commands.ShapeSetConstraintCommand;
+import org.eclipselabs.collage.model.commands.ShiftShapeLinesCommand;
+
+/**
+ * <p>A sequence of {@link DocumentChange}s made to a document in quick succession (e.g., by a formatter or
+ * a refactoring), to be handled together. Each affected shape is run through all of the changes in
+ * order, and only its net change is recorded, so the whole batch is handled by one undoable command.</p>
+ *
+ * <p>The changes in a batch must have been made in the order in which they were added, with no other
+ * changes in between.</p>
+ * @author Alex Bradley
+ */
+public class DocumentChangeBatch {
+	private final List<DocumentChange> changes = new ArrayList<DocumentChange>();
+	private int startLine = Integer.MAX_VALUE;
+	private final Map<Shape, ShapeBoundaries> clippedShapes = new IdentityHashMap<Shape, ShapeBoundaries>();
+
+	/**
+	 * Add the next change made to the document.
+	 * @param change A document change specification.
+	 */
+	public void add (DocumentChange change) {
+		changes.add(change);
+		startLine = Math.min(startLine, change.getStartLine());
+	}
+
+	/**
+	 * Add shapes clipped by the changes in this batch (see {@link ShapePositionTracker#takeClippedShapes()}), to be
+	 * put back on their old lines when the batch is undone. Shapes already added keep their earlier boundaries.
+	 * @param clipped Map from each clipped shape to its boundaries from before it was clipped
+	 */
+	public void addClippedShapes (Map<Shape, ShapeBoundaries> clipped) {
+		for (Map.Entry<Shape, ShapeBoundaries> entry : clipped.entrySet()) {
+			if (!clippedShapes.containsKey(entry.getKey())) {
+				clippedShapes.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Check if this batch contains no changes.
+	 * @return {@code true} if no changes have been added
+	 */
+	public boolean isEmpty () {
+		return changes.isEmpty();
+	}
+
+	/**
+	 * Get the changes in this batch.
+	 * @return Unmodifiable list of changes, in the order in which they were made
+	 */
+	public List<DocumentChange> getChanges () {
+		return Collections.unmodifiableList(changes);
+	}
+
+	/**
+	 * Get the first line affected by any change in this batch. Shapes that end before this line are not
+	 * affected by the batch.
+	 * @return Start line, or {@link Integer#MAX_VALUE} if the batch is empty
+	 */
+	public int getStartLine () {
+		return startLine;
+	}
+
+	/**
+	 * Create a command that adjusts the shapes in a list to all of the changes in this batch. Shapes that
+	 * are only moved down (or up) by whole lines are moved together by a {@link ShiftShapeLinesCommand}
+	 * per net line delta; other shapes get a command of their own. Clipped shapes are recorded by a
+	 * {@link RestoreShapeLinesCommand}.
+	 * @param shapeList Shapes of the changed document
+	 * @param undoContext Eclipse undo context of the document
+	 * @return A {@link HandleDocumentChangeCommand}, or {@code null} if no shapes need to be adjusted
+	 */
+	public Command createCommand (ResourceShapeList shapeList, IUndoContext undoContext) {
+		CompoundCommand command = new HandleDocumentChangeCommand(undoContext);
+		Map<Integer, List<Shape>> shiftedShapes = new TreeMap<Integer, List<Shape>>();
+		for (Shape shape : shapeList.getShapesInLines(startLine, Integer.MAX_VALUE)) {
+			ShapeBoundaries original = shape.getBoundariesInternal();
+			ShapeBoundaries bounds = original;
+			// Line shift not yet applied to bounds. Shifts are only accumulated while bounds can be shifted.
+			int shift = 0;
+			for (DocumentChange change : changes) {
+				int lineDelta = change.getLineDelta();
+				if (lineDelta != 0 && bounds.canShiftLines() && bounds.getFirstLine() + shift >= getShiftStartLine(change)) {
+					shift += lineDelta;
+					continue;
+				}
+				bounds = shift(bounds, shift);
+				shift = 0;
+				bounds = bounds.handleDocumentChange(change);
+				if (bounds == null) {
+					break;
+				}
+			}
+
+			if (bounds == null) {
+				command.add(new ShapeDeleteCommand(shapeList, shape));
+			} else if (bounds == original) {
+				if (shift != 0) {
+					List<Shape> shapes = shiftedShapes.get(shift);
+					if (shapes == null) {
+						shapes = new ArrayList<Shape>();
+						shiftedShapes.put(shift, shapes);
+					}
+					shapes.add(shape);
+				}
+			} else {
+				// Could actually be either a move or a resize, but ShapeSetConstraintCommand doesn't care.
+				command.add(new ShapeSetConstraintCommand(shape, new ChangeBoundsRequest(RequestConstants.REQ_MOVE), shift(bounds, shift)));
+			}
+		}
+		for (Map.Entry<Integer, List<Shape>> entry : shiftedShapes.entrySet()) {
+			command.add(new ShiftShapeLinesCommand(shapeList, entry.getValue(), entry.getKey()));
+		}
+		if (!clippedShapes.isEmpty()) {
+			command.add(new RestoreShapeLinesCommand(clippedShapes));
+		}
+		return command.isEmpty() ? null : command;
+	}
+
+	/**
+	 * Get the first line from which shapes are simply moved by the line delta of a change: lines below the
+	 * change, or below the first changed line when the change only inserts text.
+	 */
+	private static int getShiftStartLine (DocumentChange change) {
+		return Math.max(change.getOldLastLine(), change.getStartLine() + 1);
+	}
+
+	/**
+	 * Get boundaries moved by a number of lines, without modifying the given boundaries.
+	 */
+	private static ShapeBoundaries shift (ShapeBoundaries bounds, int delta) {
+		if (delta == 0) {
+			return bounds;
+		}
+		ShapeBoundaries shifted = bounds.getCopy();
+		shifted.shiftLines(delta);
+		return shifted;
+	}
+}
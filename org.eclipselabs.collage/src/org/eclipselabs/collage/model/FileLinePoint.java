@@ -43,6 +43,17 @@ public class FileLinePoint {
 		setOffsets(offsets);
 	}
 	
+	/**
+	 * Create a new file-line relative point.
+	 * @param line 1-based line in a file (if value supplied is < 1, line will be set to 1)
+	 * @param offsetX x offset from the top left pixel of the file line (clamped to 0 if negative)
+	 * @param offsetY y offset from the top left pixel of the file line (clamped to 0 if negative)
+	 */
+	public FileLinePoint(int line, int offsetX, int offsetY) {
+		setLine(line);
+		this.offsets = new Point(Math.max(0, offsetX), Math.max(0, offsetY));
+	}
+	
 	/**
 	 * Create a new file-line relative point based on a GEF {@link Point} in a Collage drawing area installed
 	 * on an {@link ITextViewer}.
@@ -60,7 +71,7 @@ public class FileLinePoint {
 	 * @return Copy of this file-line relative point.
 	 */
 	public FileLinePoint getCopy () {
-		return new FileLinePoint(line, offsets.getCopy());
+		return new FileLinePoint(line, offsets.x(), offsets.y());
 	}
 	
 	/**
@@ -90,6 +101,22 @@ public class FileLinePoint {
 		return offsets.getCopy();
 	}
 	
+	/**
+	 * Get the x offset of this point from the top left pixel of its line, without copying the offsets.
+	 * @return non-negative x offset
+	 */
+	public int getOffsetX() {
+		return offsets.x();
+	}
+
+	/**
+	 * Get the y offset of this point from the top left pixel of its line, without copying the offsets.
+	 * @return non-negative y offset
+	 */
+	public int getOffsetY() {
+		return offsets.y();
+	}
+	
 	/**
 	 * Set the x and y offsets that show where in the file line this point is located.
 	 * @param offsets {@link Point} giving x and y offsets from the top left pixel of the file line
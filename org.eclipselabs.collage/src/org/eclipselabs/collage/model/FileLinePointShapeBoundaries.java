@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipselabs.collage.model;
 
+import java.io.IOException;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import org.eclipse.core.runtime.CoreException;
@@ -27,6 +29,8 @@ import org.eclipse.ui.views.properties.IPropertyDescriptor;
 import org.eclipse.ui.views.properties.PropertyDescriptor;
 import org.eclipse.ui.views.properties.TextPropertyDescriptor;
 import org.eclipselabs.collage.CollageActivator;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 import org.eclipselabs.collage.util.CollageUtilities;
 
 /**
@@ -65,11 +69,11 @@ public class FileLinePointShapeBoundaries extends ShapeBoundaries {
 				if (newTopLeft.getLine() > newBottomRight.getLine()) {
 					return "Top line must be less than or equal to bottom line";
 				}
-				if (newTopLeft.getOffsets().x() >= newBottomRight.getOffsets().x()) {
+				if (newTopLeft.getOffsetX() >= newBottomRight.getOffsetX()) {
 					return "Left x-offset must be less than right x-offset"; 
 				}
 				if (newTopLeft.getLine() == newBottomRight.getLine() && 
-						newTopLeft.getOffsets().y() >= newBottomRight.getOffsets().y()) {
+						newTopLeft.getOffsetY() >= newBottomRight.getOffsetY()) {
 					return "Top y-offset must be less than bottom y-offset";
 				}
 				
@@ -145,8 +149,8 @@ public class FileLinePointShapeBoundaries extends ShapeBoundaries {
 
 			if (newTopLine != topLeft.getLine() || newBottomLine != bottomRight.getLine()) {
 				FileLinePointShapeBoundaries newBounds = new FileLinePointShapeBoundaries();
-				newBounds.setTopLeft(new FileLinePoint(newTopLine, topLeft.getOffsets().getCopy()));
-				newBounds.setBottomRight(new FileLinePoint(newBottomLine, bottomRight.getOffsets().getCopy()));
+				newBounds.setTopLeft(new FileLinePoint(newTopLine, topLeft.getOffsetX(), topLeft.getOffsetY()));
+				newBounds.setBottomRight(new FileLinePoint(newBottomLine, bottomRight.getOffsetX(), bottomRight.getOffsetY()));
 				return newBounds;
 			}
 		}
@@ -208,10 +212,10 @@ public class FileLinePointShapeBoundaries extends ShapeBoundaries {
 			return Integer.toString(bottomRight.getLine());
 		}
 		if (TOP_OFFSET_PROP.equals(propertyId)) {
-			return CollageUtilities.pointToString(topLeft.getOffsets());
+			return CollageUtilities.pointToString(topLeft.getOffsetX(), topLeft.getOffsetY());
 		}
 		if (BOTTOM_OFFSET_PROP.equals(propertyId)) {
-			return CollageUtilities.pointToString(bottomRight.getOffsets());
+			return CollageUtilities.pointToString(bottomRight.getOffsetX(), bottomRight.getOffsetY());
 		}
 		throw new IllegalArgumentException();
 	}
@@ -220,10 +224,10 @@ public class FileLinePointShapeBoundaries extends ShapeBoundaries {
 	public void setPropertyValue(Object propertyId, Object value) {
 		if (TOP_LINE_PROP.equals(propertyId)) {
 			int topLine = Integer.parseInt((String)value);
-			setTopLeft(new FileLinePoint(topLine, topLeft.getOffsets()));
+			setTopLeft(new FileLinePoint(topLine, topLeft.getOffsetX(), topLeft.getOffsetY()));
 		} else if (BOTTOM_LINE_PROP.equals(propertyId)) {
 			int bottomLine = Integer.parseInt((String)value);
-			setBottomRight(new FileLinePoint(bottomLine, bottomRight.getOffsets()));
+			setBottomRight(new FileLinePoint(bottomLine, bottomRight.getOffsetX(), bottomRight.getOffsetY()));
 		} else if (TOP_OFFSET_PROP.equals(propertyId)) {
 			Point offsets = CollageUtilities.stringToPoint((String)value);
 			setTopLeft(new FileLinePoint(topLeft.getLine(), offsets));
@@ -249,6 +253,28 @@ public class FileLinePointShapeBoundaries extends ShapeBoundaries {
 		}
 	}
 
+	@Override
+	public boolean hasBinaryForm() {
+		return getClass() == FileLinePointShapeBoundaries.class;
+	}
+
+	@Override
+	public void writeBinary(CollageDataOutput out) throws IOException {
+		out.writeVarInt(topLeft.getLine());
+		out.writePoint(topLeft.getOffsetX(), topLeft.getOffsetY());
+		// The bottom line is usually close to the top line.
+		out.writeSignedVarInt(bottomRight.getLine() - topLeft.getLine());
+		out.writePoint(bottomRight.getOffsetX(), bottomRight.getOffsetY());
+	}
+
+	@Override
+	public void readBinary(CollageDataInput in) throws IOException {
+		int topLine = in.readVarInt();
+		topLeft = new FileLinePoint(topLine, in.readPoint());
+		int bottomLine = topLine + in.readSignedVarInt();
+		bottomRight = new FileLinePoint(bottomLine, in.readPoint());
+	}
+
 	@Override
 	public String getDescription() {
 		int startLine = topLeft.getLine();
@@ -260,6 +286,53 @@ public class FileLinePointShapeBoundaries extends ShapeBoundaries {
 		}
 	}
 
+	@Override
+	public int getFirstLine() {
+		return topLeft.getLine();
+	}
+
+	@Override
+	public int getLastLine() {
+		return bottomRight.getLine();
+	}
+
+	@Override
+	public int getOverhang(int lineHeight) {
+		// The bottom offset is relative to the top of the bottom line.
+		return Math.max(0, Math.max(-topLeft.getOffsetY(), bottomRight.getOffsetY() - lineHeight));
+	}
+
+	@Override
+	public boolean canShiftLines() {
+		// Subclasses may handle document changes differently.
+		return getClass() == FileLinePointShapeBoundaries.class;
+	}
+
+	@Override
+	public void shiftLines(int delta) {
+		topLeft.setLine(topLeft.getLine() + delta);
+		bottomRight.setLine(bottomRight.getLine() + delta);
+	}
+
+	/**
+	 * Take over the corners of other boundaries. The other boundaries must not be used afterwards.
+	 * @param other Boundaries to take the corners from
+	 */
+	void setFrom (FileLinePointShapeBoundaries other) {
+		topLeft = other.topLeft;
+		bottomRight = other.bottomRight;
+	}
+
+	/**
+	 * Set the top and bottom lines of these boundaries in place, keeping the offsets.
+	 * @param topLine New top line
+	 * @param bottomLine New bottom line
+	 */
+	void setLines (int topLine, int bottomLine) {
+		topLeft.setLine(topLine);
+		bottomRight.setLine(bottomLine);
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (obj != null && obj instanceof FileLinePointShapeBoundaries) {
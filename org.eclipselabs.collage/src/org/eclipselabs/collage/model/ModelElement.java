@@ -12,8 +12,15 @@
  *******************************************************************************/
 package org.eclipselabs.collage.model;
 
+import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeListenerProxy;
 import java.beans.PropertyChangeSupport;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlTransient;
@@ -32,6 +39,12 @@ import org.osgi.framework.Version;
  * <li>property-source support (used to display property values in the Properties
  * View)</li>
  * </ul>
+ * <p>
+ * Property changes can be batched (see {@link #beginBatch()}): while a batch is open on a thread, 
+ * changes made on that thread are held back, and when it ends each element's listeners are notified 
+ * of all of its changes at once. Listeners that implement {@link BatchPropertyChangeListener} get
+ * the changes in a single call; others get them one at a time, as usual.
+ * </p>
  * 
  * @author Elias Volanakis (GEF shapes example)
  * @author Alex Bradley
@@ -48,6 +61,9 @@ public abstract class ModelElement implements IPropertySource {
 	/** An empty property descriptor. */
 	private static final IPropertyDescriptor[] EMPTY_ARRAY = new IPropertyDescriptor[0];
 
+	/** Open batch of property changes on each thread, if any. */
+	private static final ThreadLocal<ChangeBatch> BATCH = new ThreadLocal<ChangeBatch>();
+
 	/** Delegate used to implement property-change-support. */
 	private transient PropertyChangeSupport pcsDelegate = new PropertyChangeSupport(
 			this);
@@ -83,7 +99,68 @@ public abstract class ModelElement implements IPropertySource {
 	protected void firePropertyChange(String property, Object oldValue,
 			Object newValue) {
 		if (pcsDelegate.hasListeners(property)) {
-			pcsDelegate.firePropertyChange(property, oldValue, newValue);
+			ChangeBatch batch = BATCH.get();
+			if (batch != null) {
+				// As in PropertyChangeSupport, changes between equal values are not reported.
+				if (oldValue == null || newValue == null || !oldValue.equals(newValue)) {
+					batch.add(this, new PropertyChangeEvent(this, property, oldValue, newValue));
+				}
+			} else {
+				pcsDelegate.firePropertyChange(property, oldValue, newValue);
+			}
+		}
+	}
+
+	/**
+	 * Start batching property changes made on the current thread, e.g. while a compound command is 
+	 * executed. Batches may be nested; changes are reported when the outermost batch ends. Every call
+	 * must be matched by a call to {@link #endBatch()}.
+	 */
+	public static void beginBatch () {
+		ChangeBatch batch = BATCH.get();
+		if (batch == null) {
+			batch = new ChangeBatch();
+			BATCH.set(batch);
+		}
+		batch.depth++;
+	}
+
+	/**
+	 * End a batch started by {@link #beginBatch()}. If it is the outermost batch, the listeners of each 
+	 * changed element are notified of the element's changes, elements being taken in the order in which
+	 * they first changed. Changes made by listeners are reported immediately.
+	 */
+	public static void endBatch () {
+		ChangeBatch batch = BATCH.get();
+		if (batch == null || --batch.depth > 0) {
+			return;
+		}
+		BATCH.remove();
+		for (ModelElement element : batch.elements) {
+			element.fireBatchedChanges(batch.changes.get(element));
+		}
+	}
+
+	/**
+	 * Notify listeners of changes made to this element during a batch.
+	 */
+	private void fireBatchedChanges (List<PropertyChangeEvent> events) {
+		// Listeners removed by earlier notifications (e.g., edit parts of removed children) are skipped.
+		for (PropertyChangeListener listener : pcsDelegate.getPropertyChangeListeners()) {
+			if (listener instanceof PropertyChangeListenerProxy) {
+				String property = ((PropertyChangeListenerProxy)listener).getPropertyName();
+				for (PropertyChangeEvent event : events) {
+					if (property.equals(event.getPropertyName())) {
+						listener.propertyChange(event);
+					}
+				}
+			} else if (listener instanceof BatchPropertyChangeListener) {
+				((BatchPropertyChangeListener)listener).propertyChanges(events);
+			} else {
+				for (PropertyChangeEvent event : events) {
+					listener.propertyChange(event);
+				}
+			}
 		}
 	}
 
@@ -186,4 +263,24 @@ public abstract class ModelElement implements IPropertySource {
 	public void setParent(ModelElement parent) {
 		this.parent = parent;
 	}
+	
+	/**
+	 * Property changes held back by an open batch.
+	 */
+	private static class ChangeBatch {
+		int depth = 0;
+		/** Changed elements, in the order in which they first changed. */
+		final List<ModelElement> elements = new ArrayList<ModelElement>();
+		final Map<ModelElement, List<PropertyChangeEvent>> changes = new IdentityHashMap<ModelElement, List<PropertyChangeEvent>>();
+		
+		void add (ModelElement element, PropertyChangeEvent event) {
+			List<PropertyChangeEvent> events = changes.get(element);
+			if (events == null) {
+				events = new ArrayList<PropertyChangeEvent>();
+				changes.put(element, events);
+				elements.add(element);
+			}
+			events.add(event);
+		}
+	}
 }
@@ -13,17 +13,57 @@
 package org.eclipselabs.collage.model;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlType;
 
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipselabs.collage.CollageActivator;
 import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
+import org.eclipselabs.collage.util.CollageUtilities;
+import org.eclipselabs.collage.util.LineIntervalIndex;
 
 /**
  * List of shapes associated with a resource.
+ * <p>
+ * A list may be created as a placeholder whose children are read by a {@link ShapeListLoader}
+ * the first time they are needed (see {@link #hydrate()}). Until then, only the number of stored
+ * children is known. {@link #hydrateAll(Collection)} hydrates many placeholders at once, reading them
+ * in parallel.
+ * </p>
+ * <p>
+ * The list keeps an index of the line ranges of its shapes, so that the shapes on some range of lines
+ * can be found without scanning the whole list (see {@link #getShapesInLines(int, int)}.)
+ * </p>
+ * <p>
+ * Children are added and removed under the list's lock. Immutable snapshots of the children are
+ * made when they are first read after a change (so a burst of changes costs one copy), and
+ * {@link #getAllChildren()} and {@link #getShapes()} then return them without locking. Background
+ * readers (e.g., a job exporting layers) can therefore iterate over the children while shapes are being
+ * added or removed on the UI thread.
+ * </p>
+ * <p>
+ * Only the list of children is snapshotted: the boundaries of a shape are changed in place on the UI
+ * thread (e.g., by {@link #shiftShapeLines(List, int)} or a {@link ShapePositionTracker}). Readers on
+ * other threads that need consistent line ranges must copy the boundaries on the UI thread (see
+ * {@link Shape#getBoundaries()}), as saving does.
+ * </p>
  * 
  * @author Alex Bradley
  * @author Elias Volanakis
@@ -37,13 +77,108 @@ public class ResourceShapeList extends ModelElement {
 	public static final String CHILD_REMOVED_PROP = "ResourceShapeList.ChildRemoved";
 	/** Property ID to use when "populated state" of this list changes (list becomes empty or ceases to be empty.) */
 	public static final String POPULATED_PROP = "ResourceShapeList.Populated";
+	/** Property ID to use when shapes in this list have been moved in one step (by a number of lines, or by
+	 * a {@link ShapePositionTracker}) without notifying their own listeners. The new value of the event is
+	 * the list of moved shapes. */
+	public static final String LINES_SHIFTED_PROP = "ResourceShapeList.LinesShifted";
 	
-	private transient ResourceIdentifier resource;
+	private transient volatile ResourceIdentifier resource;
+	
+	/** True if this list has changed since it was last written to the Collage store. */
+	private transient volatile boolean dirty = true;
 	
 	// List of Objects, not shapes, because if JAXB doesn't know how to deserialize an element of the list
 	// (because the plugin that serialized it is missing) it will deserialize to an DOM Element. 
+	// Only modified under the list's lock; see childrenChanged().
 	private List<Object> shapes = new ArrayList<Object>();
 	
+	/** Loader for the stored children of a placeholder list, or {@code null} once the list has been hydrated. */
+	private transient volatile ShapeListLoader loader;
+	
+	/** Number of stored children of a placeholder list. */
+	private transient volatile int unloadedChildCount;
+	
+	/** Index of the line ranges of the shapes in this list; built when first needed. */
+	private transient LineIntervalIndex<Shape> lineIndex;
+	
+	/** Shapes that reach beyond their lines (see {@link #getShapesOverhangingLines(int)}); built when first needed. */
+	private transient List<Shape> overhangingShapes;
+
+	/** Line height for which {@link #overhangingShapes} was built. */
+	private transient int overhangLineHeight;
+
+	/** The known shapes among the children, in list order; built when first needed. */
+	private transient List<Shape> knownShapes;
+	
+	/** Unmodifiable copy of {@link #shapes}, or {@code null} if it has changed since the last copy. */
+	private transient volatile List<Object> childrenSnapshot;
+	
+	/** Unmodifiable copy of {@link #knownShapes}, or {@code null} if it has changed since the last copy. */
+	private transient volatile List<Shape> shapesSnapshot;
+	
+	/** Threads that read placeholder lists for {@link #hydrateAll(Collection)}; created when first needed. */
+	private static ExecutorService loaderPool;
+	
+	public ResourceShapeList () { }
+	
+	/**
+	 * Create a list holding children that have already been deserialized.
+	 * @param children Shapes (or DOM elements for shapes of unknown types)
+	 */
+	public ResourceShapeList (List<Object> children) {
+		shapes.addAll(children);
+	}
+	
+	/**
+	 * Create a placeholder list. The list is considered clean (not in need of saving.)
+	 * @param loader Loader for the stored children of the list
+	 * @param childCount Number of stored children
+	 */
+	public ResourceShapeList (ShapeListLoader loader, int childCount) {
+		this.loader = loader;
+		this.unloadedChildCount = childCount;
+		this.dirty = false;
+	}
+	
+	/**
+	 * Check if the stored children of this list have been read.
+	 * @return false if this is a placeholder that has not been hydrated yet, true otherwise
+	 */
+	public boolean isHydrated () {
+		return loader == null;
+	}
+	
+	/**
+	 * Read the stored children of a placeholder list. Does nothing if the list has already been hydrated.
+	 * If the children cannot be read, the error is reported and the list is left empty.
+	 */
+	public void hydrate () {
+		// Checked without locking, since lists are only hydrated once.
+		if (loader != null) {
+			hydrateStored();
+		}
+	}
+	
+	private synchronized void hydrateStored () {
+		if (loader == null) {
+			return;
+		}
+		// The loader is only cleared once the children are in place, so that readers that don't lock
+		// the list wait for them in hydrate().
+		try {
+			List<Object> children = loader.loadChildren();
+			shapes.addAll(children);
+			refreshTransientFields();
+		} catch (CoreException e) {
+			CollageActivator.getDefault().getLog().log(e.getStatus());
+			CollageUtilities.showError(CollageActivator.PLUGIN_NAME, 
+					String.format("Stored Collage shapes could not be loaded:%n%s", e.getStatus().getMessage()));
+		} finally {
+			unloadedChildCount = 0;
+			loader = null;
+		}
+	}
+	
 	/**
 	 * Add a shape to this diagram.
 	 * 
@@ -52,15 +187,55 @@ public class ResourceShapeList extends ModelElement {
 	 * @return true, if the shape was added, false otherwise
 	 */
 	public boolean addChild(Shape s) {
-		if (s != null && shapes.add(s)) {
+		hydrate();
+		if (s == null) {
+			return false;
+		}
+		boolean wasEmpty;
+		synchronized (this) {
+			wasEmpty = shapes.isEmpty();
+			shapes.add(s);
 			s.setParent(this);
-			if (shapes.size() == 1) {
-				((CollageLayer)getParent()).childPopulationStateChanged(this);
+			shapeAdded(s);
+			childrenChanged();
+		}
+		dirty = true;
+		if (wasEmpty) {
+			((CollageLayer)getParent()).childPopulationStateChanged(this);
+		}
+		firePropertyChange(CHILD_ADDED_PROP, null, s);
+		return true;
+	}
+
+	/**
+	 * Append children (shapes or unknown elements) taken from another list, e.g. one that was read
+	 * back from the Collage store after shapes had already been added to this one.
+	 * @param children Children to append
+	 */
+	void addAllChildren (List<Object> children) {
+		hydrate();
+		if (children.isEmpty()) {
+			return;
+		}
+		boolean wasEmpty;
+		synchronized (this) {
+			wasEmpty = shapes.isEmpty();
+			for (Object child : children) {
+				shapes.add(child);
+				if (child instanceof Shape) {
+					((Shape)child).setParent(this);
+					shapeAdded((Shape)child);
+				}
 			}
-			firePropertyChange(CHILD_ADDED_PROP, null, s);
-			return true;
+			childrenChanged();
+		}
+		dirty = true;
+		if (wasEmpty) {
+			((CollageLayer)getParent()).childPopulationStateChanged(this);
+		}
+		for (Object child : children) {
+			firePropertyChange(CHILD_ADDED_PROP, null, child);
 		}
-		return false;
 	}
 
 	/**
@@ -68,29 +243,41 @@ public class ResourceShapeList extends ModelElement {
 	 * @return true if there are any shapes in this list, false otherwise
 	 */
 	public boolean hasChildren () {
-		return !shapes.isEmpty();
+		if (!isHydrated()) {
+			return unloadedChildCount > 0;
+		}
+		List<Object> snapshot = childrenSnapshot;
+		if (snapshot != null) {
+			return !snapshot.isEmpty();
+		}
+		synchronized (this) {
+			return !shapes.isEmpty();
+		}
 	}
 	
 	/**
-	 * Return a List of Shapes in this diagram. The returned List should not be
-	 * modified.
+	 * Return a List of Shapes in this diagram. The returned List is an unmodifiable snapshot: it
+	 * does not change when shapes are added or removed later, and the same snapshot is returned 
+	 * until then. Does not lock the list (unless it has to be hydrated.)
 	 */
 	public List<Shape> getShapes () {
-		List<Shape> filtered = new ArrayList<Shape>(shapes.size());
-		for (Object obj : shapes) {
-			if (obj instanceof Shape) {
-				filtered.add((Shape)obj);
-			}
-		}
-		return Collections.unmodifiableList(filtered);
+		hydrate();
+		List<Shape> snapshot = shapesSnapshot;
+		return (snapshot != null) ? snapshot : publishShapes();
 	}
 
 	/**
 	 * Get all children, including "unknown" XML objects that couldn't be translated into
-	 * Shapes. 
+	 * Shapes. As with {@link #getShapes()}, the returned List is an unmodifiable snapshot.
 	 */
 	public List<Object> getAllChildren () {
-		return Collections.unmodifiableList(shapes);
+		hydrate();
+		return getChildrenSnapshot();
+	}
+	
+	private List<Object> getChildrenSnapshot () {
+		List<Object> snapshot = childrenSnapshot;
+		return (snapshot != null) ? snapshot : publishChildren();
 	}
 	
 	/**
@@ -101,14 +288,309 @@ public class ResourceShapeList extends ModelElement {
 	 * @return true, if the shape was removed, false otherwise
 	 */
 	public boolean removeChild(Shape s) {
-		if (s != null && shapes.remove(s)) {
-			firePropertyChange(CHILD_REMOVED_PROP, null, s);
-			if (shapes.isEmpty()) {
-				((CollageLayer)getParent()).childPopulationStateChanged(this);
+		hydrate();
+		if (s == null) {
+			return false;
+		}
+		boolean nowEmpty;
+		synchronized (this) {
+			if (!shapes.remove(s)) {
+				return false;
 			}
-			return true;
+			shapeRemoved(s);
+			childrenChanged();
+			nowEmpty = shapes.isEmpty();
+		}
+		dirty = true;
+		firePropertyChange(CHILD_REMOVED_PROP, null, s);
+		if (nowEmpty) {
+			((CollageLayer)getParent()).childPopulationStateChanged(this);
 		}
-		return false;
+		return true;
+	}
+	
+	/**
+	 * Get the shapes in this list which lie (at least partly) within a range of lines, along with any
+	 * shapes whose boundaries are not tied to lines. The returned list may be modified.
+	 * @param firstLine First line of the range (1-based)
+	 * @param lastLine Last line of the range (inclusive); {@link Integer#MAX_VALUE} to get all shapes
+	 * ending on or after {@code firstLine}
+	 * @return Shapes in the range, in list order
+	 */
+	public synchronized List<Shape> getShapesInLines (int firstLine, int lastLine) {
+		hydrate();
+		if (lineIndex == null) {
+			lineIndex = new LineIntervalIndex<Shape>();
+			for (Shape shape : getKnownShapes()) {
+				lineIndex.put(shape, shape.getFirstLine(), shape.getLastLine());
+			}
+		}
+		return lineIndex.find(firstLine, lastLine);
+	}
+
+	/**
+	 * Get the shapes in this list whose pixel offsets reach beyond their lines (see {@link Shape#getOverhang(int)}),
+	 * and which may therefore be visible when their lines are not. Such shapes are rare, so the list is kept
+	 * up to date as shapes are added, removed and moved.
+	 * @param lineHeight Height of a line in the text viewer, in pixels
+	 * @return Unmodifiable list of overhanging shapes, in no particular order
+	 */
+	public synchronized List<Shape> getShapesOverhangingLines (int lineHeight) {
+		hydrate();
+		if (overhangingShapes == null || overhangLineHeight != lineHeight) {
+			overhangingShapes = new ArrayList<Shape>();
+			overhangLineHeight = lineHeight;
+			for (Shape shape : getKnownShapes()) {
+				if (shape.getOverhang(lineHeight) > 0) {
+					overhangingShapes.add(shape);
+				}
+			}
+		}
+		return Collections.unmodifiableList(new ArrayList<Shape>(overhangingShapes));
+	}
+
+	/**
+	 * Move a group of shapes in this list down (or up) by a number of lines, e.g. the shapes below an edit that
+	 * inserted or removed lines. The shapes are moved in place, and listeners are notified once for the whole
+	 * group (through {@link #LINES_SHIFTED_PROP}) instead of once per shape. The shapes are marked as modified now.
+	 * @param shiftedShapes Shapes to move; each must support line shifts (see {@link Shape#canShiftLines()}).
+	 * Shapes that are no longer in this list are skipped.
+	 * @param delta Number of lines to move by
+	 */
+	public void shiftShapeLines (List<Shape> shiftedShapes, int delta) {
+		shiftShapeLines(shiftedShapes, delta, null);
+	}
+
+	/**
+	 * Move a group of shapes in this list down (or up) by a number of lines, as {@link #shiftShapeLines(List, int)}
+	 * does, giving them the specified modification dates (e.g., to put back their old dates when a move is undone.)
+	 * @param shiftedShapes Shapes to move; each must support line shifts (see {@link Shape#canShiftLines()}).
+	 * Shapes that are no longer in this list are skipped.
+	 * @param delta Number of lines to move by
+	 * @param modificationDates Modification date to record for each shape, or {@code null} to mark all of the
+	 * shapes as modified now. Shapes missing from the map are marked as modified now.
+	 */
+	public void shiftShapeLines (List<Shape> shiftedShapes, int delta, Map<Shape, Date> modificationDates) {
+		if (delta == 0 || shiftedShapes.isEmpty()) {
+			return;
+		}
+		Date now = new Date();
+		synchronized (this) {
+			for (Shape shape : shiftedShapes) {
+				if (shape.getParent() == this) {
+					Date modified = (modificationDates != null) ? modificationDates.get(shape) : null;
+					shape.shiftLines(delta, (modified != null) ? modified : now);
+					if (lineIndex != null) {
+						lineIndex.put(shape, shape.getFirstLine(), shape.getLastLine());
+					}
+				}
+			}
+		}
+		dirty = true;
+		firePropertyChange(LINES_SHIFTED_PROP, null, shiftedShapes);
+	}
+
+	/**
+	 * Notify listeners that shapes in this list have been moved by a {@link ShapePositionTracker}.
+	 * @param movedShapes Moved shapes
+	 */
+	void fireShapesMoved (List<Shape> movedShapes) {
+		firePropertyChange(LINES_SHIFTED_PROP, null, movedShapes);
+	}
+
+	/**
+	 * Update the line index after the boundaries of one of the shapes in this list have changed.
+	 * @param shape A shape in this list
+	 */
+	synchronized void shapeBoundariesChanged (Shape shape) {
+		if (lineIndex != null && lineIndex.contains(shape)) {
+			lineIndex.put(shape, shape.getFirstLine(), shape.getLastLine());
+		}
+		if (overhangingShapes != null && shape.getParent() == this) {
+			overhangingShapes.remove(shape);
+			if (shape.getOverhang(overhangLineHeight) > 0) {
+				overhangingShapes.add(shape);
+			}
+		}
+	}
+
+	/**
+	 * Get the known shapes among the children, building the list if necessary. The list is kept up to date
+	 * as shapes are added and removed, so it never needs to be filtered again.
+	 */
+	private synchronized List<Shape> getKnownShapes () {
+		if (knownShapes == null) {
+			knownShapes = new ArrayList<Shape>(shapes.size());
+			for (Object obj : shapes) {
+				if (obj instanceof Shape) {
+					knownShapes.add((Shape)obj);
+				}
+			}
+		}
+		return knownShapes;
+	}
+
+	/**
+	 * Discard the snapshots of the children and known shapes, so that new ones are made when they are next
+	 * read. Must be called under the list's lock after every change to {@link #shapes}.
+	 */
+	private void childrenChanged () {
+		childrenSnapshot = null;
+		shapesSnapshot = null;
+	}
+
+	/**
+	 * Get a snapshot of the children, making a new one if they have changed since the last.
+	 */
+	private synchronized List<Object> publishChildren () {
+		if (childrenSnapshot == null) {
+			childrenSnapshot = Collections.unmodifiableList(new ArrayList<Object>(shapes));
+		}
+		return childrenSnapshot;
+	}
+
+	/**
+	 * Get a snapshot of the known shapes, making a new one if they have changed since the last.
+	 */
+	private synchronized List<Shape> publishShapes () {
+		if (shapesSnapshot == null) {
+			shapesSnapshot = Collections.unmodifiableList(new ArrayList<Shape>(getKnownShapes()));
+		}
+		return shapesSnapshot;
+	}
+
+	private synchronized void shapeAdded (Shape shape) {
+		if (knownShapes != null) {
+			knownShapes.add(shape);
+		}
+		if (lineIndex != null) {
+			lineIndex.put(shape, shape.getFirstLine(), shape.getLastLine());
+		}
+		if (overhangingShapes != null && shape.getOverhang(overhangLineHeight) > 0) {
+			overhangingShapes.add(shape);
+		}
+	}
+
+	private synchronized void shapeRemoved (Shape shape) {
+		if (knownShapes != null) {
+			knownShapes.remove(shape);
+		}
+		if (lineIndex != null) {
+			lineIndex.remove(shape);
+		}
+		if (overhangingShapes != null) {
+			overhangingShapes.remove(shape);
+		}
+	}
+
+	/**
+	 * Hydrate several lists at once. The stored children of the placeholders among them are read and
+	 * decoded in parallel, one list per task, on up to one thread per processor. The children are then
+	 * installed into their lists (and their parent links set) on the calling thread, in order. Errors
+	 * are reported as by {@link #hydrate()}, in a single message.
+	 * @param shapeLists Lists to hydrate; lists that are already hydrated are skipped
+	 */
+	public static void hydrateAll (Collection<ResourceShapeList> shapeLists) {
+		List<ResourceShapeList> placeholders = new ArrayList<ResourceShapeList>();
+		for (ResourceShapeList shapeList : shapeLists) {
+			if (!shapeList.isHydrated()) {
+				placeholders.add(shapeList);
+			}
+		}
+		if (placeholders.size() < 2 || Runtime.getRuntime().availableProcessors() < 2) {
+			for (ResourceShapeList shapeList : placeholders) {
+				shapeList.hydrate();
+			}
+			return;
+		}
+
+		List<ShapeListLoader> loaders = new ArrayList<ShapeListLoader>(placeholders.size());
+		List<Future<List<Object>>> results = new ArrayList<Future<List<Object>>>(placeholders.size());
+		ExecutorService pool = getLoaderPool();
+		for (ResourceShapeList shapeList : placeholders) {
+			final ShapeListLoader pendingLoader;
+			synchronized (shapeList) {
+				pendingLoader = shapeList.loader;
+			}
+			loaders.add(pendingLoader);
+			results.add((pendingLoader == null) ? null : pool.submit(new Callable<List<Object>>() {
+				@Override
+				public List<Object> call() throws Exception {
+					return pendingLoader.loadChildren();
+				}
+			}));
+		}
+
+		// Stitch the results into their lists on this thread.
+		List<String> failures = new ArrayList<String>();
+		boolean interrupted = false;
+		for (int i = 0; i < placeholders.size(); i++) {
+			ResourceShapeList shapeList = placeholders.get(i);
+			Future<List<Object>> result = results.get(i);
+			if (result == null) {
+				continue;
+			}
+			if (interrupted) {
+				result.cancel(false);
+				shapeList.hydrate();
+				continue;
+			}
+			try {
+				shapeList.completeHydration(loaders.get(i), result.get());
+			} catch (InterruptedException e) {
+				// Don't leave the remaining lists half-done; hydrate them one at a time instead.
+				interrupted = true;
+				result.cancel(false);
+				shapeList.hydrate();
+			} catch (ExecutionException e) {
+				IStatus status = (e.getCause() instanceof CoreException) ? ((CoreException)e.getCause()).getStatus() :
+					new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Reading stored Collage shapes failed.", e.getCause());
+				if (shapeList.completeHydration(loaders.get(i), Collections.<Object>emptyList())) {
+					CollageActivator.getDefault().getLog().log(status);
+					failures.add(status.getMessage());
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (!failures.isEmpty()) {
+			CollageUtilities.showError(CollageActivator.PLUGIN_NAME, 
+					String.format("Stored Collage shapes could not be loaded:%n%s", CollageUtilities.join(failures, "\n")));
+		}
+	}
+
+	/**
+	 * Install children read by a placeholder's loader, unless the list has been hydrated in the meantime.
+	 * @return true if the children were installed
+	 */
+	private synchronized boolean completeHydration (ShapeListLoader expectedLoader, List<Object> children) {
+		if (loader != expectedLoader) {
+			return false;
+		}
+		shapes.addAll(children);
+		refreshTransientFields();
+		unloadedChildCount = 0;
+		loader = null;
+		return true;
+	}
+
+	private static synchronized ExecutorService getLoaderPool () {
+		if (loaderPool == null) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "Collage shape loader");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			pool.allowCoreThreadTimeOut(true);
+			loaderPool = pool;
+		}
+		return loaderPool;
 	}
 	
 	/**
@@ -126,8 +608,30 @@ public class ResourceShapeList extends ModelElement {
 		this.resource = resource;
 	}
 
+	/**
+	 * Check if this list has changed since it was last written to the Collage store. Lists that
+	 * did not come from the store are always considered dirty.
+	 * @return true if this list needs to be rewritten
+	 */
+	public boolean isDirty () {
+		return dirty;
+	}
+
+	/**
+	 * Mark this list as changed (or unchanged) with respect to the Collage store.
+	 * @param dirty true if this list needs to be rewritten
+	 */
+	public void setDirty (boolean dirty) {
+		this.dirty = dirty;
+	}
+
 	@Override
-	public void refreshTransientFields() {
+	public synchronized void refreshTransientFields() {
+		// The children may have been replaced (e.g., by deserialization or hydration.)
+		knownShapes = null;
+		lineIndex = null;
+		overhangingShapes = null;
+		childrenChanged();
 		for (Object obj : shapes) {
 			if (obj instanceof Shape) {
 				((Shape)obj).setParent(this);
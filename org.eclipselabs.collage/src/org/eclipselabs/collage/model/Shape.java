@@ -12,6 +12,7 @@
  *******************************************************************************/
 package org.eclipselabs.collage.model;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.util.Date;
 
@@ -32,6 +33,8 @@ import org.eclipse.ui.views.properties.TextPropertyDescriptor;
 import org.eclipse.draw2d.geometry.Rectangle;
 import org.eclipselabs.collage.model.commands.ShapeDeleteCommand;
 import org.eclipselabs.collage.model.commands.ShapeSetConstraintCommand;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 import org.eclipselabs.collage.util.CollageUtilities;
 
 /**
@@ -109,14 +112,15 @@ public abstract class Shape extends UserCreatableModelElement {
 		return descriptor;
 	}
 
-	/** Boundary specification for this shape. */
-	private ShapeBoundaries bounds = createShapeBoundaries();
+	/** Boundary specification for this shape. Volatile so that background readers (e.g., export) see
+	 * boundaries replaced on the UI thread. */
+	private volatile ShapeBoundaries bounds = createShapeBoundaries();
 	/** Creation date of this shape. */
 	@XmlAttribute
 	private Date dateCreated = new Date();
 	/** Last modified date of this shape. */
 	@XmlAttribute
-	private Date dateLastModified = dateCreated;
+	private volatile Date dateLastModified = dateCreated;
 	/** Creator of this shape. */
 	@XmlAttribute
 	private String creator = System.getProperty("user.name", "(unknown)");
@@ -147,6 +151,25 @@ public abstract class Shape extends UserCreatableModelElement {
 		return bounds.getCopy();
 	}
 
+	/**
+	 * Get this shape's boundary specification without copying it, for callers that only read it (e.g., to
+	 * describe it or show it in an editor.) The returned object must not be modified, and may change when
+	 * the shape is moved; use {@link #getBoundaries()} to get a copy that can be modified or kept.
+	 * @return Shape boundaries object (read-only)
+	 */
+	public ShapeBoundaries getBoundariesReadOnly () {
+		return bounds;
+	}
+
+	/**
+	 * Check if this shape's boundary specification is equal to the given one, without copying it.
+	 * @param other Shape boundaries to compare with
+	 * @return {@code true} if the boundaries are equal
+	 */
+	public boolean hasBoundaries (ShapeBoundaries other) {
+		return bounds.equals(other);
+	}
+
 	/**
 	 * Set the shape boundaries for this shape.
 	 * @param newBounds New shape boundaries.
@@ -154,11 +177,87 @@ public abstract class Shape extends UserCreatableModelElement {
 	public void setBoundaries (ShapeBoundaries newBounds) {
 		if (!bounds.equals(newBounds)) {
 			this.bounds = newBounds.getCopy();
+			boundariesChanged();
 			firePropertyChange(CONSTRAINTS_PROP, null, bounds);
 			updateLastModified();
 		}
 	}
 
+	/**
+	 * Get the first document line covered by this shape, without copying its boundary specification.
+	 * @return 1-based first line, or -1 if the shape's boundaries are not tied to a line range
+	 * @see ShapeBoundaries#getFirstLine()
+	 */
+	public int getFirstLine () {
+		return bounds.getFirstLine();
+	}
+
+	/**
+	 * Get the last document line covered by this shape, without copying its boundary specification.
+	 * @return 1-based last line, or -1 if the shape's boundaries are not tied to a line range
+	 * @see ShapeBoundaries#getLastLine()
+	 */
+	public int getLastLine () {
+		return bounds.getLastLine();
+	}
+
+	/**
+	 * Get the number of pixels by which this shape reaches beyond its lines, without copying its boundary
+	 * specification.
+	 * @param lineHeight Height of a line in the text viewer, in pixels
+	 * @return Overhang in pixels, or 0 if the shape stays within its lines
+	 * @see ShapeBoundaries#getOverhang(int)
+	 */
+	public int getOverhang (int lineHeight) {
+		return bounds.getOverhang(lineHeight);
+	}
+
+	/**
+	 * Check if this shape can be moved by {@link ResourceShapeList#shiftShapeLines(java.util.List, int)} when lines
+	 * are inserted or removed above it.
+	 * @return {@code true} if this shape's boundaries support line shifts
+	 * @see ShapeBoundaries#canShiftLines()
+	 */
+	public boolean canShiftLines () {
+		return bounds.canShiftLines();
+	}
+
+	/**
+	 * Move this shape by a number of lines without firing events. The containing list updates its index 
+	 * and notifies listeners for the whole batch of shifted shapes.
+	 * @param delta Number of lines to move by
+	 * @param modified Modification date to record
+	 */
+	void shiftLines (int delta, Date modified) {
+		bounds.shiftLines(delta);
+		dateLastModified = modified;
+	}
+
+	/**
+	 * Get this shape's own boundaries object (not a copy.)
+	 */
+	ShapeBoundaries getBoundariesInternal () {
+		return bounds;
+	}
+
+	/**
+	 * Replace this shape's boundaries object without firing events. Only for use by {@link ShapePositionTracker},
+	 * which swaps plain boundaries for equivalent anchored ones and back.
+	 * @param newBounds Boundaries describing the same area as the current ones
+	 */
+	void replaceBoundaries (ShapeBoundaries newBounds) {
+		bounds = newBounds;
+	}
+
+	/**
+	 * Let the containing list update its line index after the boundaries of this shape have changed.
+	 */
+	private void boundariesChanged () {
+		if (getParent() instanceof ResourceShapeList) {
+			((ResourceShapeList)getParent()).shapeBoundariesChanged(this);
+		}
+	}
+
 	/**
 	 * Return the GEF constraint corresponding to this shape's boundary specification in the context of the provided
 	 * {@link ITextViewer}
@@ -255,6 +354,81 @@ public abstract class Shape extends UserCreatableModelElement {
 		return (Date)dateLastModified.clone();
 	}
 
+	/**
+	 * Set the metadata of this shape when it is read from storage. Not intended to be used by clients.
+	 * @param created Creation date
+	 * @param lastModified Last modified date
+	 * @param creator Creator
+	 */
+	public final void restoreMetadata (Date created, Date lastModified, String creator) {
+		this.dateCreated = created;
+		this.dateLastModified = lastModified;
+		this.creator = creator;
+	}
+
+	/**
+	 * Check if this shape can be stored in the binary format used for internal Collage storage. Shapes
+	 * without a binary form are stored as XML instead.
+	 * @return {@code true} if {@link #writeBoundaries(CollageDataOutput)} and {@link #writeBinary(CollageDataOutput)}
+	 * together write everything needed to restore this shape
+	 * @see #getBinaryFormClass()
+	 */
+	public final boolean hasBinaryForm () {
+		return getClass() == getBinaryFormClass() && bounds.hasBinaryForm();
+	}
+
+	/**
+	 * Get the class whose state is completely covered by {@link #writeBinary(CollageDataOutput)} and
+	 * {@link #readBinary(CollageDataInput)}. Shape classes that override those methods to store their own
+	 * fields should override this method to return their own class. This ensures that subclasses which
+	 * add fields without overriding the binary methods are stored as XML. The default implementation
+	 * returns {@code null} (no binary form.)
+	 * @return Shape class, or {@code null}
+	 */
+	protected Class<? extends Shape> getBinaryFormClass () {
+		return null;
+	}
+
+	/**
+	 * Write the boundaries of this shape in binary form. Called by the Collage store before
+	 * {@link #writeBinary(CollageDataOutput)}; not intended to be used by clients.
+	 * @param out Binary output stream
+	 * @throws IOException if writing fails
+	 */
+	public final void writeBoundaries (CollageDataOutput out) throws IOException {
+		bounds.writeBinary(out);
+	}
+
+	/**
+	 * Set the boundaries of this shape from data written by {@link #writeBoundaries(CollageDataOutput)}.
+	 * Not intended to be used by clients.
+	 * @param in Binary input stream
+	 * @throws IOException if reading fails
+	 */
+	public final void readBoundaries (CollageDataInput in) throws IOException {
+		ShapeBoundaries newBounds = createShapeBoundaries();
+		newBounds.readBinary(in);
+		bounds = newBounds;
+	}
+
+	/**
+	 * Write the content of this shape (everything except its boundaries and metadata) in binary form.
+	 * The content is stored separately from the boundaries, so that copies of a shape in different places
+	 * can share it. Subclasses should call the superclass implementation first and then write their own fields.
+	 * @param out Binary output stream
+	 * @throws IOException if writing fails
+	 */
+	public void writeBinary (CollageDataOutput out) throws IOException {
+	}
+
+	/**
+	 * Set the content of this shape from data written by {@link #writeBinary(CollageDataOutput)}.
+	 * @param in Binary input stream
+	 * @throws IOException if reading fails
+	 */
+	public void readBinary (CollageDataInput in) throws IOException {
+	}
+
 	/**
 	 * Returns true iff the parent layer has been created and has not been deleted.
 	 */
@@ -281,6 +455,7 @@ public abstract class Shape extends UserCreatableModelElement {
 	public void setPropertyValue(Object propertyId, Object value) {
 		if (bounds.hasProperty(propertyId)) {
 			bounds.setPropertyValue(propertyId, value);
+			boundariesChanged();
 			firePropertyChange(CONSTRAINTS_PROP, null, bounds);
 			updateLastModified();
 		} else {
@@ -291,6 +466,9 @@ public abstract class Shape extends UserCreatableModelElement {
 	protected final void updateLastModified () {
 		Date oldLastModified = dateLastModified;
 		dateLastModified = new Date();
+		if (getParent() instanceof ResourceShapeList) {
+			((ResourceShapeList)getParent()).setDirty(true);
+		}
 		firePropertyChange(LAST_MODIFIED_DATE_PROP, oldLastModified, dateLastModified);
 	}
 	
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipselabs.collage.model;
 
+import java.io.IOException;
+
 import javax.xml.bind.annotation.XmlTransient;
 
 import org.eclipse.core.runtime.CoreException;
@@ -17,6 +19,8 @@ import org.eclipse.draw2d.geometry.Rectangle;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.ui.IEditorPart;
 import org.eclipse.ui.views.properties.IPropertyDescriptor;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 
 /**
  * <p>A {@code ShapeBoundaries} object specifies the boundaries of a {@link Shape} in some way.
@@ -102,4 +106,85 @@ public abstract class ShapeBoundaries {
 	 * @return String description of this boundary specification
 	 */
 	abstract public String getDescription ();
+
+	/**
+	 * Get the first document line covered by this boundary specification. Used to skip shapes which are
+	 * far outside the visible part of a text viewer. The default implementation returns -1.
+	 * @return 1-based first line, or -1 if this boundary specification is not tied to a line range
+	 */
+	public int getFirstLine () {
+		return -1;
+	}
+
+	/**
+	 * Get the last document line covered by this boundary specification. The default implementation
+	 * returns -1.
+	 * @return 1-based last line, or -1 if this boundary specification is not tied to a line range
+	 * @see #getFirstLine()
+	 */
+	public int getLastLine () {
+		return -1;
+	}
+
+	/**
+	 * Get the number of pixels by which the area described may reach above the top of its first line or
+	 * below the bottom of its last line (through pixel offsets from those lines.) Such an area can be visible
+	 * while its lines are not. The default implementation returns 0.
+	 * @param lineHeight Height of a line in the text viewer, in pixels
+	 * @return Overhang in pixels, or 0 if the area stays within its lines (or is not tied to lines)
+	 */
+	public int getOverhang (int lineHeight) {
+		return 0;
+	}
+
+	/**
+	 * Check if these boundaries can be moved with {@link #shiftLines(int)} when lines are inserted or
+	 * removed above them, instead of through {@link #handleDocumentChange(DocumentChange)}. This lets
+	 * the shapes below an edit be moved in one step. The default implementation returns {@code false}.
+	 * @return {@code true} if {@link #shiftLines(int)} is supported
+	 */
+	public boolean canShiftLines () {
+		return false;
+	}
+
+	/**
+	 * Move these boundaries down (or up) by a number of lines, in place. Only called if
+	 * {@link #canShiftLines()} returns {@code true}, and only for boundaries that lie entirely below a
+	 * document change (where {@link #handleDocumentChange(DocumentChange)} would shift all lines by the
+	 * line delta of the change.)
+	 * @param delta Number of lines to move by
+	 */
+	public void shiftLines (int delta) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Check if this boundary specification can be stored in the binary format used for internal
+	 * Collage storage. The default implementation returns {@code false}; subclasses that override
+	 * {@link #writeBinary(CollageDataOutput)} and {@link #readBinary(CollageDataInput)} should 
+	 * override this method as well.
+	 * @return {@code true} if this boundary specification has a binary form
+	 */
+	public boolean hasBinaryForm () {
+		return false;
+	}
+
+	/**
+	 * Write this boundary specification in binary form. Only called if {@link #hasBinaryForm()} 
+	 * returns {@code true}.
+	 * @param out Binary output stream
+	 * @throws IOException if writing fails
+	 */
+	public void writeBinary (CollageDataOutput out) throws IOException {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Set this boundary specification from data written by {@link #writeBinary(CollageDataOutput)}.
+	 * @param in Binary input stream
+	 * @throws IOException if reading fails
+	 */
+	public void readBinary (CollageDataInput in) throws IOException {
+		throw new UnsupportedOperationException();
+	}
 }
@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.model;
+
+import java.util.List;
+
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Supplies the children of a placeholder {@link ResourceShapeList} the first time they are needed.
+ * @author Alex Bradley
+ */
+public interface ShapeListLoader {
+	/**
+	 * Read the children of a shape list.
+	 * @return Children of the list (shapes, or DOM elements for shapes whose plugin is missing)
+	 * @throws CoreException if the children could not be read
+	 */
+	List<Object> loadChildren () throws CoreException;
+}
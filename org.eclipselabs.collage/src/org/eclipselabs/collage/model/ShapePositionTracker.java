@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.model;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IPositionUpdater;
+import org.eclipse.jface.text.Position;
+
+/**
+ * <p>Anchors the shapes of a {@link ResourceShapeList} to {@link Position}s in the open document of the
+ * resource, so that the document keeps track of where the shapes are as the text is edited. Each
+ * anchored shape gets a position covering its lines (from the start of its top line to the end of its
+ * bottom line) in a position category of its own, and its boundaries are replaced by equivalent
+ * {@link AnchoredShapeBoundaries}. The tracker's {@link IPositionUpdater} moves the positions on every
+ * change to the document:</p>
+ * <ul>
+ * <li>Positions before the changed text are left alone.</li>
+ * <li>Positions after the changed text (including those starting exactly where an insertion is made)
+ * are moved by the change in length.</li>
+ * <li>Positions wholly inside deleted text are marked as deleted; the shape is then deleted through the
+ * usual document change handling, so that it can be restored by undo.</li>
+ * <li>Otherwise, the parts of a position that were replaced are clipped to the replacement text.</li>
+ * </ul>
+ * <p>After each change, {@link #syncLines()} copies the new lines of the moved positions into the shapes.
+ * Clipping can't be reversed by the updater when the change is undone, so the lines of clipped shapes from
+ * before the change are kept until {@link #takeClippedShapes()} is called, for the document change handling
+ * to restore on undo.
+ * Only shapes with plain {@link FileLinePointShapeBoundaries} are anchored; other shapes are moved by
+ * {@link ShapeBoundaries#handleDocumentChange(DocumentChange)} as before.</p>
+ *
+ * <p>Must be used from the UI thread.</p>
+ * @author Alex Bradley
+ */
+public class ShapePositionTracker implements IPositionUpdater {
+	private static final String CATEGORY_PREFIX = "org.eclipselabs.collage.shapes.";
+
+	/**
+	 * Position of an anchored shape.
+	 */
+	private static final class ShapePosition extends Position {
+		final Shape shape;
+		/** Whether the position has been moved since the lines of the shape were last synced. */
+		boolean moved = false;
+		/** Whether the position has been clipped since the lines of the shape were last synced. */
+		boolean clipped = false;
+
+		ShapePosition (Shape shape, int offset, int length) {
+			super(offset, length);
+			this.shape = shape;
+		}
+	}
+
+	private final IDocument document;
+	private final ResourceShapeList shapeList;
+	private final String category;
+	private final Map<Shape, ShapePosition> positions = new IdentityHashMap<Shape, ShapePosition>();
+	private boolean anyMoved = false;
+	/** Shapes whose lines have been synced, but whose listeners have not been notified yet. */
+	private final List<Shape> movedShapes = new ArrayList<Shape>();
+	/** Boundaries of clipped shapes from before they were first clipped, until taken. */
+	private Map<Shape, ShapeBoundaries> clippedShapes = new IdentityHashMap<Shape, ShapeBoundaries>();
+
+	/**
+	 * Re-anchors shapes whose boundaries have been set through the model (e.g., when they are dragged.)
+	 */
+	private final PropertyChangeListener shapeListener = new PropertyChangeListener() {
+		@Override
+		public void propertyChange(PropertyChangeEvent evt) {
+			if (Shape.CONSTRAINTS_PROP.equals(evt.getPropertyName()) && evt.getSource() instanceof Shape) {
+				Shape shape = (Shape)evt.getSource();
+				if (positions.containsKey(shape)) {
+					detach(shape);
+					attach(shape);
+				}
+			}
+		}
+	};
+
+	/**
+	 * Create a tracker. Nothing is anchored until {@link #install()} is called.
+	 * @param document Open document of the resource
+	 * @param shapeList Shapes of the resource
+	 */
+	public ShapePositionTracker (IDocument document, ResourceShapeList shapeList) {
+		this.document = document;
+		this.shapeList = shapeList;
+		this.category = CATEGORY_PREFIX + System.identityHashCode(this);
+	}
+
+	/**
+	 * Start tracking: register the position category and updater with the document and anchor the shapes
+	 * in the list.
+	 */
+	public void install () {
+		document.addPositionCategory(category);
+		document.addPositionUpdater(this);
+		for (Shape shape : shapeList.getShapes()) {
+			anchor(shape);
+		}
+	}
+
+	/**
+	 * Stop tracking: bring the lines of the shapes up to date, give them back plain boundaries, and
+	 * remove the position category and updater from the document.
+	 */
+	public void uninstall () {
+		syncLines();
+		for (Shape shape : new ArrayList<Shape>(positions.keySet())) {
+			release(shape);
+		}
+		document.removePositionUpdater(this);
+		try {
+			document.removePositionCategory(category);
+		} catch (BadPositionCategoryException e) {
+			// Already gone.
+		}
+	}
+
+	/**
+	 * Anchor a shape (e.g., one that has just been added to the list.) Does nothing if the shape is
+	 * already anchored, does not have plain {@link FileLinePointShapeBoundaries}, or lies beyond the end
+	 * of the document.
+	 * @param shape A shape in the list
+	 */
+	public void anchor (Shape shape) {
+		if (!positions.containsKey(shape) && attach(shape)) {
+			shape.addPropertyChangeListener(shapeListener);
+		}
+	}
+
+	/**
+	 * Stop tracking a shape (e.g., one that has been removed from the list), giving it back plain boundaries
+	 * with its last known lines.
+	 * @param shape A shape
+	 */
+	public void release (Shape shape) {
+		if (positions.containsKey(shape)) {
+			shape.removePropertyChangeListener(shapeListener);
+			detach(shape);
+		}
+	}
+
+	/**
+	 * Copy the lines of the positions moved by document changes into their shapes and the line index of
+	 * the list. Should be called after each document change. Listeners are notified later, by
+	 * {@link #fireShapesMoved()}, since they may not be able to handle events in the middle of a change.
+	 * @return true if any shapes were moved
+	 */
+	public boolean syncLines () {
+		if (!anyMoved) {
+			return false;
+		}
+		anyMoved = false;
+		boolean synced = false;
+		for (ShapePosition position : positions.values()) {
+			if (position.moved && !position.isDeleted()) {
+				position.moved = false;
+				position.clipped = false;
+				Shape shape = position.shape;
+				ShapeBoundaries bounds = shape.getBoundariesInternal();
+				if (bounds instanceof AnchoredShapeBoundaries) {
+					try {
+						int topLine = document.getLineOfOffset(position.getOffset()) + 1;
+						int bottomLine = document.getLineOfOffset(Math.max(position.getOffset(), position.getOffset() + position.getLength() - 1)) + 1;
+						if (topLine != bounds.getFirstLine() || bottomLine != bounds.getLastLine()) {
+							if (position.clipped && !clippedShapes.containsKey(shape)) {
+								clippedShapes.put(shape, bounds.getCopy());
+							}
+							((AnchoredShapeBoundaries)bounds).setLines(topLine, bottomLine);
+							shapeList.shapeBoundariesChanged(shape);
+							movedShapes.add(shape);
+							synced = true;
+						}
+					} catch (BadLocationException e) {
+						// Position no longer fits the document; keep the old lines.
+					}
+				}
+			}
+		}
+		if (synced) {
+			shapeList.setDirty(true);
+		}
+		return synced;
+	}
+
+	/**
+	 * Get the shapes clipped by document changes since the last call, with their boundaries from before
+	 * they were clipped.
+	 * @return Map from each clipped shape to its earlier (plain) boundaries; may be empty
+	 */
+	public Map<Shape, ShapeBoundaries> takeClippedShapes () {
+		Map<Shape, ShapeBoundaries> clipped = clippedShapes;
+		clippedShapes = new IdentityHashMap<Shape, ShapeBoundaries>();
+		return clipped;
+	}
+
+	/**
+	 * Forget the shapes clipped since the last call to {@link #takeClippedShapes()} (e.g., when they were
+	 * clipped by an undo or redo, which is not recorded as a new change.)
+	 */
+	public void discardClippedShapes () {
+		clippedShapes.clear();
+	}
+
+	/**
+	 * Notify the listeners of the list about shapes moved since the last call.
+	 */
+	public void fireShapesMoved () {
+		if (!movedShapes.isEmpty()) {
+			List<Shape> moved = new ArrayList<Shape>(movedShapes);
+			movedShapes.clear();
+			shapeList.fireShapesMoved(moved);
+		}
+	}
+
+	@Override
+	public void update(DocumentEvent event) {
+		int changeOffset = event.getOffset();
+		int changeEnd = changeOffset + event.getLength();
+		int textLength = (event.getText() != null) ? event.getText().length() : 0;
+		int delta = textLength - event.getLength();
+
+		for (ShapePosition position : positions.values()) {
+			if (position.isDeleted()) {
+				continue;
+			}
+			int offset = position.getOffset();
+			int end = offset + position.getLength();
+			int newOffset;
+			int newEnd;
+			if (changeEnd <= offset) {
+				// Change is before the position.
+				newOffset = offset + delta;
+				newEnd = end + delta;
+			} else if (changeOffset >= end) {
+				// Change is after the position.
+				continue;
+			} else if (textLength == 0 && changeOffset <= offset && changeEnd >= end) {
+				// All of the position's lines were deleted.
+				position.delete();
+				position.moved = true;
+				anyMoved = true;
+				continue;
+			} else {
+				newOffset = (offset <= changeOffset) ? offset : changeOffset;
+				newEnd = (end >= changeEnd) ? end + delta : changeOffset + textLength;
+				if (changeOffset < offset || changeEnd > end) {
+					// Part of the position was replaced along with text outside it.
+					position.clipped = true;
+				}
+			}
+			if (newOffset != offset || newEnd != end) {
+				position.setOffset(newOffset);
+				position.setLength(Math.max(0, newEnd - newOffset));
+				position.moved = true;
+				anyMoved = true;
+			}
+		}
+	}
+
+	/**
+	 * Anchor a shape's boundaries to a new position.
+	 * @return true if the shape was anchored
+	 */
+	private boolean attach (Shape shape) {
+		ShapeBoundaries bounds = shape.getBoundariesInternal();
+		if (bounds.getClass() != FileLinePointShapeBoundaries.class) {
+			return false;
+		}
+		int topLine = bounds.getFirstLine();
+		int bottomLine = bounds.getLastLine();
+		if (bottomLine < topLine || bottomLine > document.getNumberOfLines()) {
+			return false;
+		}
+		try {
+			int offset = document.getLineOffset(topLine - 1);
+			int end = document.getLineOffset(bottomLine - 1) + document.getLineLength(bottomLine - 1);
+			ShapePosition position = new ShapePosition(shape, offset, end - offset);
+			document.addPosition(category, position);
+			positions.put(shape, position);
+			shape.replaceBoundaries(new AnchoredShapeBoundaries((FileLinePointShapeBoundaries)bounds, position));
+			return true;
+		} catch (BadLocationException e) {
+			return false;
+		} catch (BadPositionCategoryException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Remove a shape's position and give it plain boundaries again.
+	 */
+	private void detach (Shape shape) {
+		ShapePosition position = positions.remove(shape);
+		if (position != null) {
+			try {
+				document.removePosition(category, position);
+			} catch (BadPositionCategoryException e) {
+				// Already gone.
+			}
+		}
+		ShapeBoundaries bounds = shape.getBoundariesInternal();
+		if (bounds instanceof AnchoredShapeBoundaries) {
+			shape.replaceBoundaries(bounds.getCopy());
+		}
+	}
+}
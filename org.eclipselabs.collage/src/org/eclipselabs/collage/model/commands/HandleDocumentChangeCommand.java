@@ -21,6 +21,8 @@ import org.eclipse.swt.widgets.Display;
  * A GEF compound command that repositions shapes after the user has changed the text in the editor.
  * When undone, it will attempt to undo the previous change (i.e., the text change) as well. (Cascading
  * redo handling is performed by {@link org.eclipselabs.collage.parts.ResourceShapeListEditPart#historyNotification(org.eclipse.core.commands.operations.OperationHistoryEvent) ResourceShapeListEditPart.historyNotification}.) 
+ * Shapes clipped by the text change are put back by any {@link RestoreShapeLinesCommand}s in this command once
+ * the text change has been undone.
  * @author Alex Bradley
  */
 public class HandleDocumentChangeCommand extends CompoundCommand {
@@ -50,7 +52,9 @@ public class HandleDocumentChangeCommand extends CompoundCommand {
 				IOperationHistory history = OperationHistoryFactory.getOperationHistory();
 				if (history.canUndo(context)) {
 					try {
-						history.undo(context, null, null);
+						if (history.undo(context, null, null).isOK()) {
+							textUndone();
+						}
 					} catch (ExecutionException e) {
 						// Ignore
 					}
@@ -58,4 +62,15 @@ public class HandleDocumentChangeCommand extends CompoundCommand {
 			}
 		});
 	}
+
+	/**
+	 * Put back the lines of shapes clipped by the text edit, now that the text has been restored.
+	 */
+	private void textUndone () {
+		for (Object command : getCommands()) {
+			if (command instanceof RestoreShapeLinesCommand) {
+				((RestoreShapeLinesCommand)command).textUndone();
+			}
+		}
+	}
 }
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.model.commands;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.eclipse.gef.commands.Command;
+import org.eclipselabs.collage.model.Shape;
+import org.eclipselabs.collage.model.ShapeBoundaries;
+
+/**
+ * A command that records the lines of shapes clipped by a text edit (see
+ * {@link org.eclipselabs.collage.model.ShapePositionTracker ShapePositionTracker}), so that they can be put back
+ * when the edit is undone. The shapes have already been moved when the command is executed, and they can only
+ * be put back once the text has been restored, so {@link #undo()} does nothing; the enclosing
+ * {@link HandleDocumentChangeCommand} calls {@link #textUndone()} after undoing the text edit.
+ * @author Alex Bradley
+ */
+public class RestoreShapeLinesCommand extends Command {
+	private final Map<Shape, ShapeBoundaries> before;
+	private final Map<Shape, ShapeBoundaries> after = new IdentityHashMap<Shape, ShapeBoundaries>();
+
+	/**
+	 * Create a command that restores the lines of clipped shapes on undo.
+	 * @param before Map from each clipped shape to its boundaries from before the edit
+	 * @throws IllegalArgumentException if {@code before} is {@code null}
+	 */
+	public RestoreShapeLinesCommand (Map<Shape, ShapeBoundaries> before) {
+		if (before == null) {
+			throw new IllegalArgumentException();
+		}
+		this.before = new IdentityHashMap<Shape, ShapeBoundaries>(before);
+		setLabel("move");
+	}
+
+	@Override
+	public void execute() {
+		for (Shape shape : before.keySet()) {
+			after.put(shape, shape.getBoundaries());
+		}
+	}
+
+	@Override
+	public void redo() {
+		// The redone text edit clips the shapes again; this puts them where the edit first left them.
+		for (Map.Entry<Shape, ShapeBoundaries> entry : after.entrySet()) {
+			entry.getKey().setBoundaries(entry.getValue());
+		}
+	}
+
+	@Override
+	public void undo() {
+		// Nothing to do until the text edit has been undone.
+	}
+
+	/**
+	 * Put the shapes back on their lines from before the edit. Called once the text edit has been undone.
+	 */
+	public void textUndone () {
+		for (Map.Entry<Shape, ShapeBoundaries> entry : before.entrySet()) {
+			entry.getKey().setBoundaries(entry.getValue());
+		}
+	}
+}
@@ -64,7 +64,7 @@ public class ShapeCreateCommand extends Command {
 
 	@Override
 	public boolean canUndo() {
-		return newShape.isCreated() && !newShape.isDeleted() && bounds.equals(newShape.getBoundaries()) && newShape.parentLayerExists();
+		return newShape.isCreated() && !newShape.isDeleted() && newShape.hasBoundaries(bounds) && newShape.parentLayerExists();
 	}
 
 	@Override
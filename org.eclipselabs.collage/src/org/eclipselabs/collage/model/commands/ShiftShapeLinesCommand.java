@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.model.commands;
+
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.gef.commands.Command;
+import org.eclipselabs.collage.model.ResourceShapeList;
+import org.eclipselabs.collage.model.Shape;
+
+/**
+ * A command to move a group of shapes down (or up) by a number of lines in one step, e.g. the shapes below
+ * an edit that inserted or removed lines. Replaces a {@link ShapeSetConstraintCommand} per shape. The
+ * command can be undone or redone; undo puts back the modification dates the shapes had before the move.
+ * @author Alex Bradley
+ */
+public class ShiftShapeLinesCommand extends Command {
+	private final ResourceShapeList shapeList;
+	private final List<Shape> shapes;
+	private final int delta;
+	/** Modification dates of the shapes before and after they were moved. */
+	private final Map<Shape, Date> datesBefore = new IdentityHashMap<Shape, Date>();
+	private final Map<Shape, Date> datesAfter = new IdentityHashMap<Shape, Date>();
+
+	/**
+	 * Create a command that moves shapes by a number of lines.
+	 * @param shapeList List containing the shapes
+	 * @param shapes Shapes to move; each must support line shifts (see {@link Shape#canShiftLines()})
+	 * @param delta Number of lines to move by
+	 * @throws IllegalArgumentException if any parameter is {@code null}
+	 */
+	public ShiftShapeLinesCommand (ResourceShapeList shapeList, List<Shape> shapes, int delta) {
+		if (shapeList == null || shapes == null) {
+			throw new IllegalArgumentException();
+		}
+		this.shapeList = shapeList;
+		this.shapes = shapes;
+		this.delta = delta;
+		setLabel("move");
+	}
+
+	@Override
+	public void execute() {
+		recordDates(datesBefore);
+		shapeList.shiftShapeLines(shapes, delta);
+		recordDates(datesAfter);
+	}
+
+	@Override
+	public void redo() {
+		shapeList.shiftShapeLines(shapes, delta, datesAfter);
+	}
+
+	@Override
+	public void undo() {
+		shapeList.shiftShapeLines(shapes, -delta, datesBefore);
+	}
+
+	private void recordDates (Map<Shape, Date> dates) {
+		for (Shape shape : shapes) {
+			dates.put(shape, shape.getModificationDate());
+		}
+	}
+}
@@ -10,17 +10,26 @@
  *******************************************************************************/
 package org.eclipselabs.collage.model.resourceid;
 
+import java.io.IOException;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.jdt.core.IClassFile;
 import org.eclipse.ui.IEditorInput;
 import org.eclipse.ui.ide.ResourceUtil;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
 
 /**
  * Factory that creates {@link ResourceIdentifier}s for editors.
  * @author abradley
  */
 public class ResourceIdentifierFactory {
+	/** Binary form type tag for {@link FileIdentifier}. */
+	private static final int FILE_IDENTIFIER_TAG = 1;
+	/** Binary form type tag for {@link JavaClassFileIdentifier}. */
+	private static final int JAVA_CLASS_FILE_IDENTIFIER_TAG = 2;
+
 	/**
 	 * Get a {@link ResourceIdentifier} for an editor.
 	 * @param input an editor input
@@ -43,4 +52,60 @@ public class ResourceIdentifierFactory {
 		}
 		return null;
 	}
+
+	/**
+	 * Write a {@link ResourceIdentifier} in binary form. Identifiers that occur more than once in the 
+	 * stream are written as back-references.
+	 * @param identifier Resource identifier
+	 * @param out Binary output stream
+	 * @throws IOException if writing fails or the identifier type has no binary form
+	 */
+	public static void writeBinary (ResourceIdentifier identifier, CollageDataOutput out) throws IOException {
+		if (out.writeSharedReference(identifier)) {
+			return;
+		}
+		if (identifier instanceof FileIdentifier) {
+			out.writeByte(FILE_IDENTIFIER_TAG);
+			out.writeString(identifier.shortName);
+			out.writeString(((FileIdentifier)identifier).path);
+		} else if (identifier instanceof JavaClassFileIdentifier) {
+			JavaClassFileIdentifier classFile = (JavaClassFileIdentifier)identifier;
+			out.writeByte(JAVA_CLASS_FILE_IDENTIFIER_TAG);
+			out.writeString(classFile.shortName);
+			out.writeString(classFile.className);
+			out.writeString(classFile.jarName);
+		} else {
+			throw new IOException("No binary form for resource identifier type " + identifier.getClass().getName());
+		}
+	}
+
+	/**
+	 * Read a {@link ResourceIdentifier} written by {@link #writeBinary(ResourceIdentifier, CollageDataOutput)}.
+	 * @param in Binary input stream
+	 * @return Resource identifier
+	 * @throws IOException if reading fails
+	 */
+	public static ResourceIdentifier readBinary (CollageDataInput in) throws IOException {
+		int ref = in.readSharedReference();
+		if (ref >= 0) {
+			return (ResourceIdentifier)in.getSharedReference(ref);
+		}
+		ResourceIdentifier identifier;
+		int tag = in.readByte();
+		switch (tag) {
+		case FILE_IDENTIFIER_TAG:
+			String shortName = in.readString();
+			identifier = new FileIdentifier(shortName, in.readString());
+			break;
+		case JAVA_CLASS_FILE_IDENTIFIER_TAG:
+			String classShortName = in.readString();
+			String className = in.readString();
+			identifier = new JavaClassFileIdentifier(classShortName, className, in.readString());
+			break;
+		default:
+			throw new IOException("Unknown resource identifier type " + tag);
+		}
+		in.addSharedReference(identifier);
+		return identifier;
+	}
 }
@@ -14,6 +14,7 @@ package org.eclipselabs.collage.parts;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.draw2d.FreeformLayer;
@@ -29,9 +30,11 @@ import org.eclipse.gef.editpolicies.ContainerEditPolicy;
 import org.eclipse.gef.editpolicies.RootComponentEditPolicy;
 import org.eclipse.gef.requests.CreateRequest;
 import org.eclipselabs.collage.CollageActivator;
+import org.eclipselabs.collage.model.CollageLayer;
 import org.eclipselabs.collage.model.ModelElement;
 import org.eclipselabs.collage.model.ResourceShapeList;
 import org.eclipselabs.collage.model.CollageRoot;
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
 
 /**
  * Top-level "content" edit part for showing Collage elements on top of a text editor. Creates a
@@ -109,12 +112,17 @@ public class CollageContentEditPart extends AbstractGraphicalEditPart implements
 		// these properties are fired when elements are added into or removed from
 		// the CollageRoot instance and must cause a call of refreshChildren()
 		// to update the diagram's contents.
-		if (CollageRoot.CHILD_ADDED_PROP.equals(prop)
+		if (CollageRoot.ACTIVE_LAYER_CHANGED_PROP.equals(prop)) {
+			refreshChildren();
+		} else if (CollageRoot.CHILD_ADDED_PROP.equals(prop)
 				|| CollageRoot.CHILD_REMOVED_PROP.equals(prop)
-				|| CollageRoot.ORDER_CHANGED_PROP.equals(prop)
-				|| CollageRoot.ACTIVE_LAYER_CHANGED_PROP.equals(prop)
 				|| CollageRoot.CHILD_VISIBILITY_CHANGED_PROP.equals(prop)) {
-			refreshChildren();
+			// Layers without shapes for this editor's resource don't affect it. (The active layer always has
+			// a list for the resource, even if it is empty.)
+			Object layer = evt.getNewValue();
+			if (!(layer instanceof CollageLayer) || ((CollageLayer)layer).hasShapesFor(getResource())) {
+				refreshChildren();
+			}
 		}
 		if (CollageRoot.ACTIVE_LAYER_CHANGED_PROP.equals(prop)) {
 			// If we changed layer, previous layer's elements shouldn't remain selected.
@@ -122,12 +130,31 @@ public class CollageContentEditPart extends AbstractGraphicalEditPart implements
 		}
 	}
 	
+	/**
+	 * Get the edit parts of all of the shapes shown in this viewer, creating them for shapes that are
+	 * currently culled (e.g., so that all of the shapes can be selected.)
+	 * @return Selectable edit parts of the shapes, in layer and list order
+	 */
+	public List<EditPart> getAllShapeEditParts () {
+		List<EditPart> parts = new ArrayList<EditPart>();
+		for (Object child : getChildren()) {
+			if (child instanceof ResourceShapeListEditPart) {
+				parts.addAll(((ResourceShapeListEditPart)child).getAllShapeEditParts());
+			}
+		}
+		return parts;
+	}
+
 	private CollageRoot getCastedModel() {
 		return (CollageRoot) getModel();
 	}
 
+	private ResourceIdentifier getResource() {
+		return ((TextViewerRootEditPart)getRoot()).getResourceIdentification();
+	}
+
 	@Override
 	protected List<ResourceShapeList> getModelChildren() {
-		return getCastedModel().getResourceShapeLists(((TextViewerRootEditPart)getRoot()).getResourceIdentification());
+		return getCastedModel().getResourceShapeLists(getResource());
 	}
 }
@@ -16,8 +16,12 @@ package org.eclipselabs.collage.parts;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.core.commands.ExecutionException;
 import org.eclipse.core.commands.operations.IOperationHistory;
@@ -27,7 +31,6 @@ import org.eclipse.core.commands.operations.IUndoableOperation;
 import org.eclipse.core.commands.operations.OperationHistoryEvent;
 import org.eclipse.core.commands.operations.OperationHistoryFactory;
 import org.eclipse.draw2d.Figure;
-import org.eclipse.draw2d.FreeformLayer;
 import org.eclipse.draw2d.FreeformLayout;
 import org.eclipse.draw2d.IFigure;
 import org.eclipse.draw2d.MarginBorder;
@@ -36,8 +39,8 @@ import org.eclipse.draw2d.geometry.Rectangle;
 
 import org.eclipse.gef.EditPart;
 import org.eclipse.gef.EditPolicy;
+import org.eclipse.gef.GraphicalEditPart;
 import org.eclipse.gef.commands.Command;
-import org.eclipse.gef.commands.CompoundCommand;
 import org.eclipse.gef.editparts.AbstractGraphicalEditPart;
 import org.eclipse.gef.editpolicies.RootComponentEditPolicy;
 import org.eclipse.gef.editpolicies.XYLayoutEditPolicy;
@@ -48,6 +51,7 @@ import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.IViewportListener;
 import org.eclipse.jface.text.source.IAnnotationModel;
 import org.eclipse.jface.text.source.IAnnotationModelListener;
 import org.eclipse.jface.text.source.projection.IProjectionListener;
@@ -57,16 +61,21 @@ import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.events.DisposeEvent;
 import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.widgets.Display;
+import org.eclipselabs.collage.CollageActivator;
 import org.eclipselabs.collage.model.DocumentChange;
+import org.eclipselabs.collage.model.DocumentChangeBatch;
 import org.eclipselabs.collage.model.ModelElement;
 import org.eclipselabs.collage.model.ResourceShapeList;
 import org.eclipselabs.collage.model.Shape;
 import org.eclipselabs.collage.model.ShapeBoundaries;
+import org.eclipselabs.collage.model.ShapePositionTracker;
 import org.eclipselabs.collage.model.commands.HandleDocumentChangeCommand;
 import org.eclipselabs.collage.model.commands.ShapeCreateCommand;
 import org.eclipselabs.collage.model.commands.ShapeSetConstraintCommand;
 import org.eclipselabs.collage.operations.WrappingOperation;
 import org.eclipselabs.collage.requests.ICreateRequestCustomFeedback;
+import org.eclipselabs.collage.storage.CollageAutosaveJob;
+import org.eclipselabs.collage.ui.gef.TileCachedFreeformLayer;
 import org.eclipselabs.collage.util.CollageUtilities;
 
 /**
@@ -81,14 +90,79 @@ import org.eclipselabs.collage.util.CollageUtilities;
  * This edit part must implement the PropertyChangeListener interface, so it can
  * be notified of property changes in the corresponding model element.
  * </p>
+ * <p>
+ * Only shapes on or near the visible lines of the text viewer get edit parts (and figures). As the
+ * viewer scrolls, or shapes are moved, the children are refreshed so that parts are created for shapes
+ * that come into range and disposed of for shapes that leave it.
+ * </p>
  * 
  * @author Elias Volanakis
  * @author Alex Bradley
  */
 class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 		PropertyChangeListener, IAnnotationModelListener, IProjectionListener, IOperationHistoryListener, DisposeListener {
+	/**
+	 * Number of extra lines (and pixels), as a multiple of the visible lines (and height), above and below the
+	 * visible part of the text viewer whose shapes get edit parts. The margin means that small scrolls don't
+	 * create or dispose of edit parts. Shapes whose pixel offsets reach beyond their lines are culled by their
+	 * pixel extent instead (see {@link ResourceShapeList#getShapesOverhangingLines(int)}).
+	 */
+	private static final int CULLING_MARGIN_PAGES = 1;
+
 	private ProjectionAnnotationModel currentProjectionAnnotationModel = null;
 
+	/** Anchors the shapes to positions in the document while this part is active. */
+	private ShapePositionTracker positionTracker = null;
+
+	/** First line (1-based) of the range of lines whose shapes currently have edit parts. */
+	private int culledFirstLine = 1;
+	/** Last line (1-based) of the range of lines whose shapes currently have edit parts. */
+	private int culledLastLine = Integer.MAX_VALUE;
+	/** Top of the range of pixels (in document coordinates) in which overhanging shapes get edit parts. */
+	private int culledTopPixel = Integer.MIN_VALUE;
+	/** Bottom of the range of pixels (in document coordinates) in which overhanging shapes get edit parts. */
+	private int culledBottomPixel = Integer.MAX_VALUE;
+	/** Line height of the text widget when the culling range was last computed, or 0 if unknown. */
+	private int culledLineHeight = 0;
+	/** Whether culling is suspended so that every shape gets an edit part (see {@link #getAllShapeEditParts()}). */
+	private boolean cullingSuspended = false;
+	/** Whether a refresh of the children has been queued up. */
+	private boolean childRefreshPending = false;
+
+	/** Whether a refresh after projection annotation model changes has been queued, but hasn't run yet. */
+	private final AtomicBoolean projectionRefreshPending = new AtomicBoolean(false);
+
+	private final IViewportListener viewportListener = new IViewportListener() {
+		@Override
+		public void viewportChanged(int verticalOffset) {
+			ITextViewer textViewer = getTextViewer();
+			if (textViewer != null && (textViewer.getTopIndex() + 1 < culledFirstLine || 
+					textViewer.getBottomIndex() + 1 > culledLastLine || verticalOffset < culledTopPixel ||
+					verticalOffset + textViewer.getTextWidget().getClientArea().height > culledBottomPixel)) {
+				refreshChildren();
+			}
+		}
+	};
+
+	/**
+	 * Listens to the shapes in the list, so that shapes which are moved into (or out of) the culling 
+	 * range gain (or lose) their edit parts.
+	 */
+	private final PropertyChangeListener shapeListener = new PropertyChangeListener() {
+		@Override
+		public void propertyChange(PropertyChangeEvent evt) {
+			if (Shape.CONSTRAINTS_PROP.equals(evt.getPropertyName()) && evt.getSource() instanceof Shape) {
+				Shape shape = (Shape)evt.getSource();
+				if (isShown(shape) != getViewer().getEditPartRegistry().containsKey(shape)) {
+					scheduleChildRefresh();
+				}
+			}
+		}
+	};
+
+	/** Document changes which have not been handled yet. */
+	private DocumentChangeBatch pendingChanges = new DocumentChangeBatch();
+
 	private final IDocumentListener documentListener = new IDocumentListener() {
 		private int currentOldEndLine = -1;
 		
@@ -105,30 +179,27 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 
 		@Override
 		public void documentChanged(DocumentEvent event) {
+			syncTrackedShapes();
+			Map<Shape, ShapeBoundaries> clipped = (positionTracker != null) ? positionTracker.takeClippedShapes() :
+				Collections.<Shape, ShapeBoundaries>emptyMap();
 			if (currentOldEndLine != -1) {
-				IUndoContext undoContext = CollageUtilities.getTextViewerUndoContext(getTextViewer());
-				if (undoContext != null) {
-					try {
-						DocumentChange documentChange = new DocumentChange(event, currentOldEndLine);
-						final CompoundCommand compoundCommand = new HandleDocumentChangeCommand(undoContext);
-						for (Shape shape : getModelChildren()) {
-							compoundCommand.add(shape.handleDocumentChange(documentChange));
-						}
-						if (!compoundCommand.isEmpty()) {
-							// We are already in the UI thread during this method. However, if we ran the command right now,
-							// the projection model might be in an illegal state when the GEF edit parts attempted to refresh
-							// visuals. So we queue this up and let the UI thread get to it when document change processing has
-							// finished.
-							Display.getDefault().asyncExec(new Runnable() {
-								@Override
-								public void run() {
-									getRoot().getViewer().getEditDomain().getCommandStack().execute(compoundCommand);
-								}
-							});
-						}
-					} catch (BadLocationException e) {
-						// Give up.
+				try {
+					// Changes often come in bursts (e.g., from a formatter or a refactoring.) Collect them and handle
+					// them all at once when the UI thread gets to it, after document change processing has finished.
+					// (If we adjusted the shapes right now, the projection model might be in an illegal state when the
+					// GEF edit parts attempted to refresh visuals.)
+					if (pendingChanges.isEmpty()) {
+						Display.getDefault().asyncExec(new Runnable() {
+							@Override
+							public void run() {
+								handlePendingChanges();
+							}
+						});
 					}
+					pendingChanges.add(new DocumentChange(event, currentOldEndLine));
+					pendingChanges.addClippedShapes(clipped);
+				} catch (BadLocationException e) {
+					// Give up.
 				}
 			}
 
@@ -136,6 +207,24 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 		}
 	};
 
+	/**
+	 * Adjust the shapes to the pending document changes with a single command.
+	 */
+	private void handlePendingChanges () {
+		DocumentChangeBatch changes = pendingChanges;
+		pendingChanges = new DocumentChangeBatch();
+		if (!isActive() || changes.isEmpty()) {
+			return;
+		}
+		IUndoContext undoContext = CollageUtilities.getTextViewerUndoContext(getTextViewer());
+		if (undoContext != null) {
+			Command command = changes.createCommand(getCastedModel(), undoContext);
+			if (command != null) {
+				getRoot().getViewer().getEditDomain().getCommandStack().execute(command);
+			}
+		}
+	}
+
 	/**
 	 * Upon activation, attach to the model element as a property change
 	 * listener.
@@ -145,9 +234,14 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 		if (!isActive()) {
 			super.activate();
 			((ModelElement) getModel()).addPropertyChangeListener(this);
+			for (Shape shape : getCastedModel().getShapes()) {
+				shape.addPropertyChangeListener(shapeListener);
+			}
+			setViewportListening(true);
 			setProjectionEnabledListening(true);
 			setProjectionChangeListening(true);
 			setOperationHistoryListening(true);
+			setPositionTracking(true);
 		}
 	}
 
@@ -175,7 +269,7 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 	 */
 	@Override
 	protected IFigure createFigure() {
-		Figure f = new FreeformLayer();
+		Figure f = new TileCachedFreeformLayer();
 		f.setBorder(new MarginBorder(3));
 		f.setLayoutManager(new FreeformLayout());
 
@@ -191,9 +285,14 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 		if (isActive()) {
 			super.deactivate();
 			((ModelElement) getModel()).removePropertyChangeListener(this);
+			for (Shape shape : getCastedModel().getShapes()) {
+				shape.removePropertyChangeListener(shapeListener);
+			}
+			setViewportListening(false);
 			setProjectionEnabledListening(false);
 			setProjectionChangeListening(false);
 			setOperationHistoryListening(false);
+			setPositionTracking(false);
 		}
 	}
 
@@ -208,7 +307,145 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 	 */
 	@Override
 	protected List<Shape> getModelChildren() {
-		return getCastedModel().getShapes(); // return a list of shapes
+		if (cullingSuspended) {
+			return new ArrayList<Shape>(getCastedModel().getShapes());
+		}
+		updateCullingRange();
+		boolean scanAll = false;
+		for (Object part : getChildren()) {
+			if (((EditPart)part).getSelected() != EditPart.SELECTED_NONE && !isInCullingRange((Shape)((EditPart)part).getModel())) {
+				// A selected shape has been scrolled out of range.
+				scanAll = true;
+				break;
+			}
+		}
+		if (!scanAll && culledLineHeight > 0) {
+			for (Shape shape : getCastedModel().getShapesOverhangingLines(culledLineHeight)) {
+				if (!isInCulledLines(shape) && isInCullingRange(shape)) {
+					// A shape outside the lines reaches into the visible area.
+					scanAll = true;
+					break;
+				}
+			}
+		}
+		if (scanAll) {
+			// This is rare, so just scan the whole list to keep the shapes (in their proper places) along with
+			// the shapes in range.
+			List<Shape> shown = new ArrayList<Shape>();
+			for (Shape shape : getCastedModel().getShapes()) {
+				if (isShown(shape)) {
+					shown.add(shape);
+				}
+			}
+			return shown;
+		}
+		return getCastedModel().getShapesInLines(culledFirstLine, culledLastLine);
+	}
+
+	/**
+	 * Get the edit parts of all of the shapes in the list (e.g., to select them all), creating edit parts
+	 * for shapes outside the culling range. The parts are kept while they are selected.
+	 * @return Selectable edit parts of the shapes, in list order
+	 */
+	List<EditPart> getAllShapeEditParts () {
+		cullingSuspended = true;
+		try {
+			refreshChildren();
+		} finally {
+			cullingSuspended = false;
+		}
+		List<EditPart> parts = new ArrayList<EditPart>();
+		Map<?, ?> registry = getViewer().getEditPartRegistry();
+		for (Shape shape : getCastedModel().getShapes()) {
+			Object part = registry.get(shape);
+			if (part instanceof EditPart && ((EditPart)part).isSelectable()) {
+				parts.add((EditPart)part);
+			}
+		}
+		return parts;
+	}
+
+	/**
+	 * Recompute the ranges of lines and pixels whose shapes get edit parts from the current viewport of the text viewer.
+	 */
+	private void updateCullingRange () {
+		ITextViewer textViewer = getTextViewer();
+		int topIndex = (textViewer != null) ? textViewer.getTopIndex() : -1;
+		int bottomIndex = (textViewer != null) ? textViewer.getBottomIndex() : -1;
+		StyledText textWidget = (textViewer != null) ? textViewer.getTextWidget() : null;
+		if (topIndex < 0 || bottomIndex < topIndex || textWidget == null || textWidget.isDisposed()) {
+			// No usable viewport (e.g., the text widget is gone); don't cull.
+			culledFirstLine = 1;
+			culledLastLine = Integer.MAX_VALUE;
+			culledTopPixel = Integer.MIN_VALUE;
+			culledBottomPixel = Integer.MAX_VALUE;
+			culledLineHeight = 0;
+		} else {
+			int margin = (bottomIndex - topIndex + 1) * CULLING_MARGIN_PAGES;
+			culledFirstLine = Math.max(1, topIndex + 1 - margin);
+			culledLastLine = bottomIndex + 1 + margin;
+			int height = textWidget.getClientArea().height;
+			culledTopPixel = textWidget.getTopPixel() - height * CULLING_MARGIN_PAGES;
+			culledBottomPixel = textWidget.getTopPixel() + height * (CULLING_MARGIN_PAGES + 1);
+			culledLineHeight = textWidget.getLineHeight();
+		}
+	}
+
+	/**
+	 * Check if a shape should have an edit part: it lies (at least partly) within the culling range, its 
+	 * boundaries aren't tied to lines, or its edit part is selected.
+	 */
+	private boolean isShown (Shape shape) {
+		if (isInCullingRange(shape)) {
+			return true;
+		}
+		// Don't drop the selection when a selected shape is scrolled out of range.
+		Object part = getViewer().getEditPartRegistry().get(shape);
+		return part instanceof EditPart && ((EditPart)part).getSelected() != EditPart.SELECTED_NONE;
+	}
+
+	/**
+	 * Check if a shape lies (at least partly) within the culling range: its lines are in the range of
+	 * lines, or it reaches beyond its lines into the range of pixels.
+	 */
+	private boolean isInCullingRange (Shape shape) {
+		if (isInCulledLines(shape)) {
+			return true;
+		}
+		if (culledLineHeight <= 0 || shape.getOverhang(culledLineHeight) <= 0) {
+			return false;
+		}
+		ITextViewer textViewer = getTextViewer();
+		if (textViewer == null) {
+			return true;
+		}
+		Rectangle extent = shape.getBoundariesReadOnly().toGEFConstraint(textViewer);
+		return extent.y < culledBottomPixel && extent.bottom() > culledTopPixel;
+	}
+
+	private boolean isInCulledLines (Shape shape) {
+		int firstLine = shape.getFirstLine();
+		int lastLine = shape.getLastLine();
+		return firstLine < 0 || lastLine < 0 || (firstLine <= culledLastLine && lastLine >= culledFirstLine);
+	}
+
+	/**
+	 * Refresh the children once the UI thread is done with its current work. Used when shapes move, so 
+	 * that a command which moves many shapes causes a single refresh.
+	 */
+	private void scheduleChildRefresh () {
+		if (!childRefreshPending) {
+			childRefreshPending = true;
+			Display.getDefault().asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					childRefreshPending = false;
+					if (isActive()) {
+						refreshChildren();
+					}
+				}
+			});
+		}
 	}
 
 	/*
@@ -225,7 +462,30 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 		// to update the diagram's contents.
 		if (ResourceShapeList.CHILD_ADDED_PROP.equals(prop)
 				|| ResourceShapeList.CHILD_REMOVED_PROP.equals(prop)) {
+			if (evt.getNewValue() instanceof Shape) {
+				Shape shape = (Shape)evt.getNewValue();
+				if (ResourceShapeList.CHILD_ADDED_PROP.equals(prop)) {
+					shape.addPropertyChangeListener(shapeListener);
+					if (positionTracker != null) {
+						positionTracker.anchor(shape);
+					}
+				} else {
+					shape.removePropertyChangeListener(shapeListener);
+					if (positionTracker != null) {
+						positionTracker.release(shape);
+					}
+				}
+			}
 			refreshChildren();
+		} else if (ResourceShapeList.LINES_SHIFTED_PROP.equals(prop)) {
+			// Moved shapes don't notify their own edit parts.
+			for (Object shape : (List<?>)evt.getNewValue()) {
+				Object part = getViewer().getEditPartRegistry().get(shape);
+				if (part instanceof ShapeEditPart) {
+					refreshShapeVisuals((ShapeEditPart)part);
+				}
+			}
+			scheduleChildRefresh();
 		}
 	}
 
@@ -327,18 +587,48 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 
 	@Override
 	protected void refreshVisuals() {
+		// Only repaint the areas that shapes have moved out of or into, not the whole text widget.
 		Iterator<?> iter = this.getChildren().iterator();
 		while (iter.hasNext()) {
 			Object part = iter.next();
 			if (part instanceof ShapeEditPart) {
-				((ShapeEditPart)part).refreshVisuals();
+				refreshShapeVisuals((ShapeEditPart)part);
 			}
 		}
+	}
+
+	/**
+	 * Refresh the visuals of a shape's edit part, repainting the text widget where the shape was and 
+	 * where it is now.
+	 */
+	private void refreshShapeVisuals (ShapeEditPart part) {
+		Rectangle damage = part.refreshVisualsAndGetDamage();
+		if (damage != null) {
+			redrawTextWidget(damage);
+		}
+	}
 
-		ITextViewer textViewer = ((TextViewerRootEditPart)this.getRoot()).getTextViewer();
-		StyledText textWidget = textViewer.getTextWidget();
+	/**
+	 * Repaint an area of the text widget (and the shapes drawn over it.)
+	 * @param area Area in text widget coordinates
+	 */
+	private void redrawTextWidget (Rectangle area) {
+		ITextViewer textViewer = getTextViewer();
+		StyledText textWidget = (textViewer != null) ? textViewer.getTextWidget() : null;
 		if (textWidget != null && !textWidget.isDisposed()) {
-			textWidget.redraw();
+			textWidget.redraw(area.x, area.y, area.width, area.height, false);
+		}
+	}
+
+	@Override
+	protected void removeChildVisual(EditPart childEditPart) {
+		// Repaint the text that the removed shape was drawn over.
+		IFigure figure = ((GraphicalEditPart)childEditPart).getFigure();
+		Rectangle bounds = figure.getBounds().getCopy();
+		figure.translateToAbsolute(bounds);
+		super.removeChildVisual(childEditPart);
+		if (!bounds.isEmpty()) {
+			redrawTextWidget(bounds);
 		}
 	}
 
@@ -365,6 +655,50 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 		}
 	}
 	
+	private void setPositionTracking (boolean enabled) {
+		if (enabled) {
+			ITextViewer textViewer = getTextViewer();
+			IDocument document = (textViewer != null) ? textViewer.getDocument() : null;
+			if (document != null && positionTracker == null) {
+				positionTracker = new ShapePositionTracker(document, getCastedModel());
+				positionTracker.install();
+			}
+		} else if (positionTracker != null) {
+			positionTracker.uninstall();
+			positionTracker = null;
+		}
+	}
+
+	/**
+	 * Bring the lines of shapes moved through their document positions up to date, and notify listeners 
+	 * (e.g., to refresh the moved shapes' edit parts) once the current document change has been processed.
+	 */
+	private void syncTrackedShapes () {
+		if (positionTracker != null && positionTracker.syncLines()) {
+			Display.getDefault().asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					if (positionTracker != null) {
+						positionTracker.fireShapesMoved();
+					}
+					// Moving shapes this way doesn't go through a command stack, so schedule the autosave here.
+					CollageActivator.getDefault().getAutosaveJob().schedule(CollageAutosaveJob.AUTOSAVE_DELAY);
+				}
+			});
+		}
+	}
+
+	private void setViewportListening (boolean enabled) {
+		ITextViewer textViewer = getTextViewer();
+		if (textViewer != null) {
+			if (enabled) {
+				textViewer.addViewportListener(viewportListener);
+			} else {
+				textViewer.removeViewportListener(viewportListener);
+			}
+		}
+	}
+
 	private void setProjectionEnabledListening (boolean enabled) {
 		ProjectionViewer projectionViewer = getProjectionViewer();
 		if (projectionViewer != null) {
@@ -379,12 +713,14 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 	@Override
 	public void projectionEnabled() {
 		setProjectionChangeListening(true);
+		refreshChildren();
 		refreshVisuals();
 	}
 
 	@Override
 	public void projectionDisabled() {
 		setProjectionChangeListening(false);
+		refreshChildren();
 		refreshVisuals();
 	}
 	
@@ -420,12 +756,23 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 
 	@Override
 	public void modelChanged(IAnnotationModel model) {
-		Display.getDefault().syncExec(new Runnable() {
-			@Override
-			public void run() {
-				refreshVisuals();		
-			}
-		});
+		// May be called on a reconciler thread, and many times in a row (e.g., when folding is updated.)
+		// Don't wait for the UI thread; queue one refresh for all changes made until it runs.
+		if (projectionRefreshPending.compareAndSet(false, true)) {
+			Display.getDefault().asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					projectionRefreshPending.set(false);
+					ITextViewer textViewer = getTextViewer();
+					if (isActive() && textViewer != null && textViewer.getTextWidget() != null && 
+							!textViewer.getTextWidget().isDisposed()) {
+						// Expanding or collapsing folds changes which lines are visible.
+						refreshChildren();
+						refreshVisuals();
+					}
+				}
+			});
+		}
 	}
 
 	@Override
@@ -470,6 +817,12 @@ class ResourceShapeListEditPart extends AbstractGraphicalEditPart implements
 						refreshVisuals();
 					}
 					setDocumentHistoryListening(true);
+					// The document listener missed the changes made by the undo or redo.
+					syncTrackedShapes();
+					if (positionTracker != null) {
+						// Shapes clipped by an undo or redo are put back by the undone or redone commands.
+						positionTracker.discardClippedShapes();
+					}
 				}
 				break;
 			}
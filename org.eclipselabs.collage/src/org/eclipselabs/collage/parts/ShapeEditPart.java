@@ -13,7 +13,7 @@
 package org.eclipselabs.collage.parts;
 
 import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+import java.util.List;
 
 import org.eclipse.draw2d.IFigure;
 import org.eclipse.draw2d.geometry.Rectangle;
@@ -23,6 +23,7 @@ import org.eclipse.gef.GraphicalEditPart;
 import org.eclipse.gef.editparts.AbstractGraphicalEditPart;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.ui.views.properties.IPropertySource;
+import org.eclipselabs.collage.model.BatchPropertyChangeListener;
 import org.eclipselabs.collage.model.ModelElement;
 import org.eclipselabs.collage.model.Shape;
 
@@ -30,12 +31,22 @@ import org.eclipselabs.collage.model.Shape;
  * <p>EditPart used for Shape instances.</p>
  * 
  * <p>This edit part must implement the PropertyChangeListener interface, so it can
- * be notified of property changes in the corresponding model element.</p>
+ * be notified of property changes in the corresponding model element. The changes made
+ * by a command are handled together (see {@link #propertyChanges(List)}), so the figure
+ * is laid out and the selection refreshed only once per command.</p>
  * 
  * @author Alex Bradley
  * @author Elias Volanakis
  */
-public class ShapeEditPart extends AbstractGraphicalEditPart implements PropertyChangeListener {
+public class ShapeEditPart extends AbstractGraphicalEditPart implements BatchPropertyChangeListener {
+	/** Margin around the bounds of a moved figure that is repainted along with it (cf. handle size.) */
+	private static final int DAMAGE_MARGIN = 5;
+
+	/** True while a batch of changes is handled; visuals and selection are then refreshed at the end. */
+	private boolean handlingBatch = false;
+	/** True if the constraints changed during the batch being handled. */
+	private boolean batchMoved = false;
+
 	/**
 	 * Upon activation, attach to the model element as a property change
 	 * listener.
@@ -108,9 +119,36 @@ public class ShapeEditPart extends AbstractGraphicalEditPart implements Property
 	public void propertyChange(PropertyChangeEvent evt) {
 		String prop = evt.getPropertyName();
 		if (Shape.CONSTRAINTS_PROP.equals(prop)) {
-			refreshVisuals();
+			if (handlingBatch) {
+				batchMoved = true;
+			} else {
+				refreshVisuals();
+			}
 		}
 		
+		if (!handlingBatch) {
+			refreshSelection();
+		}
+	}
+
+	/**
+	 * Handle a batch of changes by passing each one to {@link #propertyChange(PropertyChangeEvent)} (so
+	 * subclasses need only override that), then refreshing visuals and selection once.
+	 */
+	@Override
+	public void propertyChanges(List<PropertyChangeEvent> events) {
+		handlingBatch = true;
+		batchMoved = false;
+		try {
+			for (PropertyChangeEvent event : events) {
+				propertyChange(event);
+			}
+		} finally {
+			handlingBatch = false;
+		}
+		if (batchMoved) {
+			refreshVisuals();
+		}
 		refreshSelection();
 	}
 	
@@ -124,6 +162,27 @@ public class ShapeEditPart extends AbstractGraphicalEditPart implements Property
 				getFigure(), computeBounds());		
 	}
 	
+	/**
+	 * Refresh this part's visuals, and find the area that has to be repainted because the figure has been
+	 * moved or resized. The area covers both the old and the new bounds of the figure, with a margin for
+	 * selection handles.
+	 * @return Area to repaint in absolute (i.e., text widget) coordinates, or {@code null} if the bounds of
+	 * the figure are unchanged
+	 */
+	Rectangle refreshVisualsAndGetDamage () {
+		IFigure figure = getFigure();
+		Rectangle oldBounds = figure.getBounds().getCopy();
+		Rectangle newBounds = computeBounds();
+		((GraphicalEditPart) getParent()).setLayoutConstraint(this, figure, newBounds);
+		if (newBounds.equals(oldBounds)) {
+			return null;
+		}
+		// A figure that hasn't been laid out yet has empty bounds at the origin.
+		Rectangle damage = oldBounds.isEmpty() ? newBounds.getCopy() : newBounds.getUnion(oldBounds);
+		figure.translateToAbsolute(damage);
+		return damage.expand(DAMAGE_MARGIN, DAMAGE_MARGIN);
+	}
+
 	/**
 	 * Get the rectangle corresponding to our model's boundary specification.
 	 * @return GEF {@link Rectangle} corresponding to model's boundary specification.
@@ -16,7 +16,6 @@
 package org.eclipselabs.collage.parts.tree;
 
 import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -32,6 +31,7 @@ import org.eclipse.gef.editpolicies.RootComponentEditPolicy;
 import org.eclipse.gef.editpolicies.TreeContainerEditPolicy;
 import org.eclipse.gef.requests.ChangeBoundsRequest;
 import org.eclipse.gef.requests.CreateRequest;
+import org.eclipselabs.collage.model.BatchPropertyChangeListener;
 import org.eclipselabs.collage.model.ModelElement;
 import org.eclipselabs.collage.model.CollageLayer;
 import org.eclipselabs.collage.model.CollageRoot;
@@ -44,7 +44,7 @@ import org.eclipselabs.collage.model.commands.LayersImportCommand;
  * @author Alex Bradley
  * @author Elias Volanakis
  */
-public class CollageTreeEditPart extends AbstractTreeEditPart implements PropertyChangeListener {
+public class CollageTreeEditPart extends AbstractTreeEditPart implements BatchPropertyChangeListener {
 	/**
 	 * Upon activation, attach to the model element as a property change
 	 * listener.
@@ -119,10 +119,43 @@ public class CollageTreeEditPart extends AbstractTreeEditPart implements Propert
 		} else if (CollageRoot.ORDER_CHANGED_PROP.equals(prop)) {
 			refreshChildren();
 		} else if (CollageRoot.ACTIVE_LAYER_CHANGED_PROP.equals(prop)) {
-			for (Object child : getChildren()) {
-				((EditPart)child).refresh();
+			refreshLayers();
+		}
+	}
+
+	@Override
+	public void propertyChanges(List<PropertyChangeEvent> events) {
+		if (events.size() == 1) {
+			propertyChange(events.get(0));
+			return;
+		}
+		// E.g., an import adds several layers and changes the active layer; handle it in one pass.
+		boolean childrenChanged = false;
+		boolean activeLayerChanged = false;
+		for (PropertyChangeEvent event : events) {
+			String prop = event.getPropertyName();
+			if (CollageRoot.CHILD_ADDED_PROP.equals(prop) || CollageRoot.CHILD_REMOVED_PROP.equals(prop) ||
+					CollageRoot.ORDER_CHANGED_PROP.equals(prop)) {
+				childrenChanged = true;
+			} else if (CollageRoot.ACTIVE_LAYER_CHANGED_PROP.equals(prop)) {
+				activeLayerChanged = true;
 			}
 		}
+		if (childrenChanged) {
+			refreshChildren();
+		}
+		if (activeLayerChanged) {
+			refreshLayers();
+		}
+	}
+
+	/**
+	 * Refresh the tree items of all layers (e.g., to show which one is active.)
+	 */
+	private void refreshLayers () {
+		for (Object child : getChildren()) {
+			((EditPart)child).refresh();
+		}
 	}
 	
 	/**
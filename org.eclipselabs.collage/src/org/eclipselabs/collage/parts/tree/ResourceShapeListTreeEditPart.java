@@ -13,8 +13,9 @@
 package org.eclipselabs.collage.parts.tree;
 
 import java.beans.PropertyChangeEvent;
-import java.beans.PropertyChangeListener;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.gef.EditPart;
 import org.eclipse.gef.EditPolicy;
@@ -25,6 +26,7 @@ import org.eclipse.swt.graphics.Image;
 import org.eclipse.ui.IEditorRegistry;
 import org.eclipse.ui.PlatformUI;
 import org.eclipselabs.collage.CollageActivator;
+import org.eclipselabs.collage.model.BatchPropertyChangeListener;
 import org.eclipselabs.collage.model.ModelElement;
 import org.eclipselabs.collage.model.ResourceShapeList;
 
@@ -35,7 +37,7 @@ import org.eclipselabs.collage.model.ResourceShapeList;
  * @author Elias Volanakis
  */
 public class ResourceShapeListTreeEditPart extends AbstractTreeEditPart implements
-		PropertyChangeListener {
+		BatchPropertyChangeListener {
 	/**
 	 * Upon activation, attach to the model element as a property change
 	 * listener.
@@ -125,8 +127,50 @@ public class ResourceShapeListTreeEditPart extends AbstractTreeEditPart implemen
 			} else {
 				refreshChildren();
 			}
+		} else if (ResourceShapeList.LINES_SHIFTED_PROP.equals(prop)) {
+			// Moved shapes don't notify their own edit parts; update their descriptions.
+			for (Object shape : (List<?>)evt.getNewValue()) {
+				EditPart part = getEditPartForChild(shape);
+				if (part != null) {
+					part.refresh();
+				}
+			}
 		} else {
 			refreshVisuals();
 		}
 	}
+
+	@Override
+	public void propertyChanges(List<PropertyChangeEvent> events) {
+		if (events.size() == 1) {
+			propertyChange(events.get(0));
+			return;
+		}
+		// Reconcile the children once, however many shapes were added or removed.
+		boolean childrenChanged = false;
+		boolean otherChanges = false;
+		Set<Object> movedShapes = new LinkedHashSet<Object>();
+		for (PropertyChangeEvent event : events) {
+			String prop = event.getPropertyName();
+			if (ResourceShapeList.CHILD_ADDED_PROP.equals(prop) || ResourceShapeList.CHILD_REMOVED_PROP.equals(prop)) {
+				childrenChanged = true;
+			} else if (ResourceShapeList.LINES_SHIFTED_PROP.equals(prop)) {
+				movedShapes.addAll((List<?>)event.getNewValue());
+			} else {
+				otherChanges = true;
+			}
+		}
+		if (childrenChanged) {
+			refreshChildren();
+		}
+		for (Object shape : movedShapes) {
+			EditPart part = getEditPartForChild(shape);
+			if (part != null) {
+				part.refresh();
+			}
+		}
+		if (otherChanges) {
+			refreshVisuals();
+		}
+	}
 }
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.storage;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.gef.commands.CommandStackEvent;
+import org.eclipse.gef.commands.CommandStackEventListener;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
+import org.eclipselabs.collage.CollageActivator;
+import org.eclipselabs.collage.actions.FilesystemSchedulingRule;
+import org.eclipselabs.collage.model.CollageRoot;
+
+/**
+ * Background job that writes changes to the Collage root into the {@link CollageStore} shortly after
+ * they are made, so that a crash loses at most the last few seconds of work and the save at shutdown
+ * only has to write what changed since the last autosave. Add the job as a listener to every command
+ * stack that modifies the Collage model; each change (re)schedules the job after a short delay, so a
+ * burst of changes results in a single write.
+ * @author Alex Bradley
+ */
+public class CollageAutosaveJob extends Job implements CommandStackEventListener {
+	/** Delay between a model change and the autosave that records it, in milliseconds. */
+	public static final long AUTOSAVE_DELAY = 5000;
+
+	private final CollageStore store;
+	private volatile CollageRoot root;
+
+	/**
+	 * Create an autosave job. Nothing is saved until the root to save is set with {@link #setRoot(CollageRoot)}.
+	 * @param store Store to write to
+	 */
+	public CollageAutosaveJob (CollageStore store) {
+		super("Saving Collage data");
+		this.store = store;
+		setSystem(true);
+		setPriority(DECORATE);
+		setRule(new FilesystemSchedulingRule(store.getDirectory()));
+	}
+
+	/**
+	 * Set the Collage root to save (normally once it has been loaded from the store.)
+	 * @param root Collage root to save
+	 */
+	public void setRoot (CollageRoot root) {
+		this.root = root;
+	}
+
+	@Override
+	public void stackChanged (CommandStackEvent event) {
+		if (event.isPostChangeEvent()) {
+			schedule(AUTOSAVE_DELAY);
+		}
+	}
+
+	@Override
+	protected IStatus run (IProgressMonitor monitor) {
+		final CollageRoot root = this.root;
+		if (!PlatformUI.isWorkbenchRunning()) {
+			return Status.CANCEL_STATUS;
+		} else if (root == null) {
+			return Status.OK_STATUS;
+		}
+		Display display = PlatformUI.getWorkbench().getDisplay();
+		final CollageStore.Snapshot[] snapshot = new CollageStore.Snapshot[1];
+		final CoreException[] failure = new CoreException[1];
+		// The model is only modified on the UI thread, so capture the changes there.
+		display.syncExec(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					snapshot[0] = store.prepareSave(root);
+				} catch (CoreException e) {
+					failure[0] = e;
+				}
+			}
+		});
+		try {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+			if (snapshot[0] != null) {
+				store.write(snapshot[0]);
+			}
+		} catch (CoreException e) {
+			// Don't interrupt the user for a background save; the save at shutdown will report any persistent problem.
+			CollageActivator.getDefault().getLog().log(e.getStatus());
+		}
+		return Status.OK_STATUS;
+	}
+}
@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.bind.DatatypeConverter;
+import javax.xml.bind.JAXBException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.eclipselabs.collage.model.PluginDependency;
+import org.eclipselabs.collage.model.ResourceShapeList;
+import org.eclipselabs.collage.model.Shape;
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifierFactory;
+import org.eclipselabs.collage.storage.StoreManifest.LayerEntry;
+import org.eclipselabs.collage.storage.StoreManifest.SegmentEntry;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
+import org.eclipselabs.collage.util.CollageExtensions;
+import org.eclipselabs.collage.xml.CollageSerialization;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * <p>Compact binary form of the data in a {@link CollageStore}: store manifests and shape lists.
+ * XML remains the interchange format for exported layers; the binary form is only used internally.</p>
+ *
+ * <p>Each stream starts with a magic number and a format version. Shapes are written as their class
+ * name, their metadata, their boundaries and their content (the data written by
+ * {@link Shape#writeBinary(CollageDataOutput)}.) Class names, creators and resource identifiers are
+ * written once per stream and referred to afterwards. Shape content is content-addressed in the same
+ * way: copies of a shape (such as a sketch pasted in several places) store their content once.
+ * Shapes that have no binary form (see {@link Shape#hasBinaryForm()}) and shapes that could not be
+ * deserialized (DOM {@link Element}s) are collected into an XML shape list at the end of the stream.</p>
+ *
+ * <p>If a binary shape is read whose class is not available (because the plugin that contributed it is
+ * missing), it is kept as a DOM {@link Element} holding the binary data (see {@link #isBinaryUnknownShape(Object)}).
+ * It is preserved when the store is saved, and becomes a shape again once the plugin is available. It can't
+ * be converted to the XML form without the plugin, so it is left out when the layer is exported.</p>
+ * @author Alex Bradley
+ */
+public final class CollageBinaryCodec {
+	/** Current version of the binary format. Version 2 added shared shape content. */
+	public static final int FORMAT_VERSION = 2;
+
+	private static final byte[] MANIFEST_MAGIC = {'C', 'L', 'G', 'M'};
+	private static final byte[] SHAPE_LIST_MAGIC = {'C', 'L', 'G', 'S'};
+
+	/** Shape with boundaries and content in a single block (the only binary kind in version 1.) */
+	private static final int KIND_BINARY = 0;
+	private static final int KIND_XML = 1;
+	/** Shape with boundaries followed by shared content. */
+	private static final int KIND_SHARED_CONTENT = 2;
+
+	private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+	/** Element name used by JAXB for the children of a shape list. */
+	private static final String SHAPE_ELEMENT = "shapes";
+	/** Attribute marking an unknown shape that holds binary data. */
+	private static final String BINARY_CLASS_ATTR = "binaryClass";
+	private static final String DATE_CREATED_ATTR = "dateCreated";
+	private static final String DATE_LAST_MODIFIED_ATTR = "dateLastModified";
+	private static final String CREATOR_ATTR = "creator";
+
+	/**
+	 * Key for shape content in the shared reference table of a stream; compares content bytes.
+	 */
+	private static final class ContentKey {
+		final byte[] data;
+		private final int hash;
+
+		ContentKey (byte[] data) {
+			this.data = data;
+			this.hash = Arrays.hashCode(data);
+		}
+
+		@Override
+		public int hashCode () {
+			return hash;
+		}
+
+		@Override
+		public boolean equals (Object obj) {
+			return obj instanceof ContentKey && Arrays.equals(data, ((ContentKey)obj).data);
+		}
+	}
+
+	private CollageBinaryCodec () { }
+
+	/**
+	 * Check if a child of a shape list is a binary shape whose class was not available when it was read. Such
+	 * shapes can only be stored in the binary form, not exported as XML.
+	 * @param child A child of a shape list
+	 * @return {@code true} if {@code child} is a DOM element holding the binary data of a shape
+	 */
+	public static boolean isBinaryUnknownShape (Object child) {
+		return child instanceof Element && ((Element)child).hasAttribute(BINARY_CLASS_ATTR);
+	}
+
+	/**
+	 * Write a store manifest in binary form.
+	 * @param manifest Store manifest
+	 * @param os Output stream
+	 * @throws IOException if writing fails
+	 */
+	public static void writeManifest (StoreManifest manifest, OutputStream os) throws IOException {
+		CollageDataOutput out = new CollageDataOutput(os);
+		writeHeader(MANIFEST_MAGIC, os, out);
+		out.writeVarInt(manifest.currentLayerIndex);
+		out.writeVarInt(manifest.dependencies.size());
+		for (PluginDependency dependency : manifest.dependencies) {
+			out.writeString(dependency.getPluginID());
+			out.writeString(dependency.getVersion());
+		}
+		out.writeVarInt(manifest.layers.size());
+		for (LayerEntry layer : manifest.layers) {
+			out.writeString(layer.id);
+			out.writeString(layer.name);
+			out.writeBoolean(layer.visible);
+			out.writeVarInt(layer.segments.size());
+			for (SegmentEntry segment : layer.segments) {
+				ResourceIdentifierFactory.writeBinary(segment.resource, out);
+				out.writeString(segment.file);
+				out.writeVarInt(segment.shapeCount);
+			}
+		}
+	}
+
+	/**
+	 * Read a store manifest written by {@link #writeManifest(StoreManifest, OutputStream)}.
+	 * @param is Input stream
+	 * @return Store manifest
+	 * @throws IOException if reading fails or the data is not a manifest in a supported version of the format
+	 */
+	public static StoreManifest readManifest (InputStream is) throws IOException {
+		CollageDataInput in = new CollageDataInput(is);
+		readHeader(MANIFEST_MAGIC, in);
+		StoreManifest manifest = new StoreManifest();
+		manifest.currentLayerIndex = in.readVarInt();
+		for (int i = in.readVarInt(); i > 0; i--) {
+			String pluginID = in.readString();
+			manifest.dependencies.add(new PluginDependency(pluginID, in.readString()));
+		}
+		for (int i = in.readVarInt(); i > 0; i--) {
+			LayerEntry layer = new LayerEntry();
+			layer.id = in.readString();
+			layer.name = in.readString();
+			layer.visible = in.readBoolean();
+			for (int j = in.readVarInt(); j > 0; j--) {
+				SegmentEntry segment = new SegmentEntry(ResourceIdentifierFactory.readBinary(in), null);
+				segment.file = in.readString();
+				segment.shapeCount = in.readVarInt();
+				layer.segments.add(segment);
+			}
+			manifest.layers.add(layer);
+		}
+		return manifest;
+	}
+
+	/**
+	 * Write the children of a shape list in binary form.
+	 * @param shapeList Shape list
+	 * @param os Output stream
+	 * @throws IOException if writing fails
+	 * @throws JAXBException if children without a binary form cannot be serialized to XML
+	 */
+	public static void writeShapeList (ResourceShapeList shapeList, OutputStream os) throws IOException, JAXBException {
+		CollageDataOutput out = new CollageDataOutput(os);
+		writeHeader(SHAPE_LIST_MAGIC, os, out);
+		List<Object> children = shapeList.getAllChildren();
+		StoredShapes xmlChildren = new StoredShapes();
+		out.writeVarInt(children.size());
+		for (Object child : children) {
+			if (child instanceof Shape && ((Shape)child).hasBinaryForm()) {
+				Shape shape = (Shape)child;
+				ByteArrayOutputStream bounds = new ByteArrayOutputStream();
+				shape.writeBoundaries(new CollageDataOutput(bounds));
+				ByteArrayOutputStream content = new ByteArrayOutputStream();
+				shape.writeBinary(new CollageDataOutput(content));
+				out.writeByte(KIND_SHARED_CONTENT);
+				writeShapeMetadata(out, shape.getClass().getName(), shape.getCreationDate(), shape.getModificationDate(), shape.getCreator());
+				out.writeBytes(bounds.toByteArray());
+				ContentKey contentKey = new ContentKey(content.toByteArray());
+				if (!out.writeSharedReference(contentKey)) {
+					out.writeBytes(contentKey.data);
+				}
+			} else if (isBinaryUnknownShape(child)) {
+				Element element = (Element)child;
+				out.writeByte(KIND_BINARY);
+				writeShapeMetadata(out, element.getAttribute(BINARY_CLASS_ATTR),
+						new Date(Long.parseLong(element.getAttribute(DATE_CREATED_ATTR))),
+						new Date(Long.parseLong(element.getAttribute(DATE_LAST_MODIFIED_ATTR))),
+						element.hasAttribute(CREATOR_ATTR) ? element.getAttribute(CREATOR_ATTR) : null);
+				out.writeBytes(DatatypeConverter.parseBase64Binary(element.getTextContent()));
+			} else {
+				out.writeByte(KIND_XML);
+				xmlChildren.shapes.add(child);
+			}
+		}
+		if (xmlChildren.shapes.isEmpty()) {
+			out.writeVarInt(0);
+		} else {
+			ByteArrayOutputStream xml = new ByteArrayOutputStream();
+			CollageSerialization.getMarshaller().marshal(xmlChildren, xml);
+			out.writeBytes(xml.toByteArray());
+		}
+	}
+
+	/**
+	 * Read the children of a shape list written by {@link #writeShapeList(ResourceShapeList, OutputStream)}.
+	 * @param is Input stream
+	 * @return Children of the shape list
+	 * @throws IOException if reading fails or the data is not a shape list in a supported version of the format
+	 * @throws JAXBException if children stored as XML cannot be deserialized
+	 */
+	public static List<Object> readShapeList (InputStream is) throws IOException, JAXBException {
+		CollageDataInput in = new CollageDataInput(is);
+		readHeader(SHAPE_LIST_MAGIC, in);
+		int count = in.readVarInt();
+		List<Object> children = new ArrayList<Object>(count);
+		Document document = null;
+		boolean hasXMLChildren = false;
+		for (int i = 0; i < count; i++) {
+			int kind = in.readByte();
+			if (kind == KIND_XML) {
+				children.add(null); // filled in below
+				hasXMLChildren = true;
+			} else if (kind == KIND_BINARY || kind == KIND_SHARED_CONTENT) {
+				String className = in.readInternedString();
+				long created = in.readVarLong();
+				long lastModified = created + in.readSignedVarLong();
+				String creator = in.readInternedString();
+				byte[] bounds = in.readBytes();
+				byte[] content = null;
+				if (kind == KIND_SHARED_CONTENT) {
+					int ref = in.readSharedReference();
+					if (ref >= 0) {
+						content = ((ContentKey)in.getSharedReference(ref)).data;
+					} else {
+						content = in.readBytes();
+						in.addSharedReference(new ContentKey(content));
+					}
+				}
+
+				Class<?> shapeClass = CollageExtensions.getExtensionModelClass(className);
+				if (shapeClass != null && Shape.class.isAssignableFrom(shapeClass)) {
+					Shape shape = createShape(shapeClass);
+					CollageDataInput boundsIn = new CollageDataInput(new ByteArrayInputStream(bounds));
+					shape.readBoundaries(boundsIn);
+					// A KIND_BINARY block holds the content right after the boundaries.
+					shape.readBinary((content != null) ? new CollageDataInput(new ByteArrayInputStream(content)) : boundsIn);
+					shape.restoreMetadata(new Date(created), new Date(lastModified), creator);
+					children.add(shape);
+				} else {
+					if (document == null) {
+						document = createDocument();
+					}
+					children.add(createUnknownShape(document, className, created, lastModified, creator, concat(bounds, content)));
+				}
+			} else {
+				throw new IOException("Unknown shape record type " + kind);
+			}
+		}
+
+		byte[] xml = in.readBytes();
+		if (hasXMLChildren) {
+			Object stored = CollageSerialization.getUnmarshaller().unmarshal(new ByteArrayInputStream(xml));
+			if (!(stored instanceof StoredShapes)) {
+				throw new IOException("Invalid XML shape data");
+			}
+			Iterator<Object> xmlChildren = ((StoredShapes)stored).shapes.iterator();
+			for (int i = 0; i < count; i++) {
+				if (children.get(i) == null) {
+					if (!xmlChildren.hasNext()) {
+						throw new IOException("Missing XML shape data");
+					}
+					children.set(i, xmlChildren.next());
+				}
+			}
+		}
+		return children;
+	}
+
+	private static void writeHeader (byte[] magic, OutputStream os, CollageDataOutput out) throws IOException {
+		os.write(magic);
+		out.writeVarInt(FORMAT_VERSION);
+	}
+
+	private static void readHeader (byte[] magic, CollageDataInput in) throws IOException {
+		byte[] actual = new byte[magic.length];
+		for (int i = 0; i < actual.length; i++) {
+			actual[i] = (byte)in.readByte();
+		}
+		if (!Arrays.equals(magic, actual)) {
+			throw new IOException("Not a Collage binary stream of the expected type");
+		}
+		int version = in.readVarInt();
+		if (version > FORMAT_VERSION) {
+			throw new IOException(String.format("Collage binary format version %d is not supported (maximum version %d)",
+					version, FORMAT_VERSION));
+		}
+	}
+
+	private static void writeShapeMetadata (CollageDataOutput out, String className, Date created, Date lastModified,
+			String creator) throws IOException {
+		out.writeInternedString(className);
+		out.writeVarLong(created.getTime());
+		out.writeSignedVarLong(lastModified.getTime() - created.getTime());
+		out.writeInternedString(creator);
+	}
+
+	private static byte[] concat (byte[] first, byte[] second) {
+		if (second == null) {
+			return first;
+		}
+		byte[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	private static Shape createShape (Class<?> shapeClass) throws IOException {
+		try {
+			return (Shape)shapeClass.newInstance();
+		} catch (InstantiationException e) {
+			throw new IOException("Unable to create shape of class " + shapeClass.getName(), e);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Unable to create shape of class " + shapeClass.getName(), e);
+		}
+	}
+
+	private static Document createDocument () throws IOException {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+		} catch (ParserConfigurationException e) {
+			throw new IOException("Unable to create DOM document for unknown shape", e);
+		}
+	}
+
+	/**
+	 * Create a DOM element for a binary shape of an unavailable class. The element has the same form as
+	 * an unknown shape read by JAXB, so it is handled the same way in the model, but it is marked with the
+	 * binary class name so that it is written back in binary form and not exported. The binary data is kept
+	 * as a single block (boundaries followed by content.)
+	 */
+	private static Element createUnknownShape (Document document, String className, long created, long lastModified,
+			String creator, byte[] data) {
+		Element element = document.createElement(SHAPE_ELEMENT);
+		element.setAttributeNS(XSI_NAMESPACE, "xsi:type", className.substring(className.lastIndexOf('.') + 1));
+		element.setAttribute(BINARY_CLASS_ATTR, className);
+		element.setAttribute(DATE_CREATED_ATTR, Long.toString(created));
+		element.setAttribute(DATE_LAST_MODIFIED_ATTR, Long.toString(lastModified));
+		if (creator != null) {
+			element.setAttribute(CREATOR_ATTR, creator);
+		}
+		element.setTextContent(DatatypeConverter.printBase64Binary(data));
+		return element;
+	}
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifierFactory;
+import org.eclipselabs.collage.storage.StoreManifest.LayerEntry;
+import org.eclipselabs.collage.storage.StoreManifest.SegmentEntry;
+import org.eclipselabs.collage.util.CollageDataOutput;
+
+/**
+ * <p>Memory-mapped index of the resources that have shapes in a {@link CollageStore}. For each resource,
+ * the index records the layers that have shapes for it, the number of shapes in each and the segment
+ * file (and its length) that holds them. Finding a resource takes a single hash probe into the mapped
+ * file, so the index can answer "does this resource have any shapes?" without reading the manifest.</p>
+ *
+ * <p>The index is rewritten after the manifest on every store write and records the length and
+ * modification time of the manifest it describes; an index that does not match the manifest on disk
+ * is ignored. Layout (big-endian): magic, format version, manifest length, manifest modification time,
+ * slot count (a power of two), an open-addressed table of entry offsets (0 for an empty slot; collisions
+ * are resolved by linear probing), then the entries. Each entry is the binary form of its resource
+ * identifier followed by its layer records.</p>
+ * @author Alex Bradley
+ */
+final class CollageShapeIndex {
+	/** Name of the index file within the store directory. */
+	static final String INDEX_FILE = "index.bin";
+
+	private static final int MAGIC = 0x434C4749; // "CLGI"
+	private static final int FORMAT_VERSION = 1;
+	private static final int SLOT_COUNT_OFFSET = 24;
+	private static final int HEADER_SIZE = 28;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Index record for the shapes of one resource in one layer.
+	 */
+	static final class Segment {
+		/** Name of the layer directory within the store. */
+		final String layerId;
+		final int shapeCount;
+		/** Name of the segment file within the layer directory. */
+		final String file;
+		/** Length of the segment file, in bytes. */
+		final long length;
+
+		Segment (String layerId, int shapeCount, String file, long length) {
+			this.layerId = layerId;
+			this.shapeCount = shapeCount;
+			this.file = file;
+			this.length = length;
+		}
+	}
+
+	private final ByteBuffer buffer;
+	private final int slotCount;
+
+	private CollageShapeIndex (ByteBuffer buffer, int slotCount) {
+		this.buffer = buffer;
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 * Map an index file.
+	 * @param file Index file
+	 * @param manifestFile Manifest the index should describe
+	 * @return The index, or {@code null} if the file does not exist, cannot be read or was not written
+	 * for the current manifest
+	 */
+	static CollageShapeIndex open (File file, File manifestFile) {
+		if (!file.isFile() || !manifestFile.isFile()) {
+			return null;
+		}
+		try {
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				FileChannel channel = fis.getChannel();
+				long size = channel.size();
+				if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+					return null;
+				}
+				// The mapping stays valid after the channel is closed.
+				ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+				if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION ||
+						buffer.getLong(8) != manifestFile.length() || buffer.getLong(16) != manifestFile.lastModified()) {
+					return null;
+				}
+				int slotCount = buffer.getInt(SLOT_COUNT_OFFSET);
+				if (slotCount <= 0 || Integer.bitCount(slotCount) != 1 || HEADER_SIZE + 4L * slotCount > size) {
+					return null;
+				}
+				return new CollageShapeIndex(buffer, slotCount);
+			} finally {
+				fis.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Look up the stored shapes of a resource.
+	 * @param resource Resource identifier
+	 * @return Index records for the layers that have shapes for {@code resource} (an empty list if there are
+	 * none), or {@code null} if the index cannot answer (e.g., because it is damaged)
+	 */
+	List<Segment> getSegments (ResourceIdentifier resource) {
+		try {
+			byte[] key = getKey(resource);
+			// Relative reads are not thread-safe, so each lookup uses its own view of the mapping.
+			ByteBuffer view = buffer.duplicate();
+			int mask = slotCount - 1;
+			int slot = hash(key) & mask;
+			for (int i = 0; i < slotCount; i++, slot = (slot + 1) & mask) {
+				int offset = view.getInt(HEADER_SIZE + 4 * slot);
+				if (offset == 0) {
+					break;
+				}
+				view.position(offset);
+				if (matchKey(view, key)) {
+					return readSegments(view);
+				}
+			}
+			return Collections.emptyList();
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// Out-of-range offsets or lengths in a damaged index
+			return null;
+		}
+	}
+
+	/**
+	 * Build the index for a manifest.
+	 * @param manifest Manifest of the store
+	 * @param directory Store directory (used to find segment lengths)
+	 * @param manifestFile Manifest file, which must already have been written
+	 * @return Contents of the index file
+	 * @throws IOException if a resource identifier has no binary form
+	 */
+	static byte[] build (StoreManifest manifest, File directory, File manifestFile) throws IOException {
+		Map<ResourceIdentifier, List<Segment>> resources = new LinkedHashMap<ResourceIdentifier, List<Segment>>();
+		for (LayerEntry layer : manifest.layers) {
+			File layerDirectory = new File(directory, layer.id);
+			for (SegmentEntry segment : layer.segments) {
+				List<Segment> segments = resources.get(segment.resource);
+				if (segments == null) {
+					segments = new ArrayList<Segment>(1);
+					resources.put(segment.resource, segments);
+				}
+				segments.add(new Segment(layer.id, segment.shapeCount, segment.file, new File(layerDirectory, segment.file).length()));
+			}
+		}
+
+		int slotCount = 1;
+		while (slotCount < 2 * resources.size()) {
+			slotCount <<= 1;
+		}
+		int[] slots = new int[slotCount];
+		int entriesOffset = HEADER_SIZE + 4 * slotCount;
+		ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+		DataOutputStream entries = new DataOutputStream(entryBytes);
+		for (Entry<ResourceIdentifier, List<Segment>> entry : resources.entrySet()) {
+			byte[] key = getKey(entry.getKey());
+			int slot = hash(key) & (slotCount - 1);
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & (slotCount - 1);
+			}
+			slots[slot] = entriesOffset + entries.size();
+			entries.writeInt(key.length);
+			entries.write(key);
+			entries.writeInt(entry.getValue().size());
+			for (Segment segment : entry.getValue()) {
+				writeString(entries, segment.layerId);
+				entries.writeInt(segment.shapeCount);
+				writeString(entries, segment.file);
+				entries.writeLong(segment.length);
+			}
+		}
+		entries.flush();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(entriesOffset + entryBytes.size());
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(manifestFile.length());
+		out.writeLong(manifestFile.lastModified());
+		out.writeInt(slotCount);
+		for (int offset : slots) {
+			out.writeInt(offset);
+		}
+		entryBytes.writeTo(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Get the key under which a resource is indexed: the binary form of its identifier.
+	 */
+	private static byte[] getKey (ResourceIdentifier resource) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ResourceIdentifierFactory.writeBinary(resource, new CollageDataOutput(bytes));
+		return bytes.toByteArray();
+	}
+
+	private static int hash (byte[] key) {
+		// Arrays.hashCode is specified exactly, so the hash is the same in every session.
+		int h = Arrays.hashCode(key);
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matchKey (ByteBuffer view, byte[] key) {
+		if (view.getInt() != key.length) {
+			return false;
+		}
+		for (byte b : key) {
+			if (view.get() != b) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<Segment> readSegments (ByteBuffer view) {
+		int count = view.getInt();
+		if (count < 0) {
+			throw new IllegalArgumentException("Invalid segment count " + count);
+		}
+		List<Segment> segments = new ArrayList<Segment>(count);
+		for (int i = 0; i < count; i++) {
+			String layerId = readString(view);
+			int shapeCount = view.getInt();
+			String file = readString(view);
+			segments.add(new Segment(layerId, shapeCount, file, view.getLong()));
+		}
+		return segments;
+	}
+
+	private static void writeString (DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString (ByteBuffer view) {
+		byte[] bytes = new byte[view.getInt()];
+		view.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,575 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.bind.JAXBException;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipselabs.collage.CollageActivator;
+import org.eclipselabs.collage.model.CollageLayer;
+import org.eclipselabs.collage.model.CollageRoot;
+import org.eclipselabs.collage.model.PluginDependency;
+import org.eclipselabs.collage.model.ResourceShapeList;
+import org.eclipselabs.collage.model.ShapeListLoader;
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
+import org.eclipselabs.collage.storage.StoreManifest.LayerEntry;
+import org.eclipselabs.collage.storage.StoreManifest.SegmentEntry;
+import org.eclipselabs.collage.xml.CollageSerialization;
+
+/**
+ * Segmented persistent storage for the default Collage root. The store is a directory holding a
+ * small {@link StoreManifest} and, for each layer, a subdirectory with one segment file per resource
+ * that has shapes in that layer. The manifest and segments are stored in the binary form provided by
+ * {@link CollageBinaryCodec}; stores written in the earlier XML form can still be read, and are converted
+ * as they are saved.
+ * <p>
+ * Segments are read lazily: {@link #load()} only reads the manifest and fills each layer with
+ * placeholder {@link ResourceShapeList}s, which read their segment when they are first used (normally
+ * when a Collage UI is installed for the resource.) On {@link #save(CollageRoot)}, only shape lists that
+ * are dirty are rewritten; segments that were never read are left untouched.
+ * </p>
+ * <p>
+ * Saving is split into {@link #prepareSave(CollageRoot)}, which runs on the UI thread and captures the
+ * changed data in memory, and {@link #write(Snapshot)}, which can run in the background. This lets
+ * {@link CollageAutosaveJob} keep the store current during a session.
+ * </p>
+ * <p>
+ * Each write also refreshes a memory-mapped {@link CollageShapeIndex}, which lets
+ * {@link #hasStoredShapes(ResourceIdentifier)} tell whether a resource has any stored shapes without
+ * reading the manifest.
+ * </p>
+ * @author Alex Bradley
+ */
+public final class CollageStore {
+	/** Name of the store directory within the plugin state location. */
+	public static final String STORE_DIRECTORY = "collage-storage";
+
+	private static final String MANIFEST_FILE = "manifest.bin.gz";
+	private static final String SEGMENT_SUFFIX = ".bin.gz";
+	private static final String XML_MANIFEST_FILE = "manifest.xml.gz";
+	private static final String XML_SEGMENT_SUFFIX = ".xml.gz";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String UNREADABLE_PREFIX = "unreadable-";
+
+	/**
+	 * Storage bookkeeping for a layer.
+	 */
+	private static class LayerRecord {
+		final String id;
+		/** All segments that are on disk for this layer. */
+		Map<ResourceIdentifier, SegmentEntry> segments = new HashMap<ResourceIdentifier, SegmentEntry>();
+
+		LayerRecord (String id) {
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Reads the children of a placeholder shape list from its segment.
+	 */
+	private class SegmentLoader implements ShapeListLoader {
+		private final LayerRecord record;
+		private final SegmentEntry segment;
+
+		SegmentLoader (LayerRecord record, SegmentEntry segment) {
+			this.record = record;
+			this.segment = segment;
+		}
+
+		@Override
+		public List<Object> loadChildren () throws CoreException {
+			File file = getSegmentFile(record, segment);
+			try {
+				return readSegment(file);
+			} catch (CoreException e) {
+				// Move the segment aside so that it is not lost. The list is left empty, so the next save
+				// will drop the segment from the manifest.
+				File backup = new File(directory, UNREADABLE_PREFIX + System.currentTimeMillis() + "-" + segment.file);
+				String backupMessage = file.renameTo(backup) ? 
+						String.format("The segment has been moved to \"%s\".", backup.getAbsolutePath()) :
+						String.format("WARNING: The segment could not be moved aside; copy it from \"%s\" before closing Eclipse if you want to recover it.", file.getAbsolutePath());
+				throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, 
+						e.getStatus().getMessage() + "\n" + backupMessage, e.getStatus().getException()));
+			}
+		}
+	}
+
+	/**
+	 * Data captured by {@link CollageStore#prepareSave(CollageRoot)} for writing to disk.
+	 */
+	public static final class Snapshot {
+		private final Map<File, byte[]> segmentData = new LinkedHashMap<File, byte[]>();
+		private final List<ResourceShapeList> cleanedLists = new ArrayList<ResourceShapeList>();
+		/** Segment file names referenced by the manifest, by layer directory. */
+		private final Map<String, Set<String>> liveFiles = new HashMap<String, Set<String>>();
+		private final List<File> retiredFiles = new ArrayList<File>();
+		private StoreManifest manifest;
+		private byte[] manifestData;
+
+		private Snapshot () { }
+
+		private void restoreDirtyState () {
+			for (ResourceShapeList shapeList : cleanedLists) {
+				shapeList.setDirty(true);
+			}
+		}
+	}
+
+	private final File directory;
+	private final Map<CollageLayer, LayerRecord> layerRecords = new IdentityHashMap<CollageLayer, LayerRecord>();
+	private final Set<File> filesToRetire = new HashSet<File>();
+	private final Object indexLock = new Object();
+	private CollageShapeIndex index;
+	private boolean indexOpened = false;
+
+	/**
+	 * Create a store backed by the given directory. The directory need not exist yet.
+	 * @param directory Store directory
+	 */
+	public CollageStore (File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Get the directory backing this store.
+	 */
+	public File getDirectory () {
+		return directory;
+	}
+
+	/**
+	 * Check if this store contains saved data.
+	 * @return true if a manifest has been written to the store directory
+	 */
+	public boolean hasData () {
+		return getManifestFile().exists() || getXMLManifestFile().exists();
+	}
+
+	/**
+	 * Check whether shapes for a resource have been written to this store. The answer normally comes from
+	 * the memory-mapped shape index and does not require the manifest or any segment to be read.
+	 * @param resource Resource identifier
+	 * @return false if the store has no shapes for {@code resource}; true if it has, or if the index is
+	 * missing or out of date and the question cannot be answered cheaply
+	 */
+	public boolean hasStoredShapes (ResourceIdentifier resource) {
+		CollageShapeIndex currentIndex;
+		synchronized (indexLock) {
+			if (!indexOpened) {
+				index = CollageShapeIndex.open(getIndexFile(), getManifestFile());
+				indexOpened = true;
+			}
+			currentIndex = index;
+		}
+		if (currentIndex == null) {
+			return hasData();
+		}
+		List<CollageShapeIndex.Segment> segments = currentIndex.getSegments(resource);
+		if (segments == null) {
+			return true;
+		}
+		for (CollageShapeIndex.Segment segment : segments) {
+			if (segment.shapeCount > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Read the manifest and create a Collage root from it. The shape lists of the returned root are
+	 * placeholders that read their segments when they are first used.
+	 * @return Restored Collage root
+	 * @throws CoreException if the manifest cannot be read
+	 */
+	public synchronized CollageRoot load () throws CoreException {
+		StoreManifest manifest = readManifest();
+		layerRecords.clear();
+		List<CollageLayer> layers = new ArrayList<CollageLayer>(manifest.layers.size());
+		for (LayerEntry entry : manifest.layers) {
+			CollageLayer layer = new CollageLayer(entry.name);
+			layer.setVisible(entry.visible);
+			LayerRecord record = new LayerRecord(entry.id);
+			for (SegmentEntry segment : entry.segments) {
+				record.segments.put(segment.resource, segment);
+				layer.addStoredShapes(segment.resource, new ResourceShapeList(new SegmentLoader(record, segment), segment.shapeCount));
+			}
+			layerRecords.put(layer, record);
+			layers.add(layer);
+		}
+		if (layers.isEmpty()) {
+			return new CollageRoot();
+		}
+		return CollageRoot.restore(layers, manifest.currentLayerIndex, manifest.dependencies);
+	}
+
+	/**
+	 * Save a Collage root to this store. Equivalent to {@link #write(Snapshot)} applied to the result of
+	 * {@link #prepareSave(CollageRoot)}.
+	 * @param root Collage root
+	 * @throws CoreException if serialization or writing fails
+	 */
+	public void save (CollageRoot root) throws CoreException {
+		write(prepareSave(root));
+	}
+
+	/**
+	 * Capture everything that needs to be written to bring this store up to date with a Collage root: dirty
+	 * shape lists are serialized and marked clean, and the manifest is rebuilt. Must be called from the thread
+	 * that modifies the model (i.e., the UI thread); the returned snapshot can then be written from any thread.
+	 * @param root Collage root
+	 * @return Snapshot to pass to {@link #write(Snapshot)}
+	 * @throws CoreException if serialization fails
+	 */
+	public synchronized Snapshot prepareSave (CollageRoot root) throws CoreException {
+		Snapshot snapshot = new Snapshot();
+		try {
+			List<CollageLayer> layers = root.getLayers();
+			StoreManifest manifest = new StoreManifest();
+			boolean allHydrated = true;
+			for (CollageLayer layer : layers) {
+				LayerRecord record = layerRecords.get(layer);
+				if (record == null) {
+					record = new LayerRecord(newId());
+					layerRecords.put(layer, record);
+				}
+				manifest.layers.add(prepareLayer(layer, record, snapshot));
+				for (ResourceShapeList shapeList : layer.getShapeLists()) {
+					allHydrated &= shapeList.isHydrated();
+				}
+			}
+			manifest.currentLayerIndex = Math.max(0, layers.indexOf(root.getCurrentLayer()));
+
+			// Layers that have been removed may come back through undo, so make sure they hold all of their
+			// shapes before their segments are deleted.
+			List<ResourceShapeList> removedShapeLists = new ArrayList<ResourceShapeList>();
+			for (Iterator<Entry<CollageLayer, LayerRecord>> iter = layerRecords.entrySet().iterator(); iter.hasNext(); ) {
+				Entry<CollageLayer, LayerRecord> entry = iter.next();
+				if (!snapshot.liveFiles.containsKey(entry.getValue().id)) {
+					removedShapeLists.addAll(entry.getKey().getShapeLists());
+					iter.remove();
+				}
+			}
+			ResourceShapeList.hydrateAll(removedShapeLists);
+
+			if (allHydrated) {
+				root.pruneDependencies();
+			}
+			manifest.dependencies = new ArrayList<PluginDependency>(root.getPluginDependencies());
+			snapshot.manifest = manifest;
+			snapshot.manifestData = serializeManifest(manifest);
+			snapshot.retiredFiles.addAll(filesToRetire);
+			return snapshot;
+		} catch (CoreException e) {
+			snapshot.restoreDirtyState();
+			throw e;
+		}
+	}
+
+	/**
+	 * Write a snapshot to disk. Segment files and the manifest are each written to a temporary file and then
+	 * renamed, so an interrupted write leaves the store readable. Files that are no longer referenced are then
+	 * removed. Snapshots must be written in the order they were prepared; callers should hold a scheduling
+	 * rule for the store directory.
+	 * @param snapshot Snapshot from {@link #prepareSave(CollageRoot)}
+	 * @throws CoreException if writing fails. The shape lists in the snapshot are marked dirty again.
+	 */
+	public void write (Snapshot snapshot) throws CoreException {
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException(String.format("Collage store directory %s could not be created.", directory.getAbsolutePath()));
+			}
+			for (Entry<File, byte[]> entry : snapshot.segmentData.entrySet()) {
+				writeFile(entry.getKey(), entry.getValue());
+			}
+			// The index describes the previous manifest, so drop it first; it is rebuilt below.
+			getIndexFile().delete();
+			writeFile(getManifestFile(), snapshot.manifestData);
+			getXMLManifestFile().delete();
+		} catch (IOException e) {
+			snapshot.restoreDirtyState();
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID,
+					String.format("Collage store %s could not be written.", directory.getAbsolutePath()), e));
+		}
+
+		writeIndex(snapshot.manifest);
+
+		// The manifest is safely on disk, so anything it doesn't mention can go.
+		File[] children = directory.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (child.isDirectory()) {
+					Set<String> liveFiles = snapshot.liveFiles.get(child.getName());
+					if (liveFiles == null) {
+						deleteDirectory(child);
+					} else {
+						sweepDirectory(child, liveFiles);
+					}
+				}
+			}
+		}
+		synchronized (this) {
+			for (File retired : snapshot.retiredFiles) {
+				if (retired.exists()) {
+					retired.renameTo(new File(retired.getParentFile(), "collage-migrated-" + System.currentTimeMillis() + "-" + retired.getName()));
+				}
+				filesToRetire.remove(retired);
+			}
+		}
+	}
+
+	/**
+	 * Move a file aside after the next successful write. Used to retire storage from which the current
+	 * Collage root was migrated, once the root's contents are safely in the store.
+	 * @param file File to retire
+	 */
+	public synchronized void retireOnSave (File file) {
+		filesToRetire.add(file);
+	}
+
+	private LayerEntry prepareLayer (CollageLayer layer, LayerRecord record, Snapshot snapshot) throws CoreException {
+		Map<ResourceIdentifier, SegmentEntry> segments = new HashMap<ResourceIdentifier, SegmentEntry>();
+		Set<String> liveFiles = new HashSet<String>();
+		for (ResourceShapeList shapeList : layer.getShapeLists()) {
+			ResourceIdentifier resource = shapeList.getResource();
+			SegmentEntry segment = record.segments.get(resource);
+			if (!shapeList.hasChildren()) {
+				continue;
+			}
+			if (segment == null || shapeList.isDirty()) {
+				if (segment == null || !segment.file.endsWith(SEGMENT_SUFFIX)) {
+					// New segment, or one in the XML form; the old file is removed once the manifest is written.
+					segment = new SegmentEntry(resource, newId() + SEGMENT_SUFFIX);
+				}
+				shapeList.hydrate();
+				snapshot.segmentData.put(getSegmentFile(record, segment), serializeShapeList(shapeList));
+				snapshot.cleanedLists.add(shapeList);
+				shapeList.setDirty(false);
+				segment.shapeCount = shapeList.getAllChildren().size();
+			}
+			segments.put(resource, segment);
+			liveFiles.add(segment.file);
+		}
+		record.segments = segments;
+		snapshot.liveFiles.put(record.id, liveFiles);
+
+		LayerEntry entry = new LayerEntry();
+		entry.id = record.id;
+		entry.name = layer.getName();
+		entry.visible = layer.isVisible();
+		entry.segments.addAll(segments.values());
+		return entry;
+	}
+
+	private File getSegmentFile (LayerRecord record, SegmentEntry segment) {
+		return new File(new File(directory, record.id), segment.file);
+	}
+
+	private static List<Object> readSegment (File file) throws CoreException {
+		try {
+			InputStream is = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
+			try {
+				if (file.getName().endsWith(XML_SEGMENT_SUFFIX)) {
+					return new ArrayList<Object>(CollageSerialization.readShapeList(is).getAllChildren());
+				}
+				return CollageBinaryCodec.readShapeList(is);
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID,
+					String.format("Collage store segment %s could not be read.", file.getAbsolutePath()), e));
+		} catch (JAXBException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID,
+					String.format("JAXB parsing of Collage store segment %s failed.", file.getAbsolutePath()), e));
+		}
+	}
+
+	private static byte[] serializeShapeList (ResourceShapeList shapeList) throws CoreException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			OutputStream os = new GZIPOutputStream(bytes);
+			try {
+				CollageBinaryCodec.writeShapeList(shapeList, os);
+			} finally {
+				os.close();
+			}
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Serialization of Collage store data failed.", e));
+		} catch (JAXBException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "XML serialization of Collage store data failed.", e));
+		}
+	}
+
+	private static byte[] serializeManifest (StoreManifest manifest) throws CoreException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			OutputStream os = new GZIPOutputStream(bytes);
+			try {
+				CollageBinaryCodec.writeManifest(manifest, os);
+			} finally {
+				os.close();
+			}
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Serialization of Collage store manifest failed.", e));
+		}
+	}
+
+	private StoreManifest readManifest () throws CoreException {
+		File file = getManifestFile();
+		if (!file.exists() && getXMLManifestFile().exists()) {
+			return readXMLManifest();
+		}
+		try {
+			InputStream is = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
+			try {
+				return CollageBinaryCodec.readManifest(is);
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID,
+					String.format("Collage store manifest %s could not be read.", file.getAbsolutePath()), e));
+		}
+	}
+
+	/**
+	 * Read a manifest written in the XML form used before the binary form was introduced.
+	 */
+	private StoreManifest readXMLManifest () throws CoreException {
+		File file = getXMLManifestFile();
+		try {
+			InputStream is = new GZIPInputStream(new FileInputStream(file));
+			try {
+				Object obj = CollageSerialization.getUnmarshaller().unmarshal(is);
+				if (obj instanceof StoreManifest) {
+					return (StoreManifest)obj;
+				}
+				throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "JAXB parsing of Collage store manifest did not return a manifest element."));
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID,
+					String.format("Collage store manifest %s could not be read.", file.getAbsolutePath()), e));
+		} catch (JAXBException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "JAXB parsing of Collage store manifest failed.", e));
+		}
+	}
+
+	/**
+	 * Rebuild the shape index for a manifest that has just been written. The index is only an accelerator,
+	 * so failures are not reported: an index that is missing or does not match the manifest is ignored.
+	 */
+	private void writeIndex (StoreManifest manifest) {
+		synchronized (indexLock) {
+			index = null;
+			indexOpened = false;
+		}
+		try {
+			writeFile(getIndexFile(), CollageShapeIndex.build(manifest, directory, getManifestFile()));
+		} catch (IOException e) {
+			// Ignored; see above. (On some platforms, an index that is still mapped cannot be replaced.)
+		}
+	}
+
+	private static void writeFile (File file, byte[] data) throws IOException {
+		file.getParentFile().mkdirs();
+		File tempFile = new File(file.getPath() + TEMP_SUFFIX);
+		OutputStream os = new FileOutputStream(tempFile);
+		try {
+			os.write(data);
+		} finally {
+			os.close();
+		}
+		replaceFile(tempFile, file);
+	}
+
+	private File getManifestFile () {
+		return new File(directory, MANIFEST_FILE);
+	}
+
+	private File getXMLManifestFile () {
+		return new File(directory, XML_MANIFEST_FILE);
+	}
+
+	private File getIndexFile () {
+		return new File(directory, CollageShapeIndex.INDEX_FILE);
+	}
+
+	/**
+	 * Move a freshly written file over its target. (File.renameTo will not replace an existing file on all
+	 * platforms.)
+	 */
+	private static void replaceFile (File source, File target) throws IOException {
+		if (!source.renameTo(target)) {
+			target.delete();
+			if (!source.renameTo(target)) {
+				throw new IOException(String.format("Could not rename %s to %s", source.getName(), target.getName()));
+			}
+		}
+	}
+
+	/**
+	 * Remove files left in a layer directory by deletions or by writes that were interrupted before the
+	 * manifest was updated.
+	 */
+	private static void sweepDirectory (File dir, Set<String> liveFiles) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (!liveFiles.contains(file.getName())) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	private static void deleteDirectory (File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	private static String newId () {
+		return UUID.randomUUID().toString();
+	}
+}
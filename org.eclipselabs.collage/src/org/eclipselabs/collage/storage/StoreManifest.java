@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+import org.eclipselabs.collage.model.PluginDependency;
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
+
+/**
+ * Table of contents for a {@link CollageStore}. Records the layers of the stored collage, their
+ * names and visibility, and the segment file holding the shapes of each resource in each layer.
+ * The shapes themselves are not part of the manifest.
+ * @author Alex Bradley
+ */
+@XmlRootElement(name="collageStore")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class StoreManifest {
+	/**
+	 * Manifest entry for a single layer.
+	 */
+	@XmlType(name="storedLayer")
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class LayerEntry {
+		/** Name of the directory (within the store) that holds this layer's segments. */
+		@XmlAttribute
+		public String id;
+
+		@XmlAttribute
+		public String name;
+
+		@XmlAttribute
+		public boolean visible = true;
+
+		@XmlElement(name="segment")
+		public List<SegmentEntry> segments = new ArrayList<SegmentEntry>();
+	}
+
+	/**
+	 * Manifest entry for the shapes of one resource in one layer.
+	 */
+	@XmlType(name="storedSegment")
+	@XmlAccessorType(XmlAccessType.FIELD)
+	public static class SegmentEntry {
+		public ResourceIdentifier resource;
+
+		/** Name of the segment file within its layer directory. */
+		@XmlAttribute
+		public String file;
+
+		/** Number of children (including unknown elements) stored in the segment. */
+		@XmlAttribute
+		public int shapeCount;
+
+		public SegmentEntry () { }
+
+		public SegmentEntry (ResourceIdentifier resource, String file) {
+			this.resource = resource;
+			this.file = file;
+		}
+	}
+
+	@XmlAttribute
+	public int currentLayerIndex = 0;
+
+	@XmlElement(name="dependsPlugin")
+	public List<PluginDependency> dependencies = new ArrayList<PluginDependency>();
+
+	@XmlElement(name="layer")
+	public List<LayerEntry> layers = new ArrayList<LayerEntry>();
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * XML container for the shapes of a binary shape list that have no binary form (see 
+ * {@link CollageBinaryCodec}.) The shapes are serialized the same way as the children of a
+ * {@link org.eclipselabs.collage.model.ResourceShapeList}.
+ * @author Alex Bradley
+ */
+@XmlRootElement(name="storedShapes")
+@XmlAccessorType(XmlAccessType.FIELD)
+public class StoredShapes {
+	public List<Object> shapes = new ArrayList<Object>();
+}
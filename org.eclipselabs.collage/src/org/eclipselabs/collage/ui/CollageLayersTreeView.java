@@ -46,6 +46,7 @@ import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseListener;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeItem;
 import org.eclipse.ui.IActionBars;
@@ -70,6 +71,7 @@ import org.eclipselabs.collage.parts.tree.CollageLayerTreeEditPart;
 import org.eclipselabs.collage.parts.tree.ResourceShapeListTreeEditPart;
 import org.eclipselabs.collage.parts.tree.ShapeTreeEditPart;
 import org.eclipselabs.collage.parts.tree.ShapesTreeEditPartFactory;
+import org.eclipselabs.collage.ui.gef.BatchingCommandStack;
 import org.eclipselabs.collage.util.CollageUtilities;
 
 /**
@@ -80,6 +82,8 @@ import org.eclipselabs.collage.util.CollageUtilities;
 public class CollageLayersTreeView extends ViewPart implements CommandStackListener, ISelectionChangedListener, MouseListener {
 	public static final String VIEW_ID = "org.eclipselabs.collage.collageLayers";
 	
+	private static final String LOADING_DESCRIPTION = "Loading Collage data...";
+	
 	private SelectionAction visibleAction;
 	private Action addAction;
 		
@@ -95,7 +99,22 @@ public class CollageLayersTreeView extends ViewPart implements CommandStackListe
 		treeViewer.createControl(parent);
 		editDomain.addViewer(treeViewer);
 		treeViewer.setEditPartFactory(new ShapesTreeEditPartFactory());
-		treeViewer.setContents(CollageActivator.getDefault().getDefaultCollageRoot());
+		if (!CollageActivator.getDefault().isDefaultCollageRootLoaded()) {
+			setContentDescription(LOADING_DESCRIPTION);
+		}
+		CollageActivator.getDefault().whenDefaultCollageRootLoaded(new Runnable() {
+			@Override
+			public void run() {
+				Control control = treeViewer.getControl();
+				if (control != null && !control.isDisposed()) {
+					setContentDescription("");
+					treeViewer.setContents(CollageActivator.getDefault().getDefaultCollageRoot());
+					updateActions(stackActions);
+					updateActions(selectionActions);
+					visibleAction.update();
+				}
+			}
+		});
 		// TODO Use a SelectionSynchronizer?
 		getSite().setSelectionProvider(treeViewer);
 		treeViewer.addSelectionChangedListener(this);
@@ -107,7 +126,9 @@ public class CollageLayersTreeView extends ViewPart implements CommandStackListe
 	@Override
 	public void init(IViewSite site) throws PartInitException {
 		super.init(site);
+		editDomain.setCommandStack(new BatchingCommandStack());
 		getCommandStack().addCommandStackListener(this);
+		getCommandStack().addCommandStackEventListener(CollageActivator.getDefault().getAutosaveJob());
 		initializeActionRegistry();
 	}
 
@@ -120,6 +141,7 @@ public class CollageLayersTreeView extends ViewPart implements CommandStackListe
 	@Override
 	public void dispose() {
 		getCommandStack().removeCommandStackListener(this);
+		getCommandStack().removeCommandStackEventListener(CollageActivator.getDefault().getAutosaveJob());
 //		getSite().getWorkbenchWindow().getSelectionService()
 //				.removeSelectionListener(this);
 		getEditDomain().setActiveTool(null);
@@ -336,7 +358,7 @@ public class CollageLayersTreeView extends ViewPart implements CommandStackListe
 						Shape shape = ((ShapeTreeEditPart)obj).getCastedModel();
 						IEditorPart editor = ((ResourceShapeList)shape.getParent()).getResource().openInEditor();
 						if (editor != null) {
-							shape.getBoundaries().showInEditor(editor);
+							shape.getBoundariesReadOnly().showInEditor(editor);
 						}
 					}
 				} catch (CoreException e1) {
@@ -10,6 +10,7 @@
  *******************************************************************************/
 package org.eclipselabs.collage.ui;
 
+import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.util.ArrayList;
@@ -76,6 +77,8 @@ import org.eclipse.ui.views.properties.PropertySheetPage;
 import org.eclipselabs.collage.CollageActivator;
 import org.eclipselabs.collage.actions.CollageLayersActionRegistry;
 import org.eclipselabs.collage.actions.SelectAllViewerAction;
+import org.eclipselabs.collage.model.CollageLayer;
+import org.eclipselabs.collage.model.CollageRoot;
 import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
 import org.eclipselabs.collage.model.resourceid.ResourceIdentifierFactory;
 import org.eclipselabs.collage.operations.WrappingOperation;
@@ -89,6 +92,15 @@ import org.eclipselabs.collage.util.CollageExtensions;
 
 /**
  * The Collage user interface that is installed on top of a {@link StyledText} editor.
+ * <p>
+ * If there are no shapes for the editor's resource when the UI is installed, the GEF viewer is not created
+ * until editing mode is entered or shapes for the resource appear in the model (e.g., through a layer import),
+ * so editors for resources without annotations only get the Collage toolbar.
+ * </p>
+ * <p>
+ * The UI can be installed before the stored Collage data has finished loading. In that case it attaches to the
+ * model once loading completes; if the resource has stored shapes, the toolbar is disabled until then.
+ * </p>
  * @author Alex Bradley
  */
 public class CollageUI implements CommandStackEventListener, ISelectionChangedListener, IPartListener, ToolChangeListener {
@@ -141,7 +153,10 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 	private Object editingModeChangeLock = new Object();
 	
 	private ITextEditor editor = null;
+	private ITextViewer textViewer = null;
 	private StyledText textWidget = null;
+	private ResourceIdentifier resourceId = null;
+	private ShapeWatcher shapeWatcher = null;
 	
 	private DeleteAction deleteAction = null;
 	
@@ -174,35 +189,45 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 		}
 		
 		this.editor = editor;
+		this.textViewer = textViewer;
+		this.resourceId = resourceId;
 		textWidget = textViewer.getTextWidget();
 		
 		if (!textWidget.isDisposed()) {
 			CollageUIRegistry.getDefault().addCollageUI(this);
 			
-			rootEditPart = new TextViewerRootEditPart(this, textViewer, resourceId);
 			editDomain = new CollageEditDomain();
 			editDomain.addToolChangeListener(this);
 			editDomain.setDefaultTool(SELECTION_TOOL);
 			editDomain.getCommandStack().addCommandStackEventListener(this);
 			editDomain.getCommandStack().addCommandStackEventListener(CollageLayersActionRegistry.getDefault());
+			editDomain.getCommandStack().addCommandStackEventListener(CollageActivator.getDefault().getAutosaveJob());
 			
 			createTopMenu();
 			
-			viewer = new TransparentGraphicalViewer(this);
-			viewer.setControl(textWidget);
-			viewer.setEditPartFactory(new ShapesEditPartFactory());
-			viewer.setRootEditPart(rootEditPart);
-
-			viewer.setContents(CollageActivator.getDefault().getDefaultCollageRoot());
-			
-			editDomain.addViewer(viewer);
-			editDomain.setActiveTool(null);
+			CollageActivator activator = CollageActivator.getDefault();
+			if (!activator.isDefaultCollageRootLoaded()) {
+				// The Collage data is still being loaded; don't offer to edit it until it can be shown without
+				// blocking the UI thread. attachToModel enables the toolbar.
+				toolbar.setEnabled(false);
+			}
+			activator.whenDefaultCollageRootLoaded(new Runnable() {
+				@Override
+				public void run() {
+					attachToModel();
+				}
+			});
 			
 			getTopParent().layout();
 		}
 	}
 	
 	public void uninstall() {
+		if (shapeWatcher != null) {
+			shapeWatcher.dispose();
+			shapeWatcher = null;
+		}
+		
 		if (viewer != null && textWidget != null && !textWidget.isDisposed()) {
 			setEditingMode(false);
 		}
@@ -281,6 +306,9 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 	}
 
 	public void setActiveTool (Tool tool) {
+		if (!CollageActivator.getDefault().isDefaultCollageRootLoaded()) {
+			return;
+		}
 		setEditingMode(true);
 		editDomain.setActiveTool(tool);
 	}
@@ -298,7 +326,7 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 			CommandStack commandStack = editDomain.getCommandStack();
 			Command undoCommand = commandStack.getUndoCommand();
 			if (undoCommand != null) {
-				IUndoContext context = CollageUtilities.getTextViewerUndoContext(rootEditPart.getTextViewer());
+				IUndoContext context = CollageUtilities.getTextViewerUndoContext(textViewer);
 				if (context != null) {
 					IUndoableOperation op = new WrappingOperation(undoCommand.getLabel(), context, commandStack);						
 					OperationHistoryFactory.getOperationHistory().add(op);
@@ -328,7 +356,7 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 	}
 
 	public void updateUndoRedo () { 
-		IUndoContext context = CollageUtilities.getTextViewerUndoContext(rootEditPart.getTextViewer());
+		IUndoContext context = CollageUtilities.getTextViewerUndoContext(textViewer);
 		IOperationHistory history = OperationHistoryFactory.getOperationHistory();
 		updateIfWrappingOperation(history.getRedoOperation(context), history);
 		updateIfWrappingOperation(history.getUndoOperation(context), history);		
@@ -343,7 +371,7 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 				
 				// Under Indigo, GEF selection may not be picked up when Properties
 				// view is first opened
-				ISelection selection = viewer.getSelection();
+				ISelection selection = (viewer != null) ? viewer.getSelection() : null;
 				if (selection != null) {
 					activePropertySheet.selectionChanged(getEditor(), selection);
 				}
@@ -573,9 +601,16 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 	}
 	
 	private void setEditingMode (boolean enabled) {
+		if (enabled && !CollageActivator.getDefault().isDefaultCollageRootLoaded()) {
+			// Editing needs the viewer, which can't be created until the Collage data has been loaded.
+			return;
+		}
 		synchronized (editingModeChangeLock) {
 			boolean currentlyEnabled = editingEnabled();
 			if (!currentlyEnabled && enabled) {
+				// The viewer's Draw2D listeners must be in place before the text widget's listeners are intercepted.
+				createViewer();
+				
 				setProperty(EDIT_ENABLED_PROPERTY_ID, enabled);
 				
 				textWidget.setCursor(Display.getCurrent().getSystemCursor(SWT.CURSOR_ARROW));
@@ -635,6 +670,52 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 		}
 	}
 
+	/**
+	 * Connect to the default Collage root once it has been loaded: create the viewer if there are shapes for
+	 * this UI's resource, or watch for them to appear otherwise.
+	 */
+	private void attachToModel () {
+		if (textWidget.isDisposed() || (Boolean)getProperty(TOOLBAR_DISPOSED_PROPERTY_ID)) {
+			return;
+		}
+		toolbar.setEnabled(true);
+		if (viewer == null) {
+			CollageRoot root = CollageActivator.getDefault().getDefaultCollageRoot();
+			if (root.hasShapesFor(resourceId)) {
+				createViewer();
+			} else {
+				shapeWatcher = new ShapeWatcher(root);
+			}
+		}
+	}
+
+	/**
+	 * Create the GEF viewer that displays and edits the shapes for this UI's resource, if it has not been
+	 * created yet. Must only be called once the default Collage root has been loaded, so that getting it
+	 * doesn't block the UI thread.
+	 */
+	private void createViewer () {
+		if (viewer != null || textWidget.isDisposed() || (Boolean)getProperty(TOOLBAR_DISPOSED_PROPERTY_ID)) {
+			return;
+		}
+		if (shapeWatcher != null) {
+			shapeWatcher.dispose();
+			shapeWatcher = null;
+		}
+		
+		rootEditPart = new TextViewerRootEditPart(this, textViewer, resourceId);
+		
+		viewer = new TransparentGraphicalViewer(this);
+		viewer.setControl(textWidget);
+		viewer.setEditPartFactory(new ShapesEditPartFactory());
+		viewer.setRootEditPart(rootEditPart);
+
+		viewer.setContents(CollageActivator.getDefault().getDefaultCollageRoot());
+		
+		editDomain.addViewer(viewer);
+		editDomain.setActiveTool(null);
+	}
+
 	private void setPartListening (boolean enabled) {
 		IWorkbenchWindow activeWorkbenchWindow = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
 		if (activeWorkbenchWindow != null) {
@@ -715,4 +796,55 @@ public class CollageUI implements CommandStackEventListener, ISelectionChangedLi
 				actionBars.updateActionBars();
 		}
 	}
+
+	/**
+	 * Watches the Collage model while the viewer has not been created, and creates it once shapes for this
+	 * UI's resource appear (through a layer import, undo of a layer removal, or another editor on the same
+	 * resource.)
+	 */
+	private class ShapeWatcher implements PropertyChangeListener {
+		private final CollageRoot root;
+		private final List<CollageLayer> watchedLayers = new ArrayList<CollageLayer>();
+		private boolean viewerCreationQueued = false;
+		
+		ShapeWatcher (CollageRoot root) {
+			this.root = root;
+			root.addPropertyChangeListener(this);
+			for (CollageLayer layer : root.getLayers()) {
+				watchLayer(layer);
+			}
+		}
+		
+		private void watchLayer (CollageLayer layer) {
+			if (!watchedLayers.contains(layer)) {
+				layer.addPropertyChangeListener(this);
+				watchedLayers.add(layer);
+			}
+		}
+		
+		void dispose () {
+			root.removePropertyChangeListener(this);
+			for (CollageLayer layer : watchedLayers) {
+				layer.removePropertyChangeListener(this);
+			}
+			watchedLayers.clear();
+		}
+
+		@Override
+		public void propertyChange (PropertyChangeEvent evt) {
+			if (CollageRoot.CHILD_ADDED_PROP.equals(evt.getPropertyName()) && evt.getNewValue() instanceof CollageLayer) {
+				watchLayer((CollageLayer)evt.getNewValue());
+			}
+			if (!viewerCreationQueued && root.hasShapesFor(resourceId)) {
+				viewerCreationQueued = true;
+				// Don't build edit parts while the model is still notifying its listeners.
+				Display.getDefault().asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						createViewer();
+					}
+				});
+			}
+		}
+	}
 }
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley    - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.ui.gef;
+
+import org.eclipse.gef.commands.Command;
+import org.eclipse.gef.commands.CommandStack;
+import org.eclipselabs.collage.model.ModelElement;
+
+/**
+ * Command stack that batches the model changes made by each command as it is executed, undone or redone
+ * (see {@link ModelElement#beginBatch()}). Edit parts are then notified once per changed model element when
+ * the command is done, instead of once per change (e.g., per shape of an imported layer, or per shape moved
+ * by a compound command.) The batch is ended even if the command throws an exception.
+ * @author Alex Bradley
+ */
+public class BatchingCommandStack extends CommandStack {
+	@Override
+	public void execute(Command command) {
+		ModelElement.beginBatch();
+		try {
+			super.execute(command);
+		} finally {
+			ModelElement.endBatch();
+		}
+	}
+
+	@Override
+	public void undo() {
+		ModelElement.beginBatch();
+		try {
+			super.undo();
+		} finally {
+			ModelElement.endBatch();
+		}
+	}
+
+	@Override
+	public void redo() {
+		ModelElement.beginBatch();
+		try {
+			super.redo();
+		} finally {
+			ModelElement.endBatch();
+		}
+	}
+}
@@ -18,13 +18,21 @@ import org.eclipse.gef.Tool;
 import org.eclipselabs.collage.tools.ToolChangeListener;
 
 /**
- * An {@link EditDomain} that notifies listeners when the active tool changes.
+ * An {@link EditDomain} that notifies listeners when the active tool changes, and batches model changes
+ * per command (see {@link BatchingCommandStack}).
  * @author Alex Bradley
  */
 public class CollageEditDomain extends EditDomain {
 	private List<ToolChangeListener> listeners = new ArrayList<ToolChangeListener>();
 	private Object listenersLock = new Object();
 	
+	/**
+	 * Create an edit domain with a {@link BatchingCommandStack}.
+	 */
+	public CollageEditDomain () {
+		setCommandStack(new BatchingCommandStack());
+	}
+	
 	@Override
 	public void setActiveTool(Tool tool) {
 		Tool oldTool = getActiveTool();
@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.ui.gef;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.draw2d.FreeformLayer;
+import org.eclipse.draw2d.Graphics;
+import org.eclipse.draw2d.IFigure;
+import org.eclipse.draw2d.SWTGraphics;
+import org.eclipse.draw2d.UpdateListener;
+import org.eclipse.draw2d.UpdateManager;
+import org.eclipse.draw2d.geometry.Rectangle;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * <p>A {@link FreeformLayer} which keeps its children rendered in a cache of image tiles, and paints
+ * by drawing the tiles. Repainting the text widget under the layer (e.g., when it is scrolled) then
+ * costs the same however many figures the layer has, and figures such as long antialiased polylines
+ * are only rendered again when they change.</p>
+ *
+ * <p>Tiles are kept in layer coordinates, so they stay valid when the viewport scrolls. A tile is
+ * discarded when the update manager repaints a region covering it on behalf of a figure in the layer
+ * (i.e., when a child is added, removed, moved, resized or changes its appearance.) The tiles of all
+ * layers on a display share one bounded cache, least recently used tiles being discarded first.</p>
+ *
+ * <p>Since the layer is drawn over text, tiles need per-pixel transparency, which SWT cannot render into
+ * an image directly. Each tile is rendered twice, over black and over white, and the alpha value of each
+ * pixel is recovered from the difference.</p>
+ * @author Alex Bradley
+ */
+public class TileCachedFreeformLayer extends FreeformLayer {
+	private static final int TILE_SIZE = 256;
+	/**
+	 * Maximum number of tiles to keep for all layers on a display (256 KB each.) Must comfortably exceed the
+	 * number of tiles covering a large editor.
+	 */
+	private static final int MAX_TILES = 80;
+
+	/**
+	 * Position of a tile of a layer.
+	 */
+	private static final class TileKey {
+		final TileCachedFreeformLayer layer;
+		final int column;
+		final int row;
+
+		TileKey (TileCachedFreeformLayer layer, int column, int row) {
+			this.layer = layer;
+			this.column = column;
+			this.row = row;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof TileKey)) {
+				return false;
+			}
+			TileKey other = (TileKey)obj;
+			return layer == other.layer && column == other.column && row == other.row;
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(layer) * 31 + column) * 31 + row;
+		}
+	}
+
+	/**
+	 * Tiles of all layers on a display, least recently used first, so that the memory used by tiles is bounded
+	 * however many editors and layers are open. A {@code null} image means the tile is empty. Only used from
+	 * the UI thread of the display.
+	 */
+	private static final class TileCache extends LinkedHashMap<TileKey, Image> {
+		private static final long serialVersionUID = 1L;
+
+		TileCache () {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<TileKey, Image> eldest) {
+			if (size() > MAX_TILES) {
+				disposeTile(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final Map<Display, TileCache> CACHES = new HashMap<Display, TileCache>();
+
+	/**
+	 * Get the tile cache of a display, creating it if necessary. The cache is cleared when the display is
+	 * disposed.
+	 */
+	private static TileCache getTileCache (final Display display) {
+		synchronized (CACHES) {
+			TileCache cache = CACHES.get(display);
+			if (cache == null) {
+				cache = new TileCache();
+				CACHES.put(display, cache);
+				display.disposeExec(new Runnable() {
+					@Override
+					public void run() {
+						TileCache disposed;
+						synchronized (CACHES) {
+							disposed = CACHES.remove(display);
+						}
+						if (disposed != null) {
+							for (Image tile : disposed.values()) {
+								disposeTile(tile);
+							}
+							disposed.clear();
+						}
+					}
+				});
+			}
+			return cache;
+		}
+	}
+
+	/** Cache of the display the layer is shown on, or {@code null} if the layer is not shown. */
+	private TileCache tiles = null;
+
+	private UpdateManager updateManager = null;
+
+	private final UpdateListener updateListener = new UpdateListener() {
+		@Override
+		public void notifyPainting(Rectangle damage, @SuppressWarnings("rawtypes") Map dirtyRegions) {
+			for (Object figure : dirtyRegions.keySet()) {
+				if (isInLayer((IFigure)figure)) {
+					invalidateTiles(damage);
+					return;
+				}
+			}
+		}
+
+		@Override
+		public void notifyValidating() { }
+	};
+
+	@Override
+	public void addNotify() {
+		super.addNotify();
+		Display display = Display.getCurrent();
+		tiles = (display != null) ? getTileCache(display) : null;
+		updateManager = getUpdateManager();
+		if (updateManager != null) {
+			updateManager.addUpdateListener(updateListener);
+		}
+	}
+
+	@Override
+	public void removeNotify() {
+		if (updateManager != null) {
+			updateManager.removeUpdateListener(updateListener);
+			updateManager = null;
+		}
+		clearTiles();
+		tiles = null;
+		super.removeNotify();
+	}
+
+	@Override
+	protected void paintChildren(Graphics graphics) {
+		if (getChildren().isEmpty()) {
+			return;
+		}
+		if (tiles == null) {
+			super.paintChildren(graphics);
+			return;
+		}
+		Rectangle clip = graphics.getClip(new Rectangle());
+		int firstColumn = tileIndex(clip.x);
+		int lastColumn = tileIndex(clip.right() - 1);
+		int firstRow = tileIndex(clip.y);
+		int lastRow = tileIndex(clip.bottom() - 1);
+		if ((lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > MAX_TILES) {
+			// Too big to cache without evicting tiles we're about to draw.
+			super.paintChildren(graphics);
+			return;
+		}
+
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				TileKey key = new TileKey(this, column, row);
+				Image tile;
+				if (tiles.containsKey(key)) {
+					tile = tiles.get(key);
+				} else {
+					tile = renderTile(graphics, column, row);
+					tiles.put(key, tile);
+				}
+				if (tile != null) {
+					graphics.drawImage(tile, column * TILE_SIZE, row * TILE_SIZE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Discard the tiles overlapping a damaged region.
+	 * @param damage Damaged region in absolute coordinates, or {@code null} to discard all tiles
+	 */
+	private void invalidateTiles (Rectangle damage) {
+		if (tiles == null) {
+			return;
+		}
+		if (damage == null) {
+			clearTiles();
+			return;
+		}
+		Rectangle region = damage.getCopy();
+		translateToRelative(region);
+		int firstColumn = tileIndex(region.x);
+		int lastColumn = tileIndex(region.right() - 1);
+		int firstRow = tileIndex(region.y);
+		int lastRow = tileIndex(region.bottom() - 1);
+		Iterator<Map.Entry<TileKey, Image>> iter = tiles.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<TileKey, Image> entry = iter.next();
+			TileKey key = entry.getKey();
+			if (key.layer == this && key.column >= firstColumn && key.column <= lastColumn &&
+					key.row >= firstRow && key.row <= lastRow) {
+				disposeTile(entry.getValue());
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Discard all tiles of this layer.
+	 */
+	private void clearTiles () {
+		if (tiles == null) {
+			return;
+		}
+		Iterator<Map.Entry<TileKey, Image>> iter = tiles.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<TileKey, Image> entry = iter.next();
+			if (entry.getKey().layer == this) {
+				disposeTile(entry.getValue());
+				iter.remove();
+			}
+		}
+	}
+
+	private static void disposeTile (Image tile) {
+		if (tile != null && !tile.isDisposed()) {
+			tile.dispose();
+		}
+	}
+
+	private boolean isInLayer (IFigure figure) {
+		for (IFigure walker = figure; walker != null; walker = walker.getParent()) {
+			if (walker == this) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Render the children of this layer in a tile.
+	 * @param state Graphics whose colours and font are used as the initial state
+	 * @return Tile image with transparency, or {@code null} if nothing was drawn in the tile
+	 */
+	private Image renderTile (Graphics state, int column, int row) {
+		Display display = Display.getCurrent();
+		Rectangle tileBounds = new Rectangle(column * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+		boolean empty = true;
+		for (Object child : getChildren()) {
+			if (((IFigure)child).isVisible() && ((IFigure)child).getBounds().intersects(tileBounds)) {
+				empty = false;
+				break;
+			}
+		}
+		if (empty) {
+			return null;
+		}
+
+		ImageData onBlack = paintTile(display, state, tileBounds, display.getSystemColor(SWT.COLOR_BLACK));
+		ImageData onWhite = paintTile(display, state, tileBounds, display.getSystemColor(SWT.COLOR_WHITE));
+		ImageData result = new ImageData(TILE_SIZE, TILE_SIZE, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF));
+		result.alphaData = new byte[TILE_SIZE * TILE_SIZE];
+		int[] blackRow = new int[TILE_SIZE];
+		int[] whiteRow = new int[TILE_SIZE];
+		int[] resultRow = new int[TILE_SIZE];
+		boolean drawn = false;
+		for (int y = 0; y < TILE_SIZE; y++) {
+			onBlack.getPixels(0, y, TILE_SIZE, blackRow, 0);
+			onWhite.getPixels(0, y, TILE_SIZE, whiteRow, 0);
+			toRGB(onBlack.palette, blackRow);
+			toRGB(onWhite.palette, whiteRow);
+			for (int x = 0; x < TILE_SIZE; x++) {
+				int black = blackRow[x];
+				int white = whiteRow[x];
+				int blackRed = (black >> 16) & 0xFF;
+				int blackGreen = (black >> 8) & 0xFF;
+				int blackBlue = black & 0xFF;
+				// Over black, a pixel of colour c and opacity a comes out as a*c; over white, as a*c + (1 - a)*255.
+				int difference = (((white >> 16) & 0xFF) - blackRed + ((white >> 8) & 0xFF) - blackGreen +
+						(white & 0xFF) - blackBlue) / 3;
+				int alpha = 255 - Math.max(0, Math.min(255, difference));
+				if (alpha > 0) {
+					drawn = true;
+					resultRow[x] = (unpremultiply(blackRed, alpha) << 16) | (unpremultiply(blackGreen, alpha) << 8) |
+							unpremultiply(blackBlue, alpha);
+				} else {
+					resultRow[x] = 0;
+				}
+				result.alphaData[y * TILE_SIZE + x] = (byte)alpha;
+			}
+			result.setPixels(0, y, TILE_SIZE, resultRow, 0);
+		}
+		return drawn ? new Image(display, result) : null;
+	}
+
+	/**
+	 * Paint the children of this layer in a tile over a solid background.
+	 */
+	private ImageData paintTile (Display display, Graphics state, Rectangle tileBounds, Color background) {
+		Image image = new Image(display, tileBounds.width, tileBounds.height);
+		try {
+			GC gc = new GC(image);
+			SWTGraphics graphics = new SWTGraphics(gc);
+			try {
+				graphics.setBackgroundColor(background);
+				graphics.fillRectangle(0, 0, tileBounds.width, tileBounds.height);
+				graphics.setBackgroundColor(state.getBackgroundColor());
+				graphics.setForegroundColor(state.getForegroundColor());
+				graphics.setFont(state.getFont());
+				graphics.translate(-tileBounds.x, -tileBounds.y);
+				graphics.clipRect(tileBounds);
+				super.paintChildren(graphics);
+			} finally {
+				graphics.dispose();
+				gc.dispose();
+			}
+			return image.getImageData();
+		} finally {
+			image.dispose();
+		}
+	}
+
+	/**
+	 * Convert a row of pixel values to 0xRRGGBB form in place, without allocating an {@link RGB} per pixel.
+	 */
+	private static void toRGB (PaletteData palette, int[] pixels) {
+		if (palette.isDirect) {
+			for (int i = 0; i < pixels.length; i++) {
+				int pixel = pixels[i];
+				pixels[i] = (component(pixel, palette.redMask, palette.redShift) << 16) |
+						(component(pixel, palette.greenMask, palette.greenShift) << 8) |
+						component(pixel, palette.blueMask, palette.blueShift);
+			}
+		} else {
+			RGB[] colors = palette.colors;
+			for (int i = 0; i < pixels.length; i++) {
+				RGB rgb = colors[pixels[i]];
+				pixels[i] = (rgb.red << 16) | (rgb.green << 8) | rgb.blue;
+			}
+		}
+	}
+
+	/**
+	 * Extract an 8-bit colour component from a direct pixel value (cf. {@link PaletteData#getRGB(int)}).
+	 */
+	private static int component (int pixel, int mask, int shift) {
+		int value = pixel & mask;
+		return ((shift < 0) ? value >>> -shift : value << shift) & 0xFF;
+	}
+
+	private static int unpremultiply (int component, int alpha) {
+		return Math.min(255, component * 255 / alpha);
+	}
+
+	private static int tileIndex (int coordinate) {
+		// Freeform coordinates can be negative; round down.
+		return (int)Math.floor((double)coordinate / TILE_SIZE);
+	}
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.draw2d.geometry.PointList;
+
+/**
+ * Content-addressed pool for bulky immutable shape content (note text and sketch point lists). When the
+ * same content is read many times (e.g., a sketch that has been pasted into many files), the pool returns
+ * a single shared instance for all copies. Entries are looked up by a hash of their content and checked
+ * for equality, and are dropped once no shape uses them any more.
+ * <p>
+ * Values returned by the pool are shared, so they must never be modified. (Shapes that keep pooled values
+ * copy them before handing them out or changing them.)
+ * </p>
+ * @author Alex Bradley
+ */
+public final class CollageContentPool {
+	/**
+	 * Pool entry. Holds its value weakly, and its key so that it can be removed once the value is gone.
+	 */
+	private static final class PoolEntry extends WeakReference<Object> {
+		final Long key;
+
+		PoolEntry (Long key, Object value, ReferenceQueue<Object> queue) {
+			super(value, queue);
+			this.key = key;
+		}
+	}
+
+	private static final Map<Long, PoolEntry> entries = new HashMap<Long, PoolEntry>();
+	private static final ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final long TEXT_TAG = 1;
+	private static final long POINTS_TAG = 2;
+
+	private CollageContentPool () { }
+
+	/**
+	 * Get the pooled instance of a string.
+	 * @param text A string; may be {@code null}
+	 * @return A string equal to {@code text} (possibly {@code text} itself)
+	 */
+	public static String internText (String text) {
+		if (text == null) {
+			return null;
+		}
+		long hash = FNV_OFFSET_BASIS ^ TEXT_TAG;
+		for (int i = 0; i < text.length(); i++) {
+			hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+		}
+		synchronized (entries) {
+			Object pooled = lookup(hash);
+			if (pooled instanceof String && pooled.equals(text)) {
+				return (String)pooled;
+			}
+			store(hash, pooled, text);
+		}
+		return text;
+	}
+
+	/**
+	 * Get the pooled instance of a point list. The returned list must not be modified.
+	 * @param points A point list
+	 * @return A point list with the same points as {@code points} (possibly {@code points} itself)
+	 */
+	public static PointList internPoints (PointList points) {
+		int[] coordinates = points.toIntArray();
+		long hash = FNV_OFFSET_BASIS ^ POINTS_TAG;
+		for (int coordinate : coordinates) {
+			hash = (hash ^ coordinate) * FNV_PRIME;
+		}
+		synchronized (entries) {
+			Object pooled = lookup(hash);
+			if (pooled instanceof PointList && Arrays.equals(((PointList)pooled).toIntArray(), coordinates)) {
+				return (PointList)pooled;
+			}
+			store(hash, pooled, points);
+		}
+		return points;
+	}
+
+	private static Object lookup (long hash) {
+		for (Object ref = collected.poll(); ref != null; ref = collected.poll()) {
+			PoolEntry entry = (PoolEntry)ref;
+			if (entries.get(entry.key) == entry) {
+				entries.remove(entry.key);
+			}
+		}
+		PoolEntry entry = entries.get(hash);
+		return (entry != null) ? entry.get() : null;
+	}
+
+	private static void store (long hash, Object pooled, Object value) {
+		// On a hash collision with live content, keep the existing entry; the new value just isn't shared.
+		if (pooled == null) {
+			Long key = Long.valueOf(hash);
+			entries.put(key, new PoolEntry(key, value, collected));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.draw2d.geometry.Point;
+import org.eclipse.draw2d.geometry.PointList;
+
+/**
+ * Input stream for data written by {@link CollageDataOutput}. Each {@code read} method reads what the
+ * corresponding {@code write} method wrote.
+ * @author Alex Bradley
+ */
+public class CollageDataInput {
+	private final InputStream in;
+	private final List<Object> sharedReferences = new ArrayList<Object>();
+
+	public CollageDataInput (InputStream in) {
+		this.in = in;
+	}
+
+	public int readByte () throws IOException {
+		int value = in.read();
+		if (value < 0) {
+			throw new EOFException();
+		}
+		return value;
+	}
+
+	public boolean readBoolean () throws IOException {
+		return readByte() != 0;
+	}
+
+	public int readVarInt () throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	public long readVarLong () throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = readByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+	public int readSignedVarInt () throws IOException {
+		int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public long readSignedVarLong () throws IOException {
+		long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	public String readString () throws IOException {
+		int length = readVarInt();
+		if (length == 0) {
+			return null;
+		}
+		return new String(readFully(length - 1), CollageDataOutput.UTF8);
+	}
+
+	public byte[] readBytes () throws IOException {
+		return readFully(readVarInt());
+	}
+
+	public String readInternedString () throws IOException {
+		int ref = readSharedReference();
+		if (ref >= 0) {
+			return (String)getSharedReference(ref);
+		}
+		String value = readString();
+		addSharedReference(value);
+		return value;
+	}
+
+	/**
+	 * Read what {@link CollageDataOutput#writeSharedReference(Object)} wrote.
+	 * @return Index of the referenced value (to pass to {@link #getSharedReference(int)}), or -1 if the
+	 * value itself follows in the stream. In the latter case, the caller must read the value and then pass
+	 * it to {@link #addSharedReference(Object)}.
+	 */
+	public int readSharedReference () throws IOException {
+		int ref = readVarInt();
+		if (ref > sharedReferences.size()) {
+			throw new IOException("Invalid back-reference " + ref);
+		}
+		return ref - 1;
+	}
+
+	public Object getSharedReference (int index) {
+		return sharedReferences.get(index);
+	}
+
+	public void addSharedReference (Object value) {
+		sharedReferences.add(value);
+	}
+
+	public Point readPoint () throws IOException {
+		int x = readSignedVarInt();
+		return new Point(x, readSignedVarInt());
+	}
+
+	public PointList readPointList () throws IOException {
+		int size = readVarInt();
+		PointList points = new PointList(size);
+		int x = 0;
+		int y = 0;
+		for (int i = 0; i < size; i++) {
+			x += readSignedVarInt();
+			y += readSignedVarInt();
+			points.addPoint(x, y);
+		}
+		return points;
+	}
+
+	private byte[] readFully (int length) throws IOException {
+		if (length < 0) {
+			throw new IOException("Invalid length " + length);
+		}
+		byte[] bytes = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int count = in.read(bytes, offset, length - offset);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			offset += count;
+		}
+		return bytes;
+	}
+}
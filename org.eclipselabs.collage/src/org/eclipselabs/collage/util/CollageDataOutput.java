@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.draw2d.geometry.Point;
+import org.eclipse.draw2d.geometry.PointList;
+
+/**
+ * <p>Output stream for the compact binary form of Collage data. Integers are written as variable-length
+ * quantities (7 bits per byte, least significant group first), so small values take a single byte; signed
+ * values are zigzag-encoded first so that small negative values are small as well. Strings are written as
+ * length-prefixed UTF-8.</p>
+ *
+ * <p>Values that recur many times in a stream (such as creator names) can be written with
+ * {@link #writeSharedReference(Object)}, which writes a short back-reference for every occurrence after
+ * the first. The matching {@link CollageDataInput} must read the stream in the same order.</p>
+ * @author Alex Bradley
+ */
+public class CollageDataOutput {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final OutputStream out;
+	private final Map<Object, Integer> sharedReferences = new HashMap<Object, Integer>();
+
+	public CollageDataOutput (OutputStream out) {
+		this.out = out;
+	}
+
+	public void writeByte (int value) throws IOException {
+		out.write(value);
+	}
+
+	public void writeBoolean (boolean value) throws IOException {
+		out.write(value ? 1 : 0);
+	}
+
+	/**
+	 * Write a non-negative integer as a variable-length quantity.
+	 * @param value Integer to write; negative values are written correctly but take 5 bytes
+	 */
+	public void writeVarInt (int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Write a non-negative long as a variable-length quantity.
+	 * @param value Long to write; negative values are written correctly but take 10 bytes
+	 */
+	public void writeVarLong (long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	/**
+	 * Write a signed integer as a zigzag-encoded variable-length quantity.
+	 */
+	public void writeSignedVarInt (int value) throws IOException {
+		writeVarInt((value << 1) ^ (value >> 31));
+	}
+
+	/**
+	 * Write a signed long as a zigzag-encoded variable-length quantity.
+	 */
+	public void writeSignedVarLong (long value) throws IOException {
+		writeVarLong((value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Write a string (which may be {@code null}) as length-prefixed UTF-8.
+	 */
+	public void writeString (String value) throws IOException {
+		if (value == null) {
+			writeVarInt(0);
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			writeVarInt(bytes.length + 1);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Write a length-prefixed byte array.
+	 */
+	public void writeBytes (byte[] bytes) throws IOException {
+		writeVarInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Write a string that is likely to recur in this stream. Occurrences after the first take one or two bytes.
+	 * @param value String to write; may be {@code null}
+	 */
+	public void writeInternedString (String value) throws IOException {
+		if (!writeSharedReference(value == null ? NullKey.INSTANCE : value)) {
+			writeString(value);
+		}
+	}
+
+	/**
+	 * Write a back-reference to a value that has already been written to this stream. If the value has not
+	 * been written yet, a marker is written instead and the caller must then write the value itself; later
+	 * calls with an equal value will write a back-reference. Readers use {@link CollageDataInput#readSharedReference()}
+	 * and {@link CollageDataInput#addSharedReference(Object)} to match.
+	 * @param value Value to refer to; compared with {@link Object#equals(Object)}
+	 * @return {@code true} if a back-reference was written, {@code false} if the caller must write the value
+	 */
+	public boolean writeSharedReference (Object value) throws IOException {
+		Integer index = sharedReferences.get(value);
+		if (index != null) {
+			writeVarInt(index + 1);
+			return true;
+		}
+		sharedReferences.put(value, sharedReferences.size());
+		writeVarInt(0);
+		return false;
+	}
+
+	public void writePoint (Point point) throws IOException {
+		writePoint(point.x(), point.y());
+	}
+
+	/**
+	 * Write a point given by its coordinates, in the same form as {@link #writePoint(Point)}.
+	 * @param x x coordinate
+	 * @param y y coordinate
+	 * @throws IOException if writing fails
+	 */
+	public void writePoint (int x, int y) throws IOException {
+		writeSignedVarInt(x);
+		writeSignedVarInt(y);
+	}
+
+	/**
+	 * Write a point list. Each point is written as the difference from the previous point, which keeps
+	 * freehand sketches (where consecutive points are close together) to about two bytes per point.
+	 */
+	public void writePointList (PointList points) throws IOException {
+		int size = points.size();
+		writeVarInt(size);
+		int x = 0;
+		int y = 0;
+		Point point = new Point();
+		for (int i = 0; i < size; i++) {
+			points.getPoint(point, i);
+			writeSignedVarInt(point.x() - x);
+			writeSignedVarInt(point.y() - y);
+			x = point.x();
+			y = point.y();
+		}
+	}
+
+	/**
+	 * Key standing in for {@code null} in the shared reference table.
+	 */
+	static final class NullKey {
+		static final NullKey INSTANCE = new NullKey();
+	}
+}
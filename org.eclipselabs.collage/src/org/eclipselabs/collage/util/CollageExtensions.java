@@ -21,6 +21,9 @@ import java.util.TreeMap;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IExtension;
+import org.eclipse.core.runtime.IExtensionPoint;
+import org.eclipse.core.runtime.IRegistryEventListener;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
@@ -62,6 +65,94 @@ public final class CollageExtensions {
 	
 	private static final String WARNING_MISSING_MODEL_PLUGIN = "Stored data depends on plugin %s, which is not installed.";
 	private static final String WARNING_NEWER_PLUGIN_MODEL_VERSION = "Version of plugin %s that exported stored data (%s) exceeds current version (%s)."; 
+
+	/**
+	 * Tables built from the contributions to the model extension point. Building them requires loading
+	 * classes from the contributing plugins, so they are built once and reused until the contributions change.
+	 */
+	private static class ModelTables {
+		final int generation;
+		final Map<Class<?>, Class<?>> controllers = new HashMap<Class<?>, Class<?>>();
+		final Map<Class<?>, Class<?>> treeControllers = new HashMap<Class<?>, Class<?>>();
+		final Map<Class<?>, String> modelExtensions = new HashMap<Class<?>, String>();
+		final Map<String, Class<?>> modelClassesByName = new HashMap<String, Class<?>>();
+		final List<PluginDependency> dependencies = new ArrayList<PluginDependency>();
+
+		ModelTables (int generation) {
+			this.generation = generation;
+			// Start with Collage itself
+			dependencies.add(new PluginDependency(CollageActivator.PLUGIN_ID, ModelElement.COLLAGE_MODEL_VERSION.toString()));
+
+			IConfigurationElement[] confElts = Platform.getExtensionRegistry().getConfigurationElementsFor(CollageActivator.PLUGIN_ID, EXTENSION_ID_MODEL);
+			for (IConfigurationElement e : confElts) {
+				if (e.getName().equals(EXTENSION_ELEMENT_MODEL_VERSION)) {
+					String version = e.getAttribute(EXTENSION_PROP_MODEL_VERSION_VALUE);
+					dependencies.add(new PluginDependency(e.getContributor().getName(), version));
+				} else if (e.getName().equals(EXTENSION_ELEMENT_MODEL_SHAPE)) {
+					String modelClassName = e.getAttribute(EXTENSION_PROP_MODEL_CLASS);
+					Class<?> modelClass;
+					try {
+						modelClass = loadExtensionClass(e, EXTENSION_PROP_MODEL_CLASS);
+					} catch (CoreException e1) {
+						CollageUtilities.showError(CollageActivator.PLUGIN_NAME, 
+								String.format("Unable to load contributed model class %s from extension %s. See stack trace for details.",
+										modelClassName, e.getContributor().getName()));
+						e1.printStackTrace();
+						continue;
+					}
+					if (modelClass == null) {
+						continue;
+					}
+					modelExtensions.put(modelClass, e.getContributor().getName());
+					modelClassesByName.put(modelClass.getName(), modelClass);
+					addController(e, modelClass, EXTENSION_PROP_MODEL_CONTROLLER_CLASS, controllers);
+					addController(e, modelClass, EXTENSION_PROP_MODEL_TREE_CONTROLLER_CLASS, treeControllers);
+				}
+			}
+		}
+
+		private static void addController (IConfigurationElement e, Class<?> modelClass, String controllerClassAttrib, 
+				Map<Class<?>, Class<?>> classes) {
+			try {
+				Class<?> controllerClass = loadExtensionClass(e, controllerClassAttrib);
+				if (controllerClass != null) {
+					classes.put(modelClass, controllerClass);
+				}
+			} catch (CoreException e1) {
+				CollageUtilities.showError(CollageActivator.PLUGIN_NAME, 
+						String.format("Unable to load contributed model/controller pair (%s, %s) from extension %s. See stack trace for details.",
+								modelClass.getName(), e.getAttribute(controllerClassAttrib), e.getContributor().getName()));
+				e1.printStackTrace();
+			}
+		}
+	}
+
+	/** Discards the model tables when model extensions are added or removed. */
+	private static final IRegistryEventListener REGISTRY_LISTENER = new IRegistryEventListener() {
+		@Override
+		public void added(IExtension[] extensions) {
+			invalidateModelTables();
+		}
+
+		@Override
+		public void removed(IExtension[] extensions) {
+			invalidateModelTables();
+		}
+
+		@Override
+		public void added(IExtensionPoint[] extensionPoints) {
+			invalidateModelTables();
+		}
+
+		@Override
+		public void removed(IExtensionPoint[] extensionPoints) {
+			invalidateModelTables();
+		}
+	};
+
+	private static final Object MODEL_TABLES_LOCK = new Object();
+	private static volatile ModelTables modelTables;
+	private static int modelGeneration = 0;
 	
 	/**
 	 * Add {@link ToolItem}s for GEF tools contributed by extensions.
@@ -156,7 +247,16 @@ public final class CollageExtensions {
 	 * @return Collection of model classes
 	 */
 	public static Collection<Class<?>> getExtensionModelClasses () {
-		return Collections.unmodifiableSet(getExtensionModelControllerMap(false).keySet());
+		return Collections.unmodifiableSet(getModelTables().modelExtensions.keySet());
+	}
+
+	/**
+	 * Look up a model class provided by an extension by name.
+	 * @param className Fully qualified class name
+	 * @return Model class, or {@code null} if no extension provides a model class with the given name
+	 */
+	public static Class<?> getExtensionModelClass (String className) {
+		return getModelTables().modelClassesByName.get(className);
 	}
 
 	/**
@@ -191,16 +291,9 @@ public final class CollageExtensions {
 	 */
 	public static List<PluginDependency> getModelPluginDependencies () {
 		List<PluginDependency> dependencies = new ArrayList<PluginDependency>();
-		
-		// Start with Collage itself
-		dependencies.add(new PluginDependency(CollageActivator.PLUGIN_ID, ModelElement.COLLAGE_MODEL_VERSION.toString()));
-		
-		IConfigurationElement[] confElts = Platform.getExtensionRegistry().getConfigurationElementsFor(CollageActivator.PLUGIN_ID, EXTENSION_ID_MODEL);
-		for (IConfigurationElement e : confElts) {
-			if (e.getName().equals(EXTENSION_ELEMENT_MODEL_VERSION)) {
-				String version = e.getAttribute(EXTENSION_PROP_MODEL_VERSION_VALUE);
-				dependencies.add(new PluginDependency(e.getContributor().getName(), version));
-			}
+		for (PluginDependency dependency : getModelTables().dependencies) {
+			// Copy, since callers may modify the dependencies (e.g., to mark them missing.)
+			dependencies.add(new PluginDependency(dependency.getPluginID(), dependency.getVersion()));
 		}
 		return dependencies;
 	}
@@ -211,54 +304,77 @@ public final class CollageExtensions {
 	 * @return Map with keys being model element classes and values being corresponding controllers (edit parts) 
 	 */
 	public static Map<Class<?>, Class<?>> getExtensionModelControllerMap (boolean useTreeControllers) {
-		String controllerClassAttrib = useTreeControllers ? EXTENSION_PROP_MODEL_TREE_CONTROLLER_CLASS
-				                                          : EXTENSION_PROP_MODEL_CONTROLLER_CLASS;
-		IConfigurationElement[] confElts = Platform.getExtensionRegistry().getConfigurationElementsFor(CollageActivator.PLUGIN_ID, EXTENSION_ID_MODEL);
-		Map<Class<?>, Class<?>> classes = new HashMap<Class<?>,Class<?>>();
-		for (IConfigurationElement e : confElts) {
-			if (e.getName().equals(EXTENSION_ELEMENT_MODEL_SHAPE)) {
-				String modelClassName = e.getAttribute(EXTENSION_PROP_MODEL_CLASS);
-				String controllerClassName = e.getAttribute(controllerClassAttrib);
-
-				if (controllerClassName != null) {
-					try {
-						Class<?> modelClass = e.createExecutableExtension(EXTENSION_PROP_MODEL_CLASS).getClass();
-						Class<?> controllerClass = e.createExecutableExtension(controllerClassAttrib).getClass();
-						classes.put(modelClass, controllerClass);
-					} catch (CoreException e1) {
-						CollageUtilities.showError(CollageActivator.PLUGIN_NAME, 
-								String.format("Unable to load contributed model/controller pair (%s, %s) from extension %s. See stack trace for details.",
-										modelClassName, controllerClassName, e.getContributor().getName()));
-						e1.printStackTrace();
-					}
-				}
-			}
-		}
-		
-		return Collections.unmodifiableMap(classes);
+		ModelTables tables = getModelTables();
+		return Collections.unmodifiableMap(useTreeControllers ? tables.treeControllers : tables.controllers);
 	}
 	
 	/**
 	 * Get mappings between model element classes and the IDs of the extensions that define them.
 	 */
 	public static Map<Class<?>, String> getModelExtensionMap () {
-		IConfigurationElement[] confElts = Platform.getExtensionRegistry().getConfigurationElementsFor(CollageActivator.PLUGIN_ID, EXTENSION_ID_MODEL);
-		Map<Class<?>, String> classExtensions = new HashMap<Class<?>, String>();
-		for (IConfigurationElement e : confElts) {
-			if (e.getName().equals(EXTENSION_ELEMENT_MODEL_SHAPE)) {
-				try {
-					Class<?> modelClass = e.createExecutableExtension(EXTENSION_PROP_MODEL_CLASS).getClass();
-					classExtensions.put(modelClass, e.getContributor().getName());
-				} catch (CoreException e1) {
-					// Ignore.
+		return Collections.unmodifiableMap(getModelTables().modelExtensions);
+	}
+
+	/**
+	 * Get a number that changes whenever contributions to the model extension point change (and the
+	 * tables returned by this class are rebuilt.) Allows clients to cache data derived from the
+	 * model extensions, such as a JAXB context.
+	 * @return Model extension generation
+	 */
+	public static int getModelGeneration () {
+		return getModelTables().generation;
+	}
+
+	/**
+	 * Start discarding cached model extension tables when model extensions are added or removed.
+	 * Called when the Collage plugin starts.
+	 */
+	public static void addRegistryListener () {
+		Platform.getExtensionRegistry().addListener(REGISTRY_LISTENER, CollageActivator.PLUGIN_ID + "." + EXTENSION_ID_MODEL);
+	}
+
+	/**
+	 * Stop listening for model extension changes. Called when the Collage plugin stops.
+	 */
+	public static void removeRegistryListener () {
+		Platform.getExtensionRegistry().removeListener(REGISTRY_LISTENER);
+		invalidateModelTables();
+	}
+
+	private static void invalidateModelTables () {
+		synchronized (MODEL_TABLES_LOCK) {
+			modelTables = null;
+		}
+	}
+
+	private static ModelTables getModelTables () {
+		ModelTables tables = modelTables;
+		if (tables == null) {
+			synchronized (MODEL_TABLES_LOCK) {
+				if (modelTables == null) {
+					modelTables = new ModelTables(++modelGeneration);
 				}
+				tables = modelTables;
 			}
 		}
-		
-		return Collections.unmodifiableMap(classExtensions);
+		return tables;
+	}
+
+	/**
+	 * Get the class of the object created for an extension attribute. The object is created with
+	 * {@link IConfigurationElement#createExecutableExtension(String)}, so the full attribute syntax
+	 * (including {@code class:data} and {@link org.eclipse.core.runtime.IExecutableExtensionFactory}s) is
+	 * supported; the model tables are built once, so this only happens when the contributions change.
+	 * @return Class, or {@code null} if the attribute is not set
+	 * @throws CoreException if the object cannot be created
+	 */
+	private static Class<?> loadExtensionClass (IConfigurationElement e, String attribute) throws CoreException {
+		if (e.getAttribute(attribute) == null) {
+			return null;
+		}
+		return e.createExecutableExtension(attribute).getClass();
 	}
 
-	
 	/**
 	 * <p>Given a list of current model dependencies for this plugin and a list of loaded model dependencies 
 	 * from a previously saved file, return a list that contains all the dependencies from both input lists.</p>
@@ -162,7 +162,17 @@ public class CollageUtilities {
 	 * @return String representing the given point.
 	 */
 	public static String pointToString (Point point) {
-		return "(" + point.x() + ", " + point.y() + ")";
+		return pointToString(point.x(), point.y());
+	}
+
+	/**
+	 * Convert point coordinates to a string, in the same format as {@link #pointToString(Point)}.
+	 * @param x x coordinate
+	 * @param y y coordinate
+	 * @return String representation of the point
+	 */
+	public static String pointToString (int x, int y) {
+		return "(" + x + ", " + y + ")";
 	}
 	
 	/**
@@ -241,27 +251,13 @@ public class CollageUtilities {
 	 * @param lineNumber 1-based line number in {@code textViewer}'s document
 	 * @return Top pixel for {@code line} in {@code textViewer}'s widget, using a coordinate system with origin 
 	 * located at the top left pixel of the first (0th) line in the text widget
+	 * @see LinePixelCache
 	 */
 	public static int getCurrentTopPixelForDocumentLine (ITextViewer textViewer, int lineNumber) {
 		StyledText textWidget = textViewer.getTextWidget();
 		Assert.isLegal(textWidget != null && !textWidget.isDisposed());
-		
-		// Convert 1-based line to 0-based line
-		lineNumber--;
-		
-		int widgetLineNumber;
-		if (textViewer instanceof ITextViewerExtension5) {
-			widgetLineNumber = -1;
-			while (widgetLineNumber == -1 && lineNumber >= 0) {
-				// If the document line isn't currently in view, try to find a previous visible line
-				widgetLineNumber = ((ITextViewerExtension5)textViewer).modelLine2WidgetLine(lineNumber);
-				lineNumber--;
-			}
-		} else {
-			widgetLineNumber = lineNumber;
-		}
-		
-		return textWidget.getTopPixel() + textWidget.getLinePixel(widgetLineNumber);
+		// If the document line isn't currently in view, the cache uses the nearest visible line above it.
+		return LinePixelCache.getCache(textViewer).getTopPixel(lineNumber);
 	}
 	
 	/**
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * <p>Interval tree over the line ranges of a set of values (e.g., the shapes of a resource), answering
+ * "which values overlap these lines?" in O(log n + k) time. Values are compared by identity. Values
+ * without a line range match every query.</p>
+ *
+ * <p>Realized as a treap ordered by first line, in which each node also records the greatest last line
+ * in its subtree. Query results are returned in the order in which their values were first added, so
+ * an index over a list that is only ever appended to returns values in list order.</p>
+ *
+ * <p>Not thread-safe.</p>
+ * @param <T> Type of indexed values
+ * @author Alex Bradley
+ */
+public final class LineIntervalIndex<T> {
+	private static final class Node<T> {
+		final T value;
+		final int first;
+		final int last;
+		/** Sequence number of the value's first insertion, used to order results and break ties. */
+		final long order;
+		final int priority;
+		/** Greatest last line in the subtree rooted at this node. */
+		int maxLast;
+		Node<T> left;
+		Node<T> right;
+
+		Node (T value, int first, int last, long order, int priority) {
+			this.value = value;
+			this.first = first;
+			this.last = last;
+			this.order = order;
+			this.priority = priority;
+			this.maxLast = last;
+		}
+	}
+
+	private static final Comparator<Node<?>> INSERTION_ORDER = new Comparator<Node<?>>() {
+		@Override
+		public int compare(Node<?> a, Node<?> b) {
+			return (a.order < b.order) ? -1 : ((a.order == b.order) ? 0 : 1);
+		}
+	};
+
+	private final Map<T, Node<T>> nodes = new IdentityHashMap<T, Node<T>>();
+	private final Random random = new Random();
+	private Node<T> root = null;
+	private long nextOrder = 0;
+
+	/**
+	 * Add a value to the index, or update the line range of a value that is already in it. (An updated
+	 * value keeps its place in the order of results.)
+	 * @param value Value to index
+	 * @param firstLine First line of the value's range, or -1 if the value has no line range
+	 * @param lastLine Last line of the value's range (ignored if {@code firstLine} is -1)
+	 */
+	public void put (T value, int firstLine, int lastLine) {
+		Node<T> existing = nodes.remove(value);
+		long order;
+		if (existing != null) {
+			root = delete(root, existing);
+			order = existing.order;
+		} else {
+			order = nextOrder++;
+		}
+		if (firstLine < 0 || lastLine < 0) {
+			firstLine = Integer.MIN_VALUE;
+			lastLine = Integer.MAX_VALUE;
+		}
+		Node<T> node = new Node<T>(value, firstLine, lastLine, order, random.nextInt());
+		nodes.put(value, node);
+		root = insert(root, node);
+	}
+
+	/**
+	 * Remove a value from the index.
+	 * @param value Value to remove
+	 * @return true if the value was in the index
+	 */
+	public boolean remove (T value) {
+		Node<T> node = nodes.remove(value);
+		if (node == null) {
+			return false;
+		}
+		root = delete(root, node);
+		return true;
+	}
+
+	/**
+	 * Check if a value is in the index.
+	 * @param value A value
+	 * @return true if the value is in the index
+	 */
+	public boolean contains (T value) {
+		return nodes.containsKey(value);
+	}
+
+	/**
+	 * Get the number of values in the index.
+	 */
+	public int size () {
+		return nodes.size();
+	}
+
+	/**
+	 * Find the values whose line ranges overlap a range of lines, along with the values that have no line range.
+	 * @param firstLine First line of the range
+	 * @param lastLine Last line of the range (inclusive); {@link Integer#MAX_VALUE} to find all values that
+	 * end on or after {@code firstLine}
+	 * @return Matching values, in the order in which they were first added
+	 */
+	public List<T> find (int firstLine, int lastLine) {
+		List<Node<T>> found = new ArrayList<Node<T>>();
+		collect(root, firstLine, lastLine, found);
+		Collections.sort(found, INSERTION_ORDER);
+		List<T> values = new ArrayList<T>(found.size());
+		for (Node<T> node : found) {
+			values.add(node.value);
+		}
+		return values;
+	}
+
+	private static <T> void collect (Node<T> node, int firstLine, int lastLine, List<Node<T>> found) {
+		// Iterate down the right spine and recurse on the left, so the stack depth is bounded by the tree height.
+		while (node != null && node.maxLast >= firstLine) {
+			collect(node.left, firstLine, lastLine, found);
+			if (node.first > lastLine) {
+				return; // Everything to the right starts even later.
+			}
+			if (node.last >= firstLine) {
+				found.add(node);
+			}
+			node = node.right;
+		}
+	}
+
+	private static int compare (Node<?> a, Node<?> b) {
+		if (a.first != b.first) {
+			return (a.first < b.first) ? -1 : 1;
+		}
+		return INSERTION_ORDER.compare(a, b);
+	}
+
+	private static <T> Node<T> insert (Node<T> node, Node<T> added) {
+		if (node == null) {
+			return added;
+		}
+		if (compare(added, node) < 0) {
+			node.left = insert(node.left, added);
+			if (node.left.priority > node.priority) {
+				node = rotateRight(node);
+			}
+		} else {
+			node.right = insert(node.right, added);
+			if (node.right.priority > node.priority) {
+				node = rotateLeft(node);
+			}
+		}
+		update(node);
+		return node;
+	}
+
+	private static <T> Node<T> delete (Node<T> node, Node<T> removed) {
+		if (node == null) {
+			return null;
+		}
+		if (node == removed) {
+			return merge(node.left, node.right);
+		}
+		if (compare(removed, node) < 0) {
+			node.left = delete(node.left, removed);
+		} else {
+			node.right = delete(node.right, removed);
+		}
+		update(node);
+		return node;
+	}
+
+	/**
+	 * Merge two treaps, where every node of {@code a} precedes every node of {@code b}.
+	 */
+	private static <T> Node<T> merge (Node<T> a, Node<T> b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		}
+		b.left = merge(a, b.left);
+		update(b);
+		return b;
+	}
+
+	private static <T> Node<T> rotateRight (Node<T> node) {
+		Node<T> pivot = node.left;
+		node.left = pivot.right;
+		pivot.right = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	private static <T> Node<T> rotateLeft (Node<T> node) {
+		Node<T> pivot = node.right;
+		node.right = pivot.left;
+		pivot.left = node;
+		update(node);
+		update(pivot);
+		return pivot;
+	}
+
+	private static void update (Node<?> node) {
+		int maxLast = node.last;
+		if (node.left != null && node.left.maxLast > maxLast) {
+			maxLast = node.left.maxLast;
+		}
+		if (node.right != null && node.right.maxLast > maxLast) {
+			maxLast = node.right.maxLast;
+		}
+		node.maxLast = maxLast;
+	}
+}
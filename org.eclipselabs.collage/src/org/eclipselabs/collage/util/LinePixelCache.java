@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.util;
+
+import java.util.Arrays;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextListener;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.ITextViewerExtension5;
+import org.eclipse.jface.text.TextEvent;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.events.ControlAdapter;
+import org.eclipse.swt.events.ControlEvent;
+import org.eclipse.swt.events.ControlListener;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+
+/**
+ * <p>Per-viewer cache of the top pixels of document lines (see
+ * {@link CollageUtilities#getCurrentTopPixelForDocumentLine(ITextViewer, int)}), so that the corners of
+ * every shape don't each need a projection lookup and a {@link StyledText#getLinePixel(int)} call on
+ * every refresh. The cache is stored in the text widget (see {@link StyledText#setData(String, Object)})
+ * and is cleared whenever the widget's text or projection changes or the widget is resized. The cached
+ * pixels are relative to the top of the document, not of the viewport, so they survive scrolling. As a
+ * safeguard against listeners that run before the cache's own, it is also cleared if the line count,
+ * character count or line height of the widget has changed.</p>
+ *
+ * <p>Lines hidden by the projection (e.g., inside a collapsed fold) are resolved to the nearest visible
+ * line above them by binary search over the widget lines, instead of by trying each line above in turn.</p>
+ *
+ * <p>Must be used from the UI thread.</p>
+ * @author Alex Bradley
+ */
+public final class LinePixelCache {
+	private static final String DATA_KEY = LinePixelCache.class.getName();
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+
+	private final ITextViewer textViewer;
+	private final StyledText textWidget;
+
+	/** Top pixels of 0-based document lines, or {@link #UNKNOWN}. */
+	private int[] pixels = new int[0];
+	private boolean valid = false;
+	private int widgetLineCount;
+	private int widgetCharCount;
+	private int widgetLineHeight;
+
+	private final ITextListener textListener = new ITextListener() {
+		@Override
+		public void textChanged(TextEvent event) {
+			// Also sent when the projection changes (e.g., a fold is collapsed or expanded.)
+			valid = false;
+		}
+	};
+
+	private final ControlListener controlListener = new ControlAdapter() {
+		@Override
+		public void controlResized(ControlEvent e) {
+			// Lines may be wrapped differently.
+			valid = false;
+		}
+	};
+
+	private LinePixelCache (ITextViewer textViewer, StyledText textWidget) {
+		this.textViewer = textViewer;
+		this.textWidget = textWidget;
+		textViewer.addTextListener(textListener);
+		textWidget.addControlListener(controlListener);
+		textWidget.addDisposeListener(new DisposeListener() {
+			@Override
+			public void widgetDisposed(DisposeEvent e) {
+				LinePixelCache.this.textViewer.removeTextListener(textListener);
+			}
+		});
+	}
+
+	/**
+	 * Get the line pixel cache of a text viewer, creating it if necessary.
+	 * @param textViewer A text viewer with an undisposed text widget
+	 * @return Line pixel cache of {@code textViewer}
+	 */
+	public static LinePixelCache getCache (ITextViewer textViewer) {
+		StyledText textWidget = textViewer.getTextWidget();
+		Object data = textWidget.getData(DATA_KEY);
+		if (data instanceof LinePixelCache && ((LinePixelCache)data).textViewer == textViewer) {
+			return (LinePixelCache)data;
+		}
+		LinePixelCache cache = new LinePixelCache(textViewer, textWidget);
+		textWidget.setData(DATA_KEY, cache);
+		return cache;
+	}
+
+	/**
+	 * Get the top pixel of a document line in the text widget. Equivalent to
+	 * {@link CollageUtilities#getCurrentTopPixelForDocumentLine(ITextViewer, int)}.
+	 * @param lineNumber 1-based line number in the viewer's document
+	 * @return Top pixel for {@code lineNumber}, using a coordinate system with origin located at the top left
+	 * pixel of the first (0th) line in the text widget
+	 */
+	public int getTopPixel (int lineNumber) {
+		validate();
+		// Convert 1-based line to 0-based line
+		int line = lineNumber - 1;
+		if (line < 0 || line >= pixels.length) {
+			return computeTopPixel(line);
+		}
+		int pixel = pixels[line];
+		if (pixel == UNKNOWN) {
+			pixel = computeTopPixel(line);
+			pixels[line] = pixel;
+		}
+		return pixel;
+	}
+
+	/**
+	 * Forget all cached pixels if the cache has been invalidated or the widget has changed.
+	 */
+	private void validate () {
+		int lineCount = textWidget.getLineCount();
+		int charCount = textWidget.getCharCount();
+		int lineHeight = textWidget.getLineHeight();
+		if (valid && lineCount == widgetLineCount && charCount == widgetCharCount && lineHeight == widgetLineHeight) {
+			return;
+		}
+		IDocument document = textViewer.getDocument();
+		int documentLines = (document != null) ? document.getNumberOfLines() : 0;
+		if (pixels.length != documentLines) {
+			pixels = new int[documentLines];
+		}
+		Arrays.fill(pixels, UNKNOWN);
+		widgetLineCount = lineCount;
+		widgetCharCount = charCount;
+		widgetLineHeight = lineHeight;
+		valid = true;
+	}
+
+	/**
+	 * @param line 0-based document line
+	 */
+	private int computeTopPixel (int line) {
+		// getLinePixel() is relative to the viewport; adding the top pixel cancels out scrolling.
+		return textWidget.getTopPixel() + textWidget.getLinePixel(getWidgetLine(line));
+	}
+
+	/**
+	 * Get the widget line of a document line. If the document line isn't currently in view, returns the
+	 * last visible line before it (or -1 if there is none.)
+	 * @param line 0-based document line
+	 * @return 0-based widget line
+	 */
+	private int getWidgetLine (int line) {
+		if (!(textViewer instanceof ITextViewerExtension5)) {
+			return line;
+		}
+		if (line < 0) {
+			return -1;
+		}
+		ITextViewerExtension5 extension = (ITextViewerExtension5)textViewer;
+		int widgetLine = extension.modelLine2WidgetLine(line);
+		if (widgetLine != -1) {
+			return widgetLine;
+		}
+		// Widget lines map to increasing document lines, so find the last widget line whose document line
+		// comes before this one.
+		int low = 0;
+		int high = textWidget.getLineCount() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midLine = extension.widgetLine2ModelLine(mid);
+			if (midLine != -1 && midLine < line) {
+				widgetLine = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return widgetLine;
+	}
+}
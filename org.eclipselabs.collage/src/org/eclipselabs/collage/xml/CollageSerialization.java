@@ -10,11 +10,18 @@
  *******************************************************************************/
 package org.eclipselabs.collage.xml;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collection;
 
 import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
 
 import org.eclipselabs.collage.model.CollageLayer;
 import org.eclipselabs.collage.model.CollageRoot;
@@ -25,18 +32,43 @@ import org.eclipselabs.collage.model.Shape;
 import org.eclipselabs.collage.model.resourceid.FileIdentifier;
 import org.eclipselabs.collage.model.resourceid.JavaClassFileIdentifier;
 import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
+import org.eclipselabs.collage.storage.StoreManifest;
+import org.eclipselabs.collage.storage.StoredShapes;
 import org.eclipselabs.collage.util.CollageExtensions;
 
 /**
- * Provides a singleton JAXB context for serializing Collage data to XML.
+ * Provides a singleton JAXB context for serializing Collage data to XML, and helpers for
+ * serializing individual shape lists (as used by the Collage store.)
  * @author Alex Bradley
  */
 public final class CollageSerialization {
 	private static final Class<?>[] COLLAGE_BASE_CLASSES = {CollageRoot.class, CollageLayer.class, ResourceShapeList.class, 
 		Shape.class, FileLinePointShapeBoundaries.class, ResourceIdentifier.class, FileIdentifier.class, JavaClassFileIdentifier.class,
-		PluginDependency.class};
+		PluginDependency.class, StoreManifest.class, StoredShapes.class};
+
+	/** Element name used when a shape list is serialized on its own. */
+	private static final QName SHAPE_LIST_ELEMENT = new QName("shapeList");
 	
+	/**
+	 * Marshaller and unmarshaller for one thread. JAXB (un)marshallers are cheap to reuse but not
+	 * thread-safe, so each thread gets its own.
+	 */
+	private static class ThreadSerializers {
+		final JAXBContext context;
+		Marshaller marshaller;
+		Marshaller fragmentMarshaller;
+		Unmarshaller unmarshaller;
+
+		ThreadSerializers (JAXBContext context) {
+			this.context = context;
+		}
+	}
+
 	private static JAXBContext context;
+	/** Model extension generation for which {@link #context} was created. */
+	private static int contextGeneration;
+
+	private static final ThreadLocal<ThreadSerializers> threadSerializers = new ThreadLocal<ThreadSerializers>();
 	
 	private CollageSerialization () { }
 	
@@ -56,14 +88,91 @@ public final class CollageSerialization {
 	}
 
 	/**
-	 * Get the singleton JAXB context.
+	 * Get the singleton JAXB context. The context is recreated if the model extensions have changed.
 	 * @return JAXB context
 	 * @throws JAXBException
 	 */
-	public static JAXBContext getJAXBContext () throws JAXBException {
-		if (context == null) {
+	public static synchronized JAXBContext getJAXBContext () throws JAXBException {
+		int generation = CollageExtensions.getModelGeneration();
+		if (context == null || contextGeneration != generation) {
 			context = createJAXBContext();
+			contextGeneration = generation;
 		}
 		return context;
 	}
+
+	/**
+	 * Get a marshaller for the JAXB context that is reserved for the calling thread. Do not change its
+	 * properties or hand it to other threads.
+	 * @return Marshaller
+	 * @throws JAXBException
+	 */
+	public static Marshaller getMarshaller () throws JAXBException {
+		ThreadSerializers serializers = getThreadSerializers();
+		if (serializers.marshaller == null) {
+			serializers.marshaller = serializers.context.createMarshaller();
+		}
+		return serializers.marshaller;
+	}
+
+	/**
+	 * Get a marshaller that writes document fragments (without an XML declaration), for use when
+	 * writing part of a larger document. Reserved for the calling thread, like {@link #getMarshaller()}.
+	 * @return Fragment marshaller
+	 * @throws JAXBException
+	 */
+	public static Marshaller getFragmentMarshaller () throws JAXBException {
+		ThreadSerializers serializers = getThreadSerializers();
+		if (serializers.fragmentMarshaller == null) {
+			serializers.fragmentMarshaller = serializers.context.createMarshaller();
+			serializers.fragmentMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+		}
+		return serializers.fragmentMarshaller;
+	}
+
+	/**
+	 * Get an unmarshaller for the JAXB context that is reserved for the calling thread. Do not change its
+	 * properties or hand it to other threads.
+	 * @return Unmarshaller
+	 * @throws JAXBException
+	 */
+	public static Unmarshaller getUnmarshaller () throws JAXBException {
+		ThreadSerializers serializers = getThreadSerializers();
+		if (serializers.unmarshaller == null) {
+			serializers.unmarshaller = serializers.context.createUnmarshaller();
+		}
+		return serializers.unmarshaller;
+	}
+
+	private static ThreadSerializers getThreadSerializers () throws JAXBException {
+		JAXBContext current = getJAXBContext();
+		ThreadSerializers serializers = threadSerializers.get();
+		if (serializers == null || serializers.context != current) {
+			serializers = new ThreadSerializers(current);
+			threadSerializers.set(serializers);
+		}
+		return serializers;
+	}
+
+	/**
+	 * Serialize a single shape list as a standalone XML document.
+	 * @param shapeList Shape list to serialize
+	 * @param os Output stream
+	 * @throws JAXBException
+	 */
+	public static void writeShapeList (ResourceShapeList shapeList, OutputStream os) throws JAXBException {
+		getMarshaller().marshal(
+				new JAXBElement<ResourceShapeList>(SHAPE_LIST_ELEMENT, ResourceShapeList.class, shapeList), os);
+	}
+
+	/**
+	 * Deserialize a shape list written by {@link #writeShapeList(ResourceShapeList, OutputStream)}. The parent
+	 * and resource of the returned list are not set.
+	 * @param is Input stream
+	 * @return Deserialized shape list
+	 * @throws JAXBException
+	 */
+	public static ResourceShapeList readShapeList (InputStream is) throws JAXBException {
+		return getUnmarshaller().unmarshal(new StreamSource(is), ResourceShapeList.class).getValue();
+	}
 }
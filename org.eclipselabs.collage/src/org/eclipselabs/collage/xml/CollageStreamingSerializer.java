@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.xml;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipselabs.collage.CollageActivator;
+import org.eclipselabs.collage.model.CollageLayer;
+import org.eclipselabs.collage.model.CollageRoot;
+import org.eclipselabs.collage.model.PluginDependency;
+import org.eclipselabs.collage.model.ResourceShapeList;
+import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
+import org.eclipselabs.collage.storage.CollageBinaryCodec;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * <p>Reads and writes Collage XML (the format of exported {@code .xcl} files) one element at a time.
+ * The document structure (root, layers, resource shape lists) is handled with StAX, and JAXB is only used
+ * for individual resource identifiers, shapes and plugin dependencies. Neither the whole document nor a
+ * second copy of the model has to be held in memory.</p>
+ *
+ * <p>The documents read and written are the same as those produced by marshalling a {@link CollageRoot}
+ * with the JAXB context from {@link CollageSerialization}.</p>
+ * @author Alex Bradley
+ */
+public final class CollageStreamingSerializer {
+	private static final String ROOT_ELEMENT = "collageRoot";
+	private static final String LAYER_ELEMENT = "layers";
+	private static final String SHAPE_LIST_MAP_ELEMENT = "resourceShapesMap";
+	private static final String MAPPING_ELEMENT = "items";
+	private static final String RESOURCE_ELEMENT = "resource";
+	private static final String SHAPE_LIST_ELEMENT = "shapeList";
+	private static final String SHAPE_ELEMENT = "shapes";
+	private static final String DEPENDENCY_ELEMENT = "dependsPlugin";
+	private static final String CURRENT_LAYER_ATTR = "currentLayerIndex";
+	private static final String NAME_ATTR = "name";
+	private static final String VISIBLE_ATTR = "visible";
+	private static final String XSI_PREFIX = "xsi";
+
+	private CollageStreamingSerializer () { }
+
+	/**
+	 * Write a Collage root as XML. Placeholder shape lists are hydrated as they are written. Binary shapes of
+	 * missing plugins (see {@link CollageBinaryCodec#isBinaryUnknownShape(Object)}) have no XML form and are
+	 * left out.
+	 * @param root Collage root
+	 * @param os Output stream; not closed
+	 * @return Number of shapes left out
+	 * @throws CoreException if serialization fails
+	 */
+	public static int write (CollageRoot root, OutputStream os) throws CoreException {
+		int skipped = 0;
+		try {
+			Marshaller marshaller = CollageSerialization.getFragmentMarshaller();
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(ROOT_ELEMENT);
+			writer.writeNamespace(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+			writer.setPrefix(XSI_PREFIX, XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI);
+
+			List<CollageLayer> layers = root.getLayers();
+			List<ResourceShapeList> allShapeLists = new ArrayList<ResourceShapeList>();
+			for (CollageLayer layer : layers) {
+				allShapeLists.addAll(layer.getShapeLists());
+			}
+			ResourceShapeList.hydrateAll(allShapeLists);
+			writer.writeAttribute(CURRENT_LAYER_ATTR, Integer.toString(Math.max(0, layers.indexOf(root.getCurrentLayer()))));
+			for (CollageLayer layer : layers) {
+				writer.writeStartElement(LAYER_ELEMENT);
+				writer.writeAttribute(NAME_ATTR, layer.getName());
+				writer.writeAttribute(VISIBLE_ATTR, Boolean.toString(layer.isVisible()));
+				writer.writeStartElement(SHAPE_LIST_MAP_ELEMENT);
+				for (ResourceShapeList shapeList : layer.getShapeLists()) {
+					shapeList.hydrate();
+					List<Object> children = new ArrayList<Object>();
+					for (Object child : shapeList.getAllChildren()) {
+						if (CollageBinaryCodec.isBinaryUnknownShape(child)) {
+							skipped++;
+						} else {
+							children.add(child);
+						}
+					}
+					if (children.isEmpty()) {
+						continue;
+					}
+					writer.writeStartElement(MAPPING_ELEMENT);
+					marshaller.marshal(new JAXBElement<ResourceIdentifier>(new QName(RESOURCE_ELEMENT),
+							ResourceIdentifier.class, shapeList.getResource()), writer);
+					writer.writeStartElement(SHAPE_LIST_ELEMENT);
+					for (Object child : children) {
+						if (child instanceof Element) {
+							writeElement((Element)child, writer);
+						} else {
+							marshaller.marshal(new JAXBElement<Object>(new QName(SHAPE_ELEMENT), Object.class, child), writer);
+						}
+					}
+					writer.writeEndElement(); // shapeList
+					writer.writeEndElement(); // items
+				}
+				writer.writeEndElement(); // resourceShapesMap
+				writer.writeEndElement(); // layers
+			}
+			for (PluginDependency dependency : root.getPluginDependencies()) {
+				marshaller.marshal(new JAXBElement<PluginDependency>(new QName(DEPENDENCY_ELEMENT),
+						PluginDependency.class, dependency), writer);
+			}
+			writer.writeEndElement(); // collageRoot
+			writer.writeEndDocument();
+			writer.close();
+			return skipped;
+		} catch (JAXBException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "JAXB serialization of Collage data failed.", e));
+		} catch (XMLStreamException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "XML serialization of Collage data failed.", e));
+		}
+	}
+
+	/**
+	 * Read a Collage root from XML.
+	 * @param is Input stream; not closed
+	 * @return Collage root
+	 * @throws CoreException if parsing fails
+	 */
+	public static CollageRoot read (InputStream is) throws CoreException {
+		try {
+			Unmarshaller unmarshaller = CollageSerialization.getUnmarshaller();
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(is);
+			reader.nextTag();
+			if (!ROOT_ELEMENT.equals(reader.getLocalName())) {
+				throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Collage XML does not contain a Collage root element."));
+			}
+			String currentLayerIndex = reader.getAttributeValue(null, CURRENT_LAYER_ATTR);
+			reader.next();
+			List<CollageLayer> layers = new ArrayList<CollageLayer>();
+			List<PluginDependency> dependencies = new ArrayList<PluginDependency>();
+			while (nextChild(reader)) {
+				if (LAYER_ELEMENT.equals(reader.getLocalName())) {
+					layers.add(readLayer(reader, unmarshaller));
+				} else if (DEPENDENCY_ELEMENT.equals(reader.getLocalName())) {
+					dependencies.add(unmarshaller.unmarshal(reader, PluginDependency.class).getValue());
+				} else {
+					skipElement(reader);
+				}
+			}
+			reader.close();
+			return CollageRoot.restore(layers, (currentLayerIndex != null) ? Integer.parseInt(currentLayerIndex) : 0, dependencies);
+		} catch (NumberFormatException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "Collage XML has an invalid current layer index.", e));
+		} catch (JAXBException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "JAXB parsing of Collage data failed.", e));
+		} catch (XMLStreamException e) {
+			throw new CoreException(new Status(IStatus.ERROR, CollageActivator.PLUGIN_ID, "XML parsing of Collage data failed.", e));
+		}
+	}
+
+	private static CollageLayer readLayer (XMLStreamReader reader, Unmarshaller unmarshaller) throws XMLStreamException, JAXBException {
+		String name = reader.getAttributeValue(null, NAME_ATTR);
+		CollageLayer layer = (name != null) ? new CollageLayer(name) : new CollageLayer();
+		String visible = reader.getAttributeValue(null, VISIBLE_ATTR);
+		if (visible != null) {
+			layer.setVisible(Boolean.parseBoolean(visible));
+		}
+		reader.next();
+		while (nextChild(reader)) {
+			if (SHAPE_LIST_MAP_ELEMENT.equals(reader.getLocalName())) {
+				reader.next();
+				while (nextChild(reader)) {
+					if (MAPPING_ELEMENT.equals(reader.getLocalName())) {
+						readMapping(reader, unmarshaller, layer);
+					} else {
+						skipElement(reader);
+					}
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+		return layer;
+	}
+
+	private static void readMapping (XMLStreamReader reader, Unmarshaller unmarshaller, CollageLayer layer) throws XMLStreamException, JAXBException {
+		ResourceIdentifier resource = null;
+		List<Object> children = null;
+		reader.next();
+		while (nextChild(reader)) {
+			if (RESOURCE_ELEMENT.equals(reader.getLocalName())) {
+				resource = unmarshaller.unmarshal(reader, ResourceIdentifier.class).getValue();
+			} else if (SHAPE_LIST_ELEMENT.equals(reader.getLocalName())) {
+				children = new ArrayList<Object>();
+				reader.next();
+				while (nextChild(reader)) {
+					if (SHAPE_ELEMENT.equals(reader.getLocalName())) {
+						// Shapes of unknown types are returned as DOM elements, as with unmarshalling a whole root.
+						children.add(unmarshaller.unmarshal(reader, Object.class).getValue());
+					} else {
+						skipElement(reader);
+					}
+				}
+			} else {
+				skipElement(reader);
+			}
+		}
+		if (resource != null && children != null) {
+			layer.addStoredShapes(resource, new ResourceShapeList(children));
+		}
+	}
+
+	/**
+	 * Advance to the next child element of the current element. The reader must be positioned after the
+	 * start tag of the parent or after the end of the previous child. (Note that JAXB leaves the reader just
+	 * after the element it unmarshalled, which may already be the start tag of the next child.)
+	 * @return {@code true} if positioned on the start tag of a child, {@code false} if the end tag of the
+	 * parent was reached, in which case the reader is advanced past it
+	 */
+	private static boolean nextChild (XMLStreamReader reader) throws XMLStreamException {
+		int event = reader.getEventType();
+		while (true) {
+			switch (event) {
+			case XMLStreamConstants.START_ELEMENT:
+				return true;
+			case XMLStreamConstants.END_ELEMENT:
+				reader.next();
+				return false;
+			case XMLStreamConstants.END_DOCUMENT:
+				throw new XMLStreamException("Unexpected end of Collage XML document");
+			default:
+				event = reader.next();
+			}
+		}
+	}
+
+	/**
+	 * Skip an element (and its children) that is not part of the Collage format, leaving the reader just
+	 * after its end tag.
+	 */
+	private static void skipElement (XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+		reader.next();
+	}
+
+	/**
+	 * Write a DOM element (an unknown shape) to the stream unchanged.
+	 */
+	private static void writeElement (Element element, XMLStreamWriter writer) throws XMLStreamException {
+		writer.writeStartElement(element.getNodeName());
+		NamedNodeMap attributes = element.getAttributes();
+		for (int i = 0; i < attributes.getLength(); i++) {
+			Attr attribute = (Attr)attributes.item(i);
+			String namespace = attribute.getNamespaceURI();
+			if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespace)) {
+				continue; // namespaces are declared as needed below
+			}
+			if (namespace != null && attribute.getPrefix() != null) {
+				if (!namespace.equals(writer.getNamespaceContext().getNamespaceURI(attribute.getPrefix()))) {
+					writer.writeNamespace(attribute.getPrefix(), namespace);
+				}
+				writer.writeAttribute(attribute.getPrefix(), namespace, attribute.getLocalName(), attribute.getValue());
+			} else {
+				writer.writeAttribute(attribute.getName(), attribute.getValue());
+			}
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element) {
+				writeElement((Element)child, writer);
+			} else if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+				writer.writeCharacters(child.getNodeValue());
+			}
+		}
+		writer.writeEndElement();
+	}
+}
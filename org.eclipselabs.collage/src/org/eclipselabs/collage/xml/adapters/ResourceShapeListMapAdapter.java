@@ -21,7 +21,7 @@ import org.eclipselabs.collage.model.resourceid.ResourceIdentifier;
 
 /**
  * A JAXB adapter for {@link ResourceShapeList}s. Omits {@link ResourceShapeList}s 
- * with no children when saving.
+ * with no children when saving. Placeholder lists are hydrated before they are saved.
  * @author Alex Bradley
  */
 public class ResourceShapeListMapAdapter extends
@@ -58,6 +58,7 @@ public class ResourceShapeListMapAdapter extends
 			HashMap<ResourceIdentifier, ResourceShapeList> v)
 			throws Exception {
 		ResourceShapeListMappingsList result = new ResourceShapeListMappingsList();
+		ResourceShapeList.hydrateAll(v.values());
 		for (Entry<ResourceIdentifier, ResourceShapeList> entry : v.entrySet()) {
 			if (entry.getValue().hasChildren()) {
 				result.items.add(new ResourceShapeListMapping(entry.getKey(), entry.getValue()));
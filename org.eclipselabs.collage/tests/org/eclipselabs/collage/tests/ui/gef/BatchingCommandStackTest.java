@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.tests.ui.gef;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.gef.commands.Command;
+import org.eclipselabs.collage.model.ModelElement;
+import org.eclipselabs.collage.ui.gef.BatchingCommandStack;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Tests for batching of model changes by command.
+ * @author Alex Bradley
+ */
+public class BatchingCommandStackTest {
+	private static final String PROP = "TestElement.Value";
+
+	private static class TestElement extends ModelElement {
+		private int value = 0;
+
+		void setValue (int newValue) {
+			int oldValue = value;
+			value = newValue;
+			firePropertyChange(PROP, oldValue, newValue);
+		}
+	}
+
+	private static class SetValueCommand extends Command {
+		private final TestElement element;
+		private final int value;
+		private final boolean fail;
+
+		SetValueCommand (TestElement element, int value, boolean fail) {
+			this.element = element;
+			this.value = value;
+			this.fail = fail;
+		}
+
+		@Override
+		public void execute() {
+			element.setValue(value);
+			element.setValue(value + 1);
+			if (fail) {
+				throw new IllegalStateException();
+			}
+		}
+	}
+
+	private final TestElement element = new TestElement();
+	private final List<PropertyChangeEvent> events = new ArrayList<PropertyChangeEvent>();
+
+	public BatchingCommandStackTest () {
+		element.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				events.add(evt);
+			}
+		});
+	}
+
+	@Test
+	public void testChangesReportedWhenCommandDone () {
+		BatchingCommandStack stack = new BatchingCommandStack();
+		stack.execute(new SetValueCommand(element, 1, false));
+		assertEquals(2, events.size());
+		assertEquals(2, events.get(1).getNewValue());
+	}
+
+	@Test
+	public void testChangesReportedWhenCommandThrows () {
+		BatchingCommandStack stack = new BatchingCommandStack();
+		try {
+			stack.execute(new SetValueCommand(element, 1, true));
+			fail("Exception expected");
+		} catch (IllegalStateException e) {
+			// Expected.
+		}
+		assertEquals(2, events.size());
+
+		// The batch must not be left open: later changes are reported immediately.
+		events.clear();
+		element.setValue(5);
+		assertEquals(1, events.size());
+		assertEquals(5, events.get(0).getNewValue());
+	}
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.tests.util;
+
+import java.util.Arrays;
+
+import org.eclipse.draw2d.geometry.PointList;
+import org.eclipselabs.collage.util.CollageContentPool;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Test sharing of shape content through the content pool.
+ * @author Alex Bradley
+ */
+public class CollageContentPoolTest {
+	@Test
+	public void testText () {
+		String first = CollageContentPool.internText(new String("Reviewed: looks good"));
+		String second = CollageContentPool.internText(new String("Reviewed: looks good"));
+		assertSame(first, second);
+		assertEquals("Reviewed: looks good", second);
+		assertEquals("Reviewed: looks bad", CollageContentPool.internText("Reviewed: looks bad"));
+		assertNull(CollageContentPool.internText(null));
+	}
+
+	@Test
+	public void testPoints () {
+		PointList first = CollageContentPool.internPoints(new PointList(new int[] {0, 0, 3, 4, 5, 12}));
+		PointList second = CollageContentPool.internPoints(new PointList(new int[] {0, 0, 3, 4, 5, 12}));
+		assertSame(first, second);
+		PointList other = CollageContentPool.internPoints(new PointList(new int[] {0, 0, 3, 4, 5, 13}));
+		assertNotSame(first, other);
+		assertTrue(Arrays.equals(new int[] {0, 0, 3, 4, 5, 13}, other.toIntArray()));
+	}
+}
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.tests.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.eclipse.draw2d.geometry.Point;
+import org.eclipse.draw2d.geometry.PointList;
+import org.eclipselabs.collage.util.CollageDataInput;
+import org.eclipselabs.collage.util.CollageDataOutput;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Test the binary data streams used for Collage storage.
+ * @author Alex Bradley
+ */
+public class CollageDataStreamTest {
+	@Test
+	public void testVarInts () throws Exception {
+		int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+		long[] longValues = {0, 1, 1334000000000L, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CollageDataOutput out = new CollageDataOutput(bytes);
+		for (int value : values) {
+			out.writeVarInt(value);
+			out.writeSignedVarInt(value);
+		}
+		for (long value : longValues) {
+			out.writeVarLong(value);
+			out.writeSignedVarLong(value);
+		}
+
+		CollageDataInput in = new CollageDataInput(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int value : values) {
+			assertEquals(value, in.readVarInt());
+			assertEquals(value, in.readSignedVarInt());
+		}
+		for (long value : longValues) {
+			assertEquals(value, in.readVarLong());
+			assertEquals(value, in.readSignedVarLong());
+		}
+	}
+
+	@Test
+	public void testVarIntSize () throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CollageDataOutput out = new CollageDataOutput(bytes);
+		out.writeVarInt(127);
+		out.writeSignedVarInt(-64);
+		assertEquals(2, bytes.size());
+	}
+
+	@Test
+	public void testStrings () throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CollageDataOutput out = new CollageDataOutput(bytes);
+		out.writeString(null);
+		out.writeString("");
+		out.writeString("caf\u00e9 \u2603");
+		out.writeInternedString("abradley");
+		int sizeAfterFirst = bytes.size();
+		out.writeInternedString("abradley");
+		assertEquals(sizeAfterFirst + 1, bytes.size());
+		out.writeInternedString(null);
+		out.writeInternedString("someone else");
+		out.writeInternedString(null);
+
+		CollageDataInput in = new CollageDataInput(new ByteArrayInputStream(bytes.toByteArray()));
+		assertNull(in.readString());
+		assertEquals("", in.readString());
+		assertEquals("caf\u00e9 \u2603", in.readString());
+		assertEquals("abradley", in.readInternedString());
+		assertEquals("abradley", in.readInternedString());
+		assertNull(in.readInternedString());
+		assertEquals("someone else", in.readInternedString());
+		assertNull(in.readInternedString());
+	}
+
+	@Test
+	public void testPointList () throws Exception {
+		PointList points = new PointList(new int[] {0, 0, 3, 4, 2, 9, 1500, 1, 1499, 0});
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CollageDataOutput out = new CollageDataOutput(bytes);
+		out.writePointList(points);
+		out.writePointList(new PointList());
+		out.writePoint(new Point(-5, 12));
+
+		CollageDataInput in = new CollageDataInput(new ByteArrayInputStream(bytes.toByteArray()));
+		PointList read = in.readPointList();
+		assertEquals(points.size(), read.size());
+		for (int i = 0; i < points.size(); i++) {
+			assertEquals(points.getPoint(i), read.getPoint(i));
+		}
+		assertEquals(0, in.readPointList().size());
+		assertEquals(new Point(-5, 12), in.readPoint());
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2012 Alex Bradley.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Alex Bradley - initial API and implementation
+ *******************************************************************************/
+package org.eclipselabs.collage.tests.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipselabs.collage.util.LineIntervalIndex;
+import org.junit.Test;
+
+import static junit.framework.Assert.*;
+
+/**
+ * Test queries on the line interval index.
+ * @author Alex Bradley
+ */
+public class LineIntervalIndexTest {
+	@Test
+	public void testFind () {
+		LineIntervalIndex<String> index = new LineIntervalIndex<String>();
+		index.put("a", 10, 12);
+		index.put("b", 1, 3);
+		index.put("c", 5, 40);
+		index.put("unbounded", -1, -1);
+		index.put("d", 12, 12);
+
+		assertEquals(Arrays.asList("b", "unbounded"), index.find(2, 4));
+		assertEquals(Arrays.asList("a", "c", "unbounded", "d"), index.find(12, 12));
+		assertEquals(Arrays.asList("c", "unbounded"), index.find(13, 20));
+		assertEquals(Arrays.asList("a", "c", "unbounded", "d"), index.find(4, Integer.MAX_VALUE));
+
+		// Updates keep their place in the order of results.
+		index.put("b", 30, 31);
+		assertEquals(Arrays.asList("b", "c", "unbounded"), index.find(25, 35));
+		assertTrue(index.remove("c"));
+		assertFalse(index.remove("c"));
+		assertEquals(Arrays.asList("b", "unbounded"), index.find(25, 35));
+		assertEquals(4, index.size());
+	}
+
+	@Test
+	public void testAgainstScan () {
+		Random random = new Random(42);
+		LineIntervalIndex<Integer> index = new LineIntervalIndex<Integer>();
+		int[][] ranges = new int[500][];
+		// The index compares values by identity, so box each value just once.
+		Integer[] values = new Integer[ranges.length];
+		for (int value = 0; value < values.length; value++) {
+			values[value] = new Integer(value);
+		}
+		for (int step = 0; step < 5000; step++) {
+			int value = random.nextInt(ranges.length);
+			if (random.nextInt(4) == 0) {
+				index.remove(values[value]);
+				ranges[value] = null;
+			} else {
+				int first = 1 + random.nextInt(1000);
+				ranges[value] = new int[] {first, first + random.nextInt(30)};
+				index.put(values[value], ranges[value][0], ranges[value][1]);
+			}
+		}
+
+		for (int query = 0; query < 200; query++) {
+			int first = 1 + random.nextInt(1000);
+			int last = first + random.nextInt(100);
+			List<Integer> found = index.find(first, last);
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int value = 0; value < ranges.length; value++) {
+				if (ranges[value] != null && ranges[value][0] <= last && ranges[value][1] >= first) {
+					expected.add(values[value]);
+				}
+			}
+			assertEquals(expected.size(), found.size());
+			assertTrue(found.containsAll(expected));
+		}
+	}
+}